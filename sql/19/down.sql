@@ -0,0 +1,23 @@
+USE master;
+
+SET @migration := 19;
+
+-- check migration number
+SELECT CASE migration WHEN @migration THEN 'SELECT ''Performing update...''' ELSE CONCAT('KILL CONNECTION ', connection_id()) END
+INTO @stmt FROM Migration;
+
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+-- ////////////////////////////////////////// --
+
+USE directory;
+
+ALTER TABLE Ingest DROP INDEX idx_ingest_status;
+
+USE master;
+
+-- ////////////////////////////////////////// --
+-- update migration
+UPDATE Migration SET migration = migration - 1;
+
+COMMIT;
\ No newline at end of file
@@ -0,0 +1,24 @@
+USE master;
+
+SET @migration := 19;
+
+-- check migration number
+SELECT CASE migration WHEN @migration - 1 THEN 'SELECT ''Performing update...''' ELSE CONCAT('KILL CONNECTION ', connection_id()) END
+INTO @stmt FROM Migration;
+
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+-- ////////////////////////////////////////// --
+
+USE directory;
+
+-- expired ingests (status 'E') are found and purged in background
+ALTER TABLE Ingest ADD INDEX idx_ingest_status (status);
+
+USE master;
+
+-- ////////////////////////////////////////// --
+-- update migration
+UPDATE Migration SET migration = migration + 1;
+
+COMMIT;
\ No newline at end of file
@@ -9,14 +9,24 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import com.townwizard.db.logger.Log;
+import com.townwizard.db.util.HttpUtils;
+import com.townwizard.globaldata.connector.FacebookTokenManager;
+import com.townwizard.globaldata.dao.GlobalDataDaoHibernateImpl;
 import com.townwizard.globaldata.ingest.place.IngestHttpExecutors;
+import com.townwizard.globaldata.ingest.place.IngestPurger;
 import com.townwizard.globaldata.ingest.place.IngestQueue;
 import com.townwizard.globaldata.ingest.place.Ingesters;
+import com.townwizard.globaldata.service.EventFeedCache;
+import com.townwizard.globaldata.service.geo.LocationServiceImpl;
+import com.townwizard.globaldata.service.provider.FacebookServiceImpl;
+import com.townwizard.globaldata.service.provider.YellowPagesServiceImpl;
 
 public class ContextLoaderListener implements ServletContextListener {
 
     @Override
-    public void contextInitialized(ServletContextEvent event) {}
+    public void contextInitialized(ServletContextEvent event) {
+        LocationServiceImpl.loadDataInBackground();
+    }
 
     @Override
     public void contextDestroyed(ServletContextEvent event) {
@@ -25,6 +35,13 @@ public class ContextLoaderListener implements ServletContextListener {
         Ingesters.shutdownThreads();
         IngestHttpExecutors.shutdownThreads();
         IngestQueue.shutdownThreads();
+        IngestPurger.shutdownThreads();
+        YellowPagesServiceImpl.shutdownThreads();
+        FacebookServiceImpl.shutdownThreads();
+        FacebookTokenManager.shutdownThreads();
+        GlobalDataDaoHibernateImpl.shutdownThreads();
+        EventFeedCache.shutdownThreads();
+        HttpUtils.shutdown();
     }
     
     // This manually deregisters JDBC driver, which prevents Tomcat 7 from complaining about memory leaks
@@ -10,8 +10,55 @@ public enum ConfigurationKey {
             "Number of locations in the directory listing when paging is used"),    
     PLACE_INGEST_NUM_HTTP_EXECUTORS("PLACE_INGEST_NUM_HTTP_EXECUTORS", 30,
             "Number of threads executing HTTP requests to directory providers (such as Yellow Pages)"),
+    PLACE_INGEST_NUM_DB_EXECUTORS("PLACE_INGEST_NUM_DB_EXECUTORS", 4,
+            "Number of threads writing ingested places to the directory DB. Ingests are sharded by zip between the threads"),
+    PLACE_INGEST_HTTP_QUEUE_CAPACITY("PLACE_INGEST_HTTP_QUEUE_CAPACITY", 1000,
+            "Maximum number of place ingest tasks waiting for http executors"),
+    PLACE_INGEST_DB_QUEUE_CAPACITY("PLACE_INGEST_DB_QUEUE_CAPACITY", 100,
+            "Maximum number of fetched place ingest tasks waiting to be written to the DB (split between DB threads)"),
     PLACE_INGEST_STOPPED("PLACE_INGEST_STOPPED", false,
-            "If set, the medium priority directory ingest will be suspended");
+            "If set, the medium priority directory ingest will be suspended"),
+    PLACE_INGEST_DB_BATCH_SIZE("PLACE_INGEST_DB_BATCH_SIZE", 200,
+            "Maximum number of rows written by one multi-row insert statement during directory ingest"),
+    HTTP_CONNECTION_TIMEOUT("HTTP_CONNECTION_TIMEOUT", 30000,
+            "Timeout in milliseconds for establishing outgoing HTTP connections"),
+    HTTP_SOCKET_TIMEOUT("HTTP_SOCKET_TIMEOUT", 60000,
+            "Timeout in milliseconds for waiting for data on outgoing HTTP connections"),
+    HTTP_CONNECTION_LEASE_TIMEOUT("HTTP_CONNECTION_LEASE_TIMEOUT", 10000,
+            "Timeout in milliseconds for waiting for a free connection from the outgoing HTTP connection pool"),
+    YELLOW_PAGES_PAGE_FAN_OUT("YELLOW_PAGES_PAGE_FAN_OUT", 4,
+            "Maximum number of Yellow Pages result pages fetched in parallel for one zip and term"),
+    YELLOW_PAGES_NUM_PAGE_FETCHERS("YELLOW_PAGES_NUM_PAGE_FETCHERS", 60,
+            "Number of threads fetching Yellow Pages result pages"),
+    GEO_SNAPSHOT_FILE("GEO_SNAPSHOT_FILE",
+            System.getProperty("java.io.tmpdir") + java.io.File.separator + "townwizard-locations.snapshot",
+            "Binary snapshot of the location data file, created on the first load. Empty value disables the snapshot"),
+    GEO_IP_INDEX_REFRESH_HOURS("GEO_IP_INDEX_REFRESH_HOURS", 24,
+            "How often the in-memory IP to city location index is reloaded from the database. 0 means load once, negative disables the index"),
+    GEO_TIME_ZONE_REFRESH_HOURS("GEO_TIME_ZONE_REFRESH_HOURS", 24,
+            "How often the whole zip to time zone table is reloaded into memory. 0 means load once, negative disables preloading (time zones are then looked up and cached per zip)"),
+    PLACE_SOURCE_RESULT_TTL_SECONDS("PLACE_SOURCE_RESULT_TTL_SECONDS", 120,
+            "How long places fetched from the place source are reused by identical requests and ingests. 0 disables reuse"),
+    PLACE_INGEST_CACHE_MAX_PLACES("PLACE_INGEST_CACHE_MAX_PLACES", 200000,
+            "Maximum total number of places of ready ingests kept in memory"),
+    PLACE_INGEST_PURGE_BATCH_SIZE("PLACE_INGEST_PURGE_BATCH_SIZE", 500,
+            "Maximum number of places of expired ingests purged in one transaction"),
+    PLACE_INGEST_PURGE_INTERVAL_SECONDS("PLACE_INGEST_PURGE_INTERVAL_SECONDS", 60,
+            "How often expired place ingests are looked for and purged in background"),
+    PLACE_INGEST_ABANDONED_HOURS("PLACE_INGEST_ABANDONED_HOURS", 6,
+            "Place refresh ingests still in progress this many hours after they were created are considered abandoned, and are purged"),
+    EVENT_FEED_TTL_SECONDS("EVENT_FEED_TTL_SECONDS", 600,
+            "How long an event feed of a zip is served before it is refreshed in background. 0 disables the cache"),
+    EVENT_FEED_MAX_STALE_SECONDS("EVENT_FEED_MAX_STALE_SECONDS", 3600,
+            "How long a stale event feed of a zip is served while it is being refreshed"),
+    FACEBOOK_NUM_QUERY_THREADS("FACEBOOK_NUM_QUERY_THREADS", 20,
+            "Number of threads running Facebook event and page queries"),
+    FACEBOOK_EVENT_TERMS_PER_QUERY("FACEBOOK_EVENT_TERMS_PER_QUERY", 5,
+            "Maximum number of city names searched by one Facebook event query"),
+    FACEBOOK_TOKEN_REFRESH_MINUTES("FACEBOOK_TOKEN_REFRESH_MINUTES", 720,
+            "How often the Facebook app access token is refreshed in background. 0 disables periodic refresh"),
+    RATING_AGGREGATE_TTL_SECONDS("RATING_AGGREGATE_TTL_SECONDS", 3600,
+            "How long cached content rating sums and counts are used before they are reloaded. 0 disables the cache");
     
     private String key; 
     private Object defaultValue;
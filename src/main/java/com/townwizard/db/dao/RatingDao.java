@@ -26,7 +26,7 @@ public interface RatingDao extends AbstractDao {
     
     /**
      * Return a rating object which represents an average rating for a given content.
-     * The returned object will have an average value, and a count of ratings existing for that content.
+     * The returned object will have an average value, and a count and a sum of ratings existing for that content.
      * If none exists, return null
      */
     Rating getAverageRating(Content content);
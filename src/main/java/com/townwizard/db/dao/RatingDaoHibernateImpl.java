@@ -38,7 +38,7 @@ public class RatingDaoHibernateImpl extends AbstractDaoHibernateImpl implements
     @Override
     public Rating getAverageRating(Content content) {        
         Object[] valueAndCount = (Object[])getSession().createQuery(
-                "select avg(value), count(value) from Rating where content = :content and active = true")
+                "select avg(value), count(value), sum(value) from Rating where content = :content and active = true")
             .setEntity("content", content).uniqueResult();
         
         int count = ((Long)valueAndCount[1]).intValue();
@@ -47,6 +47,7 @@ public class RatingDaoHibernateImpl extends AbstractDaoHibernateImpl implements
             r.setContent(content);
             r.setValue(new Float((Double)valueAndCount[0]));
             r.setCount(count);
+            r.setSum((Double)valueAndCount[2]);
             return r;
         }
         return null;
@@ -56,7 +57,7 @@ public class RatingDaoHibernateImpl extends AbstractDaoHibernateImpl implements
     public List<Rating> getAverageRatings(List<Content> contents) {
         @SuppressWarnings("unchecked")
         List<Object[]> ratings = getSession().createQuery(
-                "select content.id, avg(value), count(value) from Rating " + 
+                "select content.id, avg(value), count(value), sum(value) from Rating " + 
                 "where content in :contents and active = true " + 
                 "group by content")
             .setParameterList("contents", contents).list();        
@@ -74,6 +75,7 @@ public class RatingDaoHibernateImpl extends AbstractDaoHibernateImpl implements
                 rating.setContent(idToContent.get(r[0]));
                 rating.setValue(new Float((Double)r[1]));
                 rating.setCount(((Long)r[2]).intValue());
+                rating.setSum((Double)r[3]);
                 result.add(rating);
             }
         }
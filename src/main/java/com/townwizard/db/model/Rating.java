@@ -13,7 +13,8 @@ import javax.persistence.Transient;
  * a specific content.
  * 
  * When representing a user rating, the user field is set and the cound field is null;
- * and for average ratings the user field is null, but the count field is set
+ * and for average ratings the user field is null, but the count field is set, and the sum field
+ * is set to the exact sum of the ratings
  */
 @Entity
 public class Rating extends AuditableEntity {
@@ -27,6 +28,8 @@ public class Rating extends AuditableEntity {
     private Float value;
     @Transient
     private Integer count;
+    @Transient
+    private Double sum;
     
     public User getUser() {
         return user;
@@ -52,4 +55,10 @@ public class Rating extends AuditableEntity {
     public void setCount(Integer count) {
         this.count = count;
     }
+    public Double getSum() {
+        return sum;
+    }
+    public void setSum(Double sum) {
+        this.sum = sum;
+    }
 }
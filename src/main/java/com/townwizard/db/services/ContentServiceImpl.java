@@ -1,9 +1,14 @@
 package com.townwizard.db.services;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -18,6 +23,7 @@ import com.townwizard.db.model.Event;
 import com.townwizard.db.model.EventResponse;
 import com.townwizard.db.model.Rating;
 import com.townwizard.db.model.User;
+import com.townwizard.db.services.RatingAggregateCache.Aggregate;
 import com.townwizard.db.util.DateUtils;
 
 /**
@@ -33,6 +39,8 @@ public class ContentServiceImpl implements ContentService {
     private RatingDao ratingDao;
     @Autowired
     private EventDao eventDao;
+    @Autowired
+    private RatingAggregateCache ratingAggregateCache;
     
 
     @Override
@@ -46,13 +54,16 @@ public class ContentServiceImpl implements ContentService {
         User u = new User();
         u.setId(userId);
         Rating r = ratingDao.getRating(u, c);
+        Float oldValue = null;
         if(r == null) {
             r = createRating(u, c, value);
             ratingDao.create(r);
         } else {
+            oldValue = r.getValue();
             r.setValue(new Float(value));
             ratingDao.update(r);
         }
+        ratingAggregateCache.ratingSaved(c, oldValue, value);
         return r == null ? null : r.getId();
     }
     
@@ -84,22 +95,38 @@ public class ContentServiceImpl implements ContentService {
     @Override
     public Rating getAverageRating(Integer siteId, ContentType contentType,
             Long externalContentId) {
-        Rating rating = null;
-        Content c = contentDao.getContent(siteId, contentType, externalContentId);
-        if(c != null) {
-            rating = ratingDao.getAverageRating(c);            
-        }
-        return rating;
+        List<Rating> ratings = getAverageRatings(
+                siteId, contentType, Collections.singletonList(externalContentId));
+        return ratings.isEmpty() ? null : ratings.get(0);
     }
     
     @Override
     public List<Rating> getAverageRatings(Integer siteId,
             ContentType contentType, List<Long> externalContentIds) {
-        List<Content> contents = contentDao.getContents(siteId, contentType, externalContentIds);
-        if(!contents.isEmpty()) {
-            return ratingDao.getAverageRatings(contents);
+        //taken before anything is read in this transaction, see loadRatingAggregates()
+        long cacheVersion = ratingAggregateCache.getVersion();
+        Set<Long> ids = new LinkedHashSet<>(externalContentIds);
+        Map<Long, Aggregate> aggregates = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for(Long id : ids) {
+            Aggregate a = ratingAggregateCache.get(siteId, contentType, id);
+            if(a != null) aggregates.put(id, a);
+            else missing.add(id);
         }
-        return Collections.emptyList();
+        if(!missing.isEmpty()) {
+            Map<Long, Aggregate> loaded = loadRatingAggregates(
+                    cacheVersion, siteId, contentType, missing);
+            aggregates.putAll(loaded);
+        }
+        
+        List<Rating> result = new ArrayList<>();
+        for(Long id : ids) {
+            Aggregate a = aggregates.get(id);
+            if(a.getCount() > 0) {
+                result.add(createAverageRating(siteId, contentType, id, a));
+            }
+        }
+        return result;
     }    
     
     @Override
@@ -146,6 +173,31 @@ public class ContentServiceImpl implements ContentService {
         return er == null ? null : er.getId();
     }
     
+    /*
+     * Load rating aggregates of contents from the DB, and cache them unless ratings were saved
+     * after the cache version was taken, because this transaction may not see them.
+     * Contents which do not exist, or have no ratings, get aggregates with count 0.
+     */
+    private Map<Long, Aggregate> loadRatingAggregates(long cacheVersion,
+            Integer siteId, ContentType contentType, List<Long> externalContentIds) {
+        Map<Long, Aggregate> loaded = new HashMap<>();
+        List<Content> contents = contentDao.getContents(siteId, contentType, externalContentIds);
+        if(!contents.isEmpty()) {
+            for(Content c : contents) {
+                loaded.put(c.getExternalId(), new Aggregate(c.getId(), 0, 0));
+            }
+            for(Rating r : ratingDao.getAverageRatings(contents)) {
+                Content c = r.getContent();
+                loaded.put(c.getExternalId(), new Aggregate(c.getId(), r.getSum(), r.getCount()));
+            }
+        }
+        for(Long id : externalContentIds) {
+            if(!loaded.containsKey(id)) loaded.put(id, new Aggregate(null, 0, 0));
+        }
+        ratingAggregateCache.putAll(cacheVersion, siteId, contentType, loaded);
+        return loaded;
+    }
+    
     private Event updateEvent(Integer siteId, Long eventId, Date eventDate) {
         Event event = eventDao.getEvent(siteId, eventId);
         if(event == null) {
@@ -174,6 +226,17 @@ public class ContentServiceImpl implements ContentService {
         return r;
     }
     
+    private Rating createAverageRating(
+            Integer siteId, ContentType contentType, Long externalContentId, Aggregate aggregate) {
+        Content c = createContent(siteId, contentType, externalContentId);
+        c.setId(aggregate.getContentId());
+        Rating r = new Rating();
+        r.setContent(c);
+        r.setValue(aggregate.getAverage());
+        r.setCount((int)aggregate.getCount());
+        return r;
+    }
+    
     private Event createEvent(Integer siteId, Long eventId, Date eventDate) {
         Event e = new Event();
         e.setSiteId(siteId);
@@ -0,0 +1,210 @@
+package com.townwizard.db.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
+import com.townwizard.db.model.Content;
+import com.townwizard.db.model.Content.ContentType;
+
+/**
+ * In-memory cache of rating aggregates (rating sum and rating count) by site id, content type,
+ * and external content id.
+ *
+ * Aggregates are loaded from the DB on cache miss, and then kept up to date by applying
+ * the changes of saved ratings after their transactions commit, so average ratings are read
+ * without aggregating ratings in the DB.  Contents with no ratings are cached as well, with count 0.
+ *
+ * Aggregates loaded while ratings are being saved may miss the changes of those ratings, and
+ * are not cached.  Aggregates older than the TTL are reloaded, which also picks up ratings
+ * changed outside of the application.
+ */
+@Component("ratingAggregateCache")
+public final class RatingAggregateCache {
+
+    private static final int MAX_ENTRIES = 100000;
+
+    @Autowired private ConfigurationService configurationService;
+
+    private final Map<Key, Aggregate> aggregates = new LinkedHashMap<Key, Aggregate>(1024, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Aggregate> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    /* incremented every time a rating is saved, and every time its transaction completes,
+       guarded by aggregates */
+    private long version;
+    /* number of saved ratings whose transactions are not completed yet, guarded by aggregates */
+    private int pendingChanges;
+
+    /**
+     * Rating sum and count of a content.  The content id is null if there is no such content.
+     */
+    public static final class Aggregate {
+        private final Long contentId;
+        private final double sum;
+        private final long count;
+        private final long loaded;
+
+        public Aggregate(Long contentId, double sum, long count) {
+            this(contentId, sum, count, System.currentTimeMillis());
+        }
+
+        private Aggregate(Long contentId, double sum, long count, long loaded) {
+            this.contentId = contentId;
+            this.sum = sum;
+            this.count = count;
+            this.loaded = loaded;
+        }
+
+        public Long getContentId() {
+            return contentId;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Average rating, or null if there are no ratings
+         */
+        public Float getAverage() {
+            return count > 0 ? new Float(sum / count) : null;
+        }
+    }
+
+    /**
+     * Get the aggregate of the content, or null if it is not cached or is older than the TTL
+     */
+    public Aggregate get(Integer siteId, ContentType contentType, Long externalContentId) {
+        long ttl = getTtlMillis();
+        if(ttl <= 0) return null;
+        Aggregate a;
+        synchronized (aggregates) {
+            a = aggregates.get(new Key(siteId, contentType, externalContentId));
+        }
+        return a != null && System.currentTimeMillis() - a.loaded < ttl ? a : null;
+    }
+
+    /**
+     * Get the cache version, which must be taken before loading aggregates from the DB,
+     * and passed to putAll()
+     */
+    public long getVersion() {
+        synchronized (aggregates) {
+            return version;
+        }
+    }
+
+    /**
+     * Cache aggregates loaded from the DB by external content id, unless ratings were saved,
+     * or saved ratings were committed, since the version was taken, or ratings are still being saved
+     */
+    public void putAll(long loadVersion, Integer siteId, ContentType contentType,
+            Map<Long, Aggregate> loaded) {
+        if(getTtlMillis() <= 0) return;
+        synchronized (aggregates) {
+            if(loadVersion != version || pendingChanges != 0) return;
+            for(Map.Entry<Long, Aggregate> e : loaded.entrySet()) {
+                aggregates.put(new Key(siteId, contentType, e.getKey()), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Register a saved rating of the content.  The old value is null if the rating is new.
+     * The cached aggregate of the content is updated when the current transaction commits.
+     */
+    public void ratingSaved(Content content, final Float oldValue, final Float newValue) {
+        final Key key = new Key(content.getSiteId(), content.getContentType(), content.getExternalId());
+        final Long contentId = content.getId();
+        synchronized (aggregates) {
+            version++;
+            pendingChanges++;
+        }
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    completed(key, contentId, oldValue, newValue,
+                            status == TransactionSynchronization.STATUS_COMMITTED);
+                }
+            });
+        } else {
+            completed(key, contentId, oldValue, newValue, true);
+        }
+    }
+
+    public int size() {
+        synchronized (aggregates) {
+            return aggregates.size();
+        }
+    }
+
+    ///////// private methods /////////
+
+    private long getTtlMillis() {
+        return configurationService.getIntValue(ConfigurationKey.RATING_AGGREGATE_TTL_SECONDS) * 1000L;
+    }
+
+    private void completed(Key key, Long contentId, Float oldValue, Float newValue, boolean committed) {
+        synchronized (aggregates) {
+            //a load which overlaps the commit may have read the DB before it, so it must not be cached
+            version++;
+            pendingChanges--;
+            if(!committed) return;
+            Aggregate a = aggregates.get(key);
+            if(a == null) return;
+            if(newValue == null) {
+                aggregates.remove(key);
+                return;
+            }
+            double sum = a.sum + newValue - (oldValue != null ? oldValue : 0);
+            long count = oldValue != null ? a.count : a.count + 1;
+            aggregates.put(key, new Aggregate(contentId, sum, count, a.loaded));
+        }
+    }
+
+    /*
+     * Aggregate key: site id, content type, and external content id
+     */
+    private static final class Key {
+        private final Integer siteId;
+        private final ContentType contentType;
+        private final Long externalContentId;
+
+        Key(Integer siteId, ContentType contentType, Long externalContentId) {
+            this.siteId = siteId;
+            this.contentType = contentType;
+            this.externalContentId = externalContentId;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = siteId != null ? siteId.hashCode() : 0;
+            result = 31 * result + (contentType != null ? contentType.hashCode() : 0);
+            return 31 * result + (externalContentId != null ? externalContentId.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) return true;
+            if(!(obj instanceof Key)) return false;
+            Key k = (Key)obj;
+            return (siteId != null ? siteId.equals(k.siteId) : k.siteId == null) &&
+                   contentType == k.contentType &&
+                   (externalContentId != null ? externalContentId.equals(k.externalContentId) :
+                       k.externalContentId == null);
+        }
+    }
+
+}
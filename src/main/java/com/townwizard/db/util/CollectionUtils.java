@@ -1,7 +1,9 @@
 package com.townwizard.db.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Collection utils
@@ -38,4 +40,17 @@ public final class CollectionUtils {
         return sb.toString();
     }
 
+    /**
+     * Split a list into consecutive sublists of the given size (the last one may be smaller).
+     * The sublists are views of the original list.
+     */
+    public static <T> List<List<T>> partition(List<T> list, int size) {
+        List<List<T>> result = new ArrayList<>();
+        if(list == null || list.isEmpty()) return result;
+        for(int start = 0; start < list.size(); start += size) {
+            result.add(list.subList(start, Math.min(start + size, list.size())));
+        }
+        return result;
+    }
+
 }
@@ -0,0 +1,56 @@
+package com.townwizard.db.util;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationListener;
+import com.townwizard.db.configuration.ConfigurationService;
+
+/**
+ * Applies configuration to the shared HTTP client in HttpUtils.
+ * 
+ * The maximum number of connections per host follows the number of place ingest HTTP executors
+ * times the Yellow Pages page fan-out, so that every executor can hold keep-alive connections
+ * for all the pages it fetches in parallel.
+ */
+@Component
+public final class HttpClientConfigurer implements ConfigurationListener {
+    
+    @Autowired private ConfigurationService configurationService;
+    
+    @PostConstruct
+    public void init() {
+        configure();
+        configurationService.addConfigurationListener(this);
+    }
+
+    @Override
+    public ConfigurationKey[] keysOfInterest() {
+        return new ConfigurationKey[] {
+                ConfigurationKey.HTTP_CONNECTION_TIMEOUT,
+                ConfigurationKey.HTTP_SOCKET_TIMEOUT,
+                ConfigurationKey.HTTP_CONNECTION_LEASE_TIMEOUT,
+                ConfigurationKey.PLACE_INGEST_NUM_HTTP_EXECUTORS,
+                ConfigurationKey.YELLOW_PAGES_PAGE_FAN_OUT};
+    }
+
+    @Override
+    public void configurationChanged(ConfigurationKey key) {
+        configure();
+    }
+    
+    private void configure() {
+        HttpUtils.setTimeouts(
+                configurationService.getIntValue(ConfigurationKey.HTTP_CONNECTION_TIMEOUT),
+                configurationService.getIntValue(ConfigurationKey.HTTP_SOCKET_TIMEOUT));
+        HttpUtils.setConnectionLeaseTimeout(
+                configurationService.getIntValue(ConfigurationKey.HTTP_CONNECTION_LEASE_TIMEOUT));
+        int numExecutors = configurationService.getIntValue(ConfigurationKey.PLACE_INGEST_NUM_HTTP_EXECUTORS);
+        int fanOut = configurationService.getIntValue(ConfigurationKey.YELLOW_PAGES_PAGE_FAN_OUT);
+        HttpUtils.setMaxConnectionsPerRoute(Math.max(1, numExecutors) * Math.max(1, fanOut));
+    }
+
+}
@@ -1,47 +1,117 @@
 package com.townwizard.db.util;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.sf.ehcache.util.NamedThreadFactory;
+
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import com.townwizard.db.logger.Log;
 
 /**
- * HTTP client helper methods
+ * HTTP client helper methods.
+ *
+ * All requests are executed by one shared HTTP client backed by a pool of keep-alive connections.
+ * Idle and expired connections are evicted from the pool in background.  A request waits for
+ * a pooled connection no longer than the lease timeout, and then fails with ConnectionPoolTimeoutException.
  */
 public final class HttpUtils {
-    
+
+    private static final int DEFAULT_MAX_PER_ROUTE = 30;
+    private static final int NUM_ROUTES = 4;   //YP, Google, Facebook, Meetup
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+    private static final long IDLE_CONNECTION_TIMEOUT_SECONDS = 60;
+    private static final long EVICTION_PERIOD_SECONDS = 30;
+
+    private static volatile int connectionTimeout = 30000;
+    private static volatile int socketTimeout = 60000;
+    private static volatile long connectionLeaseTimeout = 10000;
+
+    private static final ResponseReader<String> STRING_READER = new ResponseReader<String>() {
+        @Override
+        public String read(InputStream in) throws IOException {
+            return copyToString(in);
+        }
+    };
+
+    private static final InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager();
+    private static final DefaultHttpClient httpClient;
+    private static ScheduledExecutorService connectionEvictor;
+
+    static {
+        setMaxConnectionsPerRoute(DEFAULT_MAX_PER_ROUTE);
+        httpClient = new DefaultHttpClient(connectionManager);
+        httpClient.setKeepAliveStrategy(new KeepAliveStrategy());
+
+        connectionEvictor = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("http-connection-evictor"));
+        connectionEvictor.scheduleWithFixedDelay(new IdleConnectionEvictor(),
+                EVICTION_PERIOD_SECONDS, EVICTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
     private HttpUtils(){}
-    
+
+    /**
+     * Reads a response entity directly from the response stream
+     */
+    public static interface ResponseReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
     /**
      * Execute get request and return the response as a string.
      */
     public static String executeGetRequest(String path) throws IOException, ClientProtocolException {
-        return executeGetRequest(path, null);
+        return execute(new HttpGet(path), STRING_READER);
     }
-    
+
     /**
      * Execute get request with optional headers and return the response as a string.
      */
     public static String executeGetRequest(String path, Map<String, String> headers)
-            throws IOException, ClientProtocolException {        
+            throws IOException, ClientProtocolException {
         HttpGet get = new HttpGet(path);
         setRequestHeaders(get, headers);
-        HttpResponse response = getHttpClient().execute(get);
-        return copyToString(response.getEntity().getContent());        
-    }    
-    
+        return execute(get, STRING_READER);
+    }
+
+    /**
+     * Execute get request and let the reader consume the response stream.
+     * No intermediate string is created.  The reader gets an empty stream if the response has no entity.
+     */
+    public static <T> T executeGetRequest(String path, ResponseReader<T> reader)
+            throws IOException, ClientProtocolException {
+        return execute(new HttpGet(path), reader);
+    }
+
     /**
      * Execute post request and return the response as a string.
      */
@@ -50,17 +120,97 @@ public final class HttpUtils {
         HttpPost post = new HttpPost(path);
         setRequestHeaders(post, headers);
         post.setEntity(new StringEntity(entity));
-        HttpResponse response = getHttpClient().execute(post);
-        return copyToString(response.getEntity().getContent());
+        return execute(post, STRING_READER);
+    }
+
+    /**
+     * Set connection and socket timeouts (in milliseconds) for all subsequent requests
+     */
+    public static void setTimeouts(int connectionTimeoutMillis, int socketTimeoutMillis) {
+        connectionTimeout = connectionTimeoutMillis;
+        socketTimeout = socketTimeoutMillis;
+    }
+
+    /**
+     * Set the maximum time (in milliseconds) a request waits for a connection from the pool
+     */
+    public static void setConnectionLeaseTimeout(long leaseTimeoutMillis) {
+        connectionLeaseTimeout = leaseTimeoutMillis;
+    }
+
+    /**
+     * Set the maximum number of pooled connections to one host.
+     */
+    public static void setMaxConnectionsPerRoute(int max) {
+        if(max < 1) max = 1;
+        connectionManager.setMaxTotal(max * NUM_ROUTES);
+        connectionManager.setDefaultMaxPerRoute(max);
+    }
+
+    /**
+     * Number of connections leased from the pool so far
+     */
+    public static long getConnectionLeaseCount() {
+        return connectionManager.leases.get();
+    }
+
+    /**
+     * Number of requests which timed out waiting for a connection from the pool
+     */
+    public static long getConnectionLeaseTimeoutCount() {
+        return connectionManager.leaseTimeouts.get();
+    }
+
+    /**
+     * Average time in milliseconds spent waiting for a connection from the pool
+     */
+    public static double getAverageConnectionLeaseMillis() {
+        long leases = connectionManager.leases.get();
+        return leases > 0 ? connectionManager.leaseNanos.get() / 1000000.0 / leases : 0;
+    }
+
+    /**
+     * Share of leased connections which were reused (already open) rather than newly opened
+     */
+    public static double getConnectionReuseRatio() {
+        long leases = connectionManager.leases.get();
+        return leases > 0 ? (double)connectionManager.reused.get() / leases : 0;
+    }
+
+    /**
+     * Stop connection eviction, and close all pooled connections
+     */
+    public static void shutdown() {
+        Log.info("About to shutdown http connection pool...");
+        connectionEvictor.shutdownNow();
+        connectionManager.shutdown();
     }
-    
+
     private static HttpClient getHttpClient() {
-        HttpClient c = new DefaultHttpClient();
-        c.getParams().setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 30000);
-        c.getParams().setParameter(CoreConnectionPNames.SO_TIMEOUT, 60000);
-        return c;
+        return httpClient;
+    }
+
+    /*
+     * Execute request and read the response entity completely, so the connection
+     * is returned to the pool.
+     */
+    private static <T> T execute(HttpRequestBase request, ResponseReader<T> reader) throws IOException {
+        request.getParams().setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, connectionTimeout);
+        request.getParams().setParameter(CoreConnectionPNames.SO_TIMEOUT, socketTimeout);
+        request.getParams().setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, connectionLeaseTimeout);
+        HttpResponse response = getHttpClient().execute(request);
+        HttpEntity entity = response.getEntity();
+        if(entity == null) return reader.read(new ByteArrayInputStream(new byte[0]));
+        try {
+            return reader.read(entity.getContent());
+        } catch (IOException | RuntimeException e) {
+            request.abort();
+            throw e;
+        } finally {
+            EntityUtils.consumeQuietly(entity);
+        }
     }
-    
+
     private static void setRequestHeaders(HttpRequestBase request, Map<String, String> headers) {
         if(headers != null) {
             for(Map.Entry<String, String> e : headers.entrySet()) {
@@ -68,7 +218,7 @@ public final class HttpUtils {
             }
         }
     }
-    
+
     private static String copyToString(InputStream is) throws IOException {
         BufferedReader in = new BufferedReader(new InputStreamReader(is));
         StringWriter out = new StringWriter();
@@ -79,4 +229,83 @@ public final class HttpUtils {
         return out.toString();
     }
 
+    /*
+     * Use the server keep-alive timeout if given, otherwise keep connections for a default period
+     */
+    private static final class KeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = super.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : DEFAULT_KEEP_ALIVE_MILLIS;
+        }
+    }
+
+    /*
+     * Connection manager which counts connection leases, reused connections, lease timeouts,
+     * and time spent waiting for connections.
+     */
+    private static final class InstrumentedConnectionManager extends PoolingClientConnectionManager {
+
+        private final AtomicLong leases = new AtomicLong();
+        private final AtomicLong reused = new AtomicLong();
+        private final AtomicLong leaseNanos = new AtomicLong();
+        private final AtomicLong leaseTimeouts = new AtomicLong();
+
+        @Override
+        public ClientConnectionRequest requestConnection(final HttpRoute route, Object state) {
+            final ClientConnectionRequest request = super.requestConnection(route, state);
+            return new ClientConnectionRequest() {
+                @Override
+                public ManagedClientConnection getConnection(long timeout, TimeUnit unit)
+                        throws InterruptedException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    ManagedClientConnection connection;
+                    try {
+                        connection = request.getConnection(timeout, unit);
+                    } catch (ConnectionPoolTimeoutException e) {
+                        leaseTimeouts.incrementAndGet();
+                        Log.warning("Timed out waiting " + unit.toMillis(timeout) +
+                                " ms for a pooled http connection to " + route.getTargetHost());
+                        throw e;
+                    } finally {
+                        leaseNanos.addAndGet(System.nanoTime() - start);
+                    }
+                    leases.incrementAndGet();
+                    if(connection.isOpen()) reused.incrementAndGet();
+                    return connection;
+                }
+
+                @Override
+                public void abortRequest() {
+                    request.abortRequest();
+                }
+            };
+        }
+    }
+
+    private static final class IdleConnectionEvictor implements Runnable {
+
+        private long lastLeases;
+
+        @Override
+        public void run() {
+            try {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                long leases = getConnectionLeaseCount();
+                if(leases != lastLeases && Log.isInfoEnabled()) {
+                    Log.info(String.format(
+                            "Http connection pool: %s, leases: %d, reuse ratio: %.2f, avg lease time: %.2f ms, " +
+                            "lease timeouts: %d",
+                            connectionManager.getTotalStats(), leases, getConnectionReuseRatio(),
+                            getAverageConnectionLeaseMillis(), getConnectionLeaseTimeoutCount()));
+                }
+                lastLeases = leases;
+            } catch (Exception e) {
+                Log.exception(e);
+            }
+        }
+    }
+
 }
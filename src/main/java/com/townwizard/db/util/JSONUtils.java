@@ -1,30 +1,272 @@
 package com.townwizard.db.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONObject;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 
+/**
+ * Streaming JSON helpers.
+ *
+ * JSON is read token by token (Jackson streaming parser) directly into simple Java objects.
+ * The json keys should match java object's field names.  Supported field types are String,
+ * Integer, Long, Float, Double, Boolean, List of strings, and nested objects of the same kind.
+ * Fields are resolved once per class, and the resulting binders are cached.
+ */
 public final class JSONUtils {
-    
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final ConcurrentMap<Class<?>, Binder<?>> binders = new ConcurrentHashMap<>();
+
     private JSONUtils(){}
 
     /**
-     * Takes an JSONArray object, and the target object class; converts json object into a list 
-     * of target objects.
+     * Create a streaming parser for the input stream
      */
-    public static <T> List<T> jsonToObjects (JSONArray data, Class<T> objectClass) 
-            throws IllegalAccessException, InstantiationException {
+    public static JsonParser createParser(InputStream in) throws IOException {
+        return jsonFactory.createJsonParser(in);
+    }
+
+    /**
+     * Create a response reader which finds an array of objects by the path of object keys,
+     * (for example "searchResult", "searchListings", "searchListing"), and converts the array
+     * into a list of target objects.  If the path is not found, the reader returns an empty list.
+     */
+    public static <T> HttpUtils.ResponseReader<List<T>> objectsReader(
+            final Class<T> objectClass, final String ... path) {
+        return new HttpUtils.ResponseReader<List<T>>() {
+            @Override
+            public List<T> read(InputStream in) throws IOException {
+                return readObjects(in, objectClass, path);
+            }
+        };
+    }
+
+    /**
+     * Read an array of objects found by the path of object keys from the input stream.
+     */
+    public static <T> List<T> readObjects(InputStream in, Class<T> objectClass, String ... path)
+            throws IOException {
+        JsonParser parser = createParser(in);
+        try {
+            if(parser.nextToken() != JsonToken.START_OBJECT) return Collections.emptyList();
+            for(int i = 0; i < path.length; i++) {
+                if(!moveToField(parser, path[i])) return Collections.emptyList();
+                JsonToken t = parser.nextToken();
+                if(i < path.length - 1 && t != JsonToken.START_OBJECT) return Collections.emptyList();
+            }
+            return readObjectArray(parser, objectClass);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Read an array of objects at the current parser position.
+     * A single object is read as a list of one object, and any other value as an empty list.
+     */
+    public static <T> List<T> readObjectArray(JsonParser parser, Class<T> objectClass) throws IOException {
+        Binder<T> binder = getBinder(objectClass);
+        JsonToken t = parser.getCurrentToken();
+        if(t == JsonToken.START_OBJECT) {
+            List<T> objects = new ArrayList<>(1);
+            objects.add(binder.read(parser));
+            return objects;
+        }
+        if(t != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return Collections.emptyList();
+        }
         List<T> objects = new ArrayList<>();
-        for(int i = 0; i < data.length(); i++) {
-            JSONObject o = data.optJSONObject(i);
-            @SuppressWarnings("cast")
-            T object = (T)objectClass.newInstance();
-            ReflectionUtils.populateFromJson(object, o);
-            objects.add(object);
+        while((t = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if(t == JsonToken.START_OBJECT) {
+                objects.add(binder.read(parser));
+            } else {
+                parser.skipChildren();
+            }
         }
         return objects;
     }
 
+    /**
+     * Read the text of the current scalar value, or skip the current object or array and return null.
+     */
+    public static String readText(JsonParser parser) throws IOException {
+        JsonToken t = parser.getCurrentToken();
+        if(t == JsonToken.VALUE_NULL) return null;
+        if(t.isScalarValue()) return parser.getText();
+        parser.skipChildren();
+        return null;
+    }
+
+    ///////// private methods /////////
+
+    /*
+     * Advance the parser, positioned within an object, to the given field name of that object.
+     * Other fields are skipped.
+     */
+    private static boolean moveToField(JsonParser parser, String name) throws IOException {
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            if(name.equals(parser.getCurrentName())) return true;
+            parser.nextToken();
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Binder<T> getBinder(Class<T> objectClass) {
+        Binder<T> binder = (Binder<T>)binders.get(objectClass);
+        if(binder == null) {
+            binder = new Binder<>(objectClass);
+            Binder<T> existing = (Binder<T>)binders.putIfAbsent(objectClass, binder);
+            if(existing != null) binder = existing;
+        }
+        return binder;
+    }
+
+    private static enum FieldType {STRING, INTEGER, LONG, FLOAT, DOUBLE, BOOLEAN, STRING_LIST, OBJECT}
+
+    private static final class FieldBinding {
+        final Field field;
+        final FieldType type;
+
+        FieldBinding(Field field, FieldType type) {
+            this.field = field;
+            this.type = type;
+        }
+    }
+
+    /*
+     * Reads JSON objects into instances of one class.
+     * Values which don't fit the field type are ignored.
+     */
+    private static final class Binder<T> {
+
+        private final Class<T> objectClass;
+        private final Map<String, FieldBinding> fields = new HashMap<>();
+
+        Binder(Class<T> objectClass) {
+            this.objectClass = objectClass;
+            for(Field f : objectClass.getDeclaredFields()) {
+                if(Modifier.isStatic(f.getModifiers())) continue;
+                FieldType type = getFieldType(f);
+                if(type != null) {
+                    f.setAccessible(true);
+                    fields.put(f.getName(), new FieldBinding(f, type));
+                }
+            }
+        }
+
+        /*
+         * Read an object, the parser is positioned at the START_OBJECT token.
+         * On return the parser is positioned at the matching END_OBJECT token.
+         */
+        T read(JsonParser parser) throws IOException {
+            try {
+                T object = objectClass.newInstance();
+                while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                    FieldBinding b = fields.get(parser.getCurrentName());
+                    parser.nextToken();
+                    if(b == null) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    Object value = readValue(parser, b);
+                    if(value != null) b.field.set(object, value);
+                }
+                return object;
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private Object readValue(JsonParser parser, FieldBinding b) throws IOException {
+            JsonToken t = parser.getCurrentToken();
+            switch(b.type) {
+            case STRING:
+                String s = readText(parser);
+                return "null".equals(s) ? null : s;
+            case STRING_LIST:
+                return readStringList(parser);
+            case OBJECT:
+                if(t == JsonToken.START_OBJECT) return getBinder(b.field.getType()).read(parser);
+                parser.skipChildren();
+                return null;
+            case BOOLEAN:
+                if(t == JsonToken.VALUE_TRUE) return Boolean.TRUE;
+                if(t == JsonToken.VALUE_FALSE) return Boolean.FALSE;
+                parser.skipChildren();
+                return null;
+            default:
+                return readNumber(parser, b.type);
+            }
+        }
+
+        private Object readNumber(JsonParser parser, FieldType type) throws IOException {
+            JsonToken t = parser.getCurrentToken();
+            if(t != JsonToken.VALUE_NUMBER_INT && t != JsonToken.VALUE_NUMBER_FLOAT) {
+                parser.skipChildren();
+                return null;
+            }
+            switch(type) {
+            case INTEGER: return parser.getIntValue();
+            case LONG: return parser.getLongValue();
+            case FLOAT: return parser.getFloatValue();
+            default: return parser.getDoubleValue();
+            }
+        }
+
+        private List<String> readStringList(JsonParser parser) throws IOException {
+            if(parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                return null;
+            }
+            List<String> list = null;
+            while(parser.nextToken() != JsonToken.END_ARRAY) {
+                String s = readText(parser);
+                if(s != null) {
+                    if(list == null) list = new ArrayList<>();
+                    list.add(s);
+                }
+            }
+            return list;
+        }
+
+        private static FieldType getFieldType(Field f) {
+            Class<?> c = f.getType();
+            if(c == String.class) return FieldType.STRING;
+            if(c == Integer.class) return FieldType.INTEGER;
+            if(c == Long.class) return FieldType.LONG;
+            if(c == Float.class) return FieldType.FLOAT;
+            if(c == Double.class) return FieldType.DOUBLE;
+            if(c == Boolean.class) return FieldType.BOOLEAN;
+            if(c == List.class) {
+                Type t = f.getGenericType();
+                if(t instanceof ParameterizedType &&
+                        ((ParameterizedType)t).getActualTypeArguments()[0] == String.class) {
+                    return FieldType.STRING_LIST;
+                }
+                return null;
+            }
+            if(c.isPrimitive() || c.isArray() || c.isInterface() || c.getName().startsWith("java.")) {
+                return null;
+            }
+            return FieldType.OBJECT;
+        }
+    }
+
 }
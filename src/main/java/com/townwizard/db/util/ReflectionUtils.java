@@ -2,11 +2,6 @@ package com.townwizard.db.util;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONObject;
 
 /**
  * Different helper methods using reflection.
@@ -52,57 +47,5 @@ public final class ReflectionUtils {
         }
         return o;
     }
-    
-    /**
-     * Populate a given Java object from a JSON object.
-     * The json keys should match java object's field names
-     */
-    public static void populateFromJson(Object o, JSONObject j) {
-        try {
-            Field[] fields = o.getClass().getDeclaredFields();
-            for (Field f : fields) {
-                Object value = j.opt(f.getName());
-                if (value != null) {
-                    setField(f, o, value);
-                }
-            }
-        } catch (Exception e) {
-            throw new RuntimeException (e);
-        }
-    }
 
-    private static void setField(Field f, Object target, Object value)
-            throws IllegalAccessException, InstantiationException {
-        f.setAccessible(true);
-        Object v = null;
-        Type type = f.getGenericType();
-        Class<?> valueClass = value.getClass();
-        if(type.equals(String.class)) {
-            String val = value.toString();
-            if(!"null".equals(val)) v = val;
-        } else if(type.equals(valueClass)) {
-            v = value;
-        } else if(type.equals(Double.class) && valueClass == Integer.class) {
-            v = new Double(((Integer)value).intValue());
-        } else if(type.equals(Float.class) && valueClass == Integer.class) {
-            v = new Float(((Integer)value).intValue());
-        } else if(value instanceof JSONArray) { //only JSON arrays of strings supported
-            JSONArray valueArr = (JSONArray)value;
-            if(valueArr.length() >0) {            
-                v = new ArrayList<String>();
-                @SuppressWarnings("unchecked")
-                List<String> l = (List<String>)v;
-                for (int i = 0; i < valueArr.length(); i++) {
-                    String s = valueArr.optString(i);
-                    if(s != null) {
-                        l.add(s);
-                    }
-                }
-            }
-        } else if(value instanceof JSONObject) {
-            v = ((Class<?>)type).newInstance();
-            populateFromJson(v, (JSONObject)value);            
-        }
-        f.set(target, v);
-    }
-}
\ No newline at end of file
+}
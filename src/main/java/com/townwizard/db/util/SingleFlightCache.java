@@ -0,0 +1,158 @@
+package com.townwizard.db.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe cache which coalesces concurrent loads of the same key.
+ *
+ * The first thread asking for a key runs the loader, and all threads asking for the same key
+ * while the load is in progress wait for, and share, its result.  Successful results are kept
+ * for the given time to live, failed loads are not cached.
+ *
+ * The cache is bounded: when it is full, expired entries are dropped first, and then any
+ * completed entries.
+ */
+public final class SingleFlightCache<K, V> {
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong joins = new AtomicLong();
+
+    public SingleFlightCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the value for the key, loading it with the loader if it is not cached or in flight.
+     * Exceptions thrown by the loader are rethrown to all the threads waiting for the load.
+     */
+    public V get(K key, long timeToLiveMillis, Callable<V> loader) throws Exception {
+        Entry<V> entry = entries.get(key);
+        if(entry != null && entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+
+        if(entry == null) {
+            Entry<V> created = new Entry<>(loader);
+            entry = entries.putIfAbsent(key, created);
+            if(entry == null) {
+                evictIfFull();
+                loads.incrementAndGet();
+                return load(key, created, timeToLiveMillis);
+            }
+        }
+
+        (entry.isDone() ? hits : joins).incrementAndGet();
+        return entry.get();
+    }
+
+    /**
+     * Remove the key from the cache.  Threads waiting for the key in-flight load still get its result.
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getJoinCount() {
+        return joins.get();
+    }
+
+    @Override
+    public String toString() {
+        return "size: " + size() + ", loads: " + getLoadCount() +
+               ", hits: " + getHitCount() + ", joins: " + getJoinCount();
+    }
+
+    ///////// private methods /////////
+
+    private V load(K key, Entry<V> entry, long timeToLiveMillis) throws Exception {
+        entry.task.run();
+        try {
+            V value = entry.task.get();
+            if(timeToLiveMillis > 0) {
+                entry.expires = System.currentTimeMillis() + timeToLiveMillis;
+            } else {
+                entries.remove(key, entry);
+            }
+            return value;
+        } catch (ExecutionException e) {
+            entries.remove(key, entry);
+            throw unwrap(e);
+        }
+    }
+
+    private void evictIfFull() {
+        if(entries.size() <= maxEntries) return;
+        long now = System.currentTimeMillis();
+        for(Iterator<Map.Entry<K, Entry<V>>> i = entries.entrySet().iterator(); i.hasNext();) {
+            if(i.next().getValue().isExpired(now)) i.remove();
+        }
+        for(Iterator<Map.Entry<K, Entry<V>>> i = entries.entrySet().iterator();
+                i.hasNext() && entries.size() > maxEntries;) {
+            if(i.next().getValue().isDone()) i.remove();
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if(cause instanceof Exception) return (Exception)cause;
+        if(cause instanceof Error) throw (Error)cause;
+        return e;
+    }
+
+    /*
+     * Cache entry, which is the in-flight or completed load of a value
+     */
+    private static final class Entry<V> {
+        private final FutureTask<V> task;
+        private volatile long expires = Long.MAX_VALUE;  //in-flight entries never expire
+
+        Entry(Callable<V> loader) {
+            task = new FutureTask<>(loader);
+        }
+
+        boolean isDone() {
+            return task.isDone();
+        }
+
+        boolean isExpired(long now) {
+            return expires < now;
+        }
+
+        V get() throws Exception {
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+}
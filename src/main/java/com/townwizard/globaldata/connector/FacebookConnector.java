@@ -1,93 +1,144 @@
 package com.townwizard.globaldata.connector;
 
-import static com.townwizard.db.constants.Constants.EMPTY_JSON;
-import static com.townwizard.db.constants.Constants.FB_APP_ID;
-import static com.townwizard.db.constants.Constants.FB_APP_SECRET;
-
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.http.client.ClientProtocolException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.townwizard.db.util.HttpUtils;
+import com.townwizard.db.util.JSONUtils;
 import com.townwizard.globaldata.service.geo.LocationService;
 
 /**
  * This class is responsible for execution of Facebook HTTP queries.
- * To execute public search of FQL queries it obtains a Facebook public access token
+ * To execute public search of FQL queries it uses the Facebook public access token
+ * kept by FacebookTokenManager
  */
 @Component("facebookConnector")
 public final class FacebookConnector {
     
     private static final String FQL_URL = "https://graph.facebook.com/fql?q=";
-    private static final String PUBLIC_ACCESS_TOKEN_URL =
-            "https://graph.facebook.com/oauth/access_token?" +
-            "client_id=" + FB_APP_ID + "&client_secret=" + FB_APP_SECRET + 
-            "&grant_type=client_credentials";
-    
-    private String publicAccessToken;
     
     @Autowired
     private LocationService locationService;
+    @Autowired
+    private FacebookTokenManager tokenManager;
     
     /**
-     * Execute fql and return facebook json as a result
+     * Execute fql and convert the "data" array of the facebook json response to a list of objects
      */
-    public String executeFQL(String fql) 
+    public <T> List<T> executeFQL(String fql, Class<T> objectClass) 
             throws ClientProtocolException, UnsupportedEncodingException, IOException {
-        return executeFBRequest(FQL_URL + URLEncoder.encode(fql, "UTF-8"));
+        return executeFBRequest(FQL_URL + URLEncoder.encode(fql, "UTF-8"), objectClass);
     }
     
     /**
-     * Execute a search request to get Facebook locations (places).  Returns JSON string.
+     * Execute a search request to get Facebook locations (places).
      */
-    public String executeLocationsRequest(double latitude, double longitude, int distanceInMeters) 
+    public <T> List<T> executeLocationsRequest(
+            double latitude, double longitude, int distanceInMeters, Class<T> objectClass) 
             throws ClientProtocolException, UnsupportedEncodingException, IOException {
         StringBuilder url = new StringBuilder();
         url.append("https://graph.facebook.com/search?type=place&center=")
             .append(latitude).append(",").append(longitude)
             .append("&distance=").append(distanceInMeters);
-        return executeFBRequest(url.toString());
+        return executeFBRequest(url.toString(), objectClass);
     }
     
     
-    private String executeFBRequest(String url)
+    private <T> List<T> executeFBRequest(String url, Class<T> objectClass)
             throws ClientProtocolException, UnsupportedEncodingException, IOException {
-        if(publicAccessToken == null) {
-           setPublicAccessToken();
-        }
+        String token = tokenManager.getToken();
         
-        String response = HttpUtils.executeGetRequest(appendPublicToken(url));
+        ResponseReader<T> reader = new ResponseReader<>(objectClass);
+        FBResponse<T> response = HttpUtils.executeGetRequest(appendPublicToken(url, token), reader);
         if(isTokenRequiredResponse(response)) {
-            setPublicAccessToken();
-            response = HttpUtils.executeGetRequest(appendPublicToken(url));
-            if(response.contains("\"error\":")) {
-                publicAccessToken = null;
-                return EMPTY_JSON;
+            token = tokenManager.refresh(token);
+            response = HttpUtils.executeGetRequest(appendPublicToken(url, token), reader);
+            if(response.error != null) {
+                tokenManager.invalidate(token);
+                return Collections.emptyList();
             }
         }
-        return response;
+        if(response.error != null) {
+            throw new IOException("Facebook error: " + response.error);
+        }
+        return response.data;
     }    
     
-    private boolean isTokenRequiredResponse(String response) {
-        return response.contains("An access token is required");
+    private boolean isTokenRequiredResponse(FBResponse<?> response) {
+        return response.error != null && response.error.contains("An access token is required");
     }
     
-    private void setPublicAccessToken() 
-            throws ClientProtocolException, UnsupportedEncodingException, IOException {
-        String response = HttpUtils.executeGetRequest(PUBLIC_ACCESS_TOKEN_URL);
-        //response looks like "access_token=373685232723588|4x1XxnbQ9IXl5_S2XzOYqyyC4xw"
-        String[] splitted = response.split("=");
-        if(splitted.length > 1) {
-            publicAccessToken = URLEncoder.encode(splitted[1], "UTF-8");         
-        }
+    private String appendPublicToken(String url, String token) {
+        return url  + "&access_token=" + token;
     }
 
-    private String appendPublicToken(String url) {
-        return url  + "&access_token=" + publicAccessToken;
+    private static final class FBResponse<T> {
+        List<T> data = Collections.emptyList();
+        String error;
+    }
+    
+    /*
+     * Streams the "data" array of a facebook response, or the error message if the response is an error
+     */
+    private static final class ResponseReader<T> implements HttpUtils.ResponseReader<FBResponse<T>> {
+        
+        private final Class<T> objectClass;
+        
+        ResponseReader(Class<T> objectClass) {
+            this.objectClass = objectClass;
+        }
+        
+        @Override
+        public FBResponse<T> read(InputStream in) throws IOException {
+            FBResponse<T> response = new FBResponse<>();
+            JsonParser parser = JSONUtils.createParser(in);
+            try {
+                if(parser.nextToken() != JsonToken.START_OBJECT) return response;
+                while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if("data".equals(name)) {
+                        response.data = JSONUtils.readObjectArray(parser, objectClass);
+                    } else if("error".equals(name)) {
+                        response.error = readErrorMessage(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                return response;
+            } finally {
+                parser.close();
+            }
+        }
+        
+        private String readErrorMessage(JsonParser parser) throws IOException {
+            String message = "";
+            if(parser.getCurrentToken() != JsonToken.START_OBJECT) {
+                String text = JSONUtils.readText(parser);
+                return text != null ? text : message;
+            }
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if("message".equals(name)) {
+                    String text = JSONUtils.readText(parser);
+                    if(text != null) message = text;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return message;
+        }
     }
 
 }
@@ -0,0 +1,185 @@
+package com.townwizard.globaldata.connector;
+
+import static com.townwizard.db.constants.Constants.FB_APP_ID;
+import static com.townwizard.db.constants.Constants.FB_APP_SECRET;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import net.sf.ehcache.util.NamedThreadFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
+import com.townwizard.db.logger.Log;
+import com.townwizard.db.util.HttpUtils;
+import com.townwizard.db.util.SingleFlightCache;
+
+/**
+ * Keeps the Facebook app (public) access token used by FacebookConnector.
+ *
+ * The token is fetched in background when the application starts, and is refreshed in background
+ * periodically, and before it expires if Facebook says when it expires.  Requests get the current token
+ * without a round trip to Facebook.  When the token is missing or rejected, it is fetched once
+ * for all the threads which need it at the same time.
+ */
+@Component("facebookTokenManager")
+public final class FacebookTokenManager {
+
+    private static final String PUBLIC_ACCESS_TOKEN_URL =
+            "https://graph.facebook.com/oauth/access_token?" +
+            "client_id=" + FB_APP_ID + "&client_secret=" + FB_APP_SECRET +
+            "&grant_type=client_credentials";
+    private static final String TOKEN_KEY = "app";
+    private static final long REFRESH_BEFORE_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static ScheduledExecutorService refresher;
+
+    @Autowired private ConfigurationService configurationService;
+
+    private volatile Token token;
+    private final SingleFlightCache<String, Token> fetches = new SingleFlightCache<>(1);
+
+    @PostConstruct
+    public void init() {
+        refresher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("fb-token-refresher"));
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Token t = token;
+                    if(t == null || t.isDueForRefresh(System.currentTimeMillis(), getRefreshMillis())) {
+                        fetch();
+                    }
+                } catch (Exception e) {
+                    Log.exception(e);
+                }
+            }
+        }, 0, 1, TimeUnit.MINUTES);
+    }
+
+    public static void shutdownThreads() {
+        if(refresher != null) {
+            Log.info("About to shutdown facebook token refresher...");
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the current token (URL encoded), fetching it only if there is no valid token yet
+     */
+    public String getToken() throws IOException {
+        Token t = token;
+        if(t != null && !t.isExpired(System.currentTimeMillis())) return t.value;
+        return fetch().value;
+    }
+
+    /**
+     * Get a token to replace the token rejected by Facebook.  If the rejected token has already been
+     * replaced, the replacement is returned, otherwise a new token is fetched.
+     */
+    public String refresh(String rejectedToken) throws IOException {
+        Token t = token;
+        if(t != null && !t.value.equals(rejectedToken) && !t.isExpired(System.currentTimeMillis())) {
+            return t.value;
+        }
+        return fetch().value;
+    }
+
+    /**
+     * Forget the token, unless it has already been replaced
+     */
+    public void invalidate(String rejectedToken) {
+        Token t = token;
+        if(t != null && t.value.equals(rejectedToken)) token = null;
+    }
+
+    ///////// private methods /////////
+
+    private long getRefreshMillis() {
+        return TimeUnit.MINUTES.toMillis(
+                configurationService.getIntValue(ConfigurationKey.FACEBOOK_TOKEN_REFRESH_MINUTES));
+    }
+
+    private Token fetch() throws IOException {
+        try {
+            return fetches.get(TOKEN_KEY, 0, new Callable<Token>() {
+                @Override
+                public Token call() throws Exception {
+                    Token t = requestToken();
+                    token = t;
+                    return t;
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private Token requestToken() throws IOException {
+        String response = HttpUtils.executeGetRequest(PUBLIC_ACCESS_TOKEN_URL);
+        //response looks like "access_token=373685232723588|4x1XxnbQ9IXl5_S2XzOYqyyC4xw",
+        //and may be followed by "&expires=5183999" (seconds)
+        String value = null;
+        long expiresInSeconds = 0;
+        if(response != null) {
+            for(String param : response.trim().split("&")) {
+                String[] nameAndValue = param.split("=", 2);
+                if(nameAndValue.length < 2) continue;
+                if("access_token".equals(nameAndValue[0])) {
+                    value = nameAndValue[1];
+                } else if("expires".equals(nameAndValue[0])) {
+                    try {
+                        expiresInSeconds = Long.parseLong(nameAndValue[1]);
+                    } catch (NumberFormatException e) {
+                        //nothing, the token does not expire
+                    }
+                }
+            }
+        }
+        if(value == null) {
+            throw new IOException("Cannot get Facebook access token: " + response);
+        }
+
+        long now = System.currentTimeMillis();
+        long expires = expiresInSeconds > 0 ? now + expiresInSeconds * 1000 : Long.MAX_VALUE;
+        Log.info("Fetched Facebook access token" +
+                (expiresInSeconds > 0 ? ", expires in " + expiresInSeconds + " s" : ""));
+        return new Token(URLEncoder.encode(value, "UTF-8"), now, expires);
+    }
+
+    /*
+     * URL encoded token, when it was fetched, and when it expires
+     */
+    private static final class Token {
+        final String value;
+        final long fetched;
+        final long expires;
+
+        Token(String value, long fetched, long expires) {
+            this.value = value;
+            this.fetched = fetched;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+
+        boolean isDueForRefresh(long now, long refreshMillis) {
+            return (refreshMillis > 0 && now - fetched >= refreshMillis) ||
+                   (expires != Long.MAX_VALUE && now >= expires - REFRESH_BEFORE_EXPIRY_MILLIS);
+        }
+    }
+
+}
@@ -23,10 +23,11 @@ public final class GoogleConnector {
             "https://maps.googleapis.com/maps/api/place/details/json?";
     
     /**
-     * Execute request to get nearby places
+     * Execute request to get nearby places.  The JSON response is streamed to the reader.
      */
-    public String executePlacesNearbyRequest(
-            double latitude, double longitude, int distance, String name, List<String> types) 
+    public <T> T executePlacesNearbyRequest(
+            double latitude, double longitude, int distance, String name, List<String> types,
+            HttpUtils.ResponseReader<T> reader) 
         throws ClientProtocolException, IOException {
         
         StringBuilder sb = new StringBuilder(PLACES_NEARBY_SEARCH_URL);
@@ -42,21 +43,19 @@ public final class GoogleConnector {
         appendMandatoryParameters(sb);
         
         String url = sb.toString();
-        String response = HttpUtils.executeGetRequest(url);
-        return response;
+        return HttpUtils.executeGetRequest(url, reader);
     }
 
     /**
      * Execute request to get next page of places.
      * It can be execute no more the twice per places request.
      */
-    public String executePlacesNearbyPageTokenRequest(String pageToken) 
+    public <T> T executePlacesNearbyPageTokenRequest(String pageToken, HttpUtils.ResponseReader<T> reader) 
         throws ClientProtocolException, IOException {
         StringBuilder sb = new StringBuilder(PLACES_NEARBY_SEARCH_URL);
         sb.append("pagetoken=").append(pageToken);
         appendMandatoryParameters(sb);
-        String response = HttpUtils.executeGetRequest(sb.toString());
-        return response;
+        return HttpUtils.executeGetRequest(sb.toString(), reader);
     }
     
     /**
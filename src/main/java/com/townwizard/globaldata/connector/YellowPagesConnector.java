@@ -19,10 +19,10 @@ public final class YellowPagesConnector {
     private static final int DEFAULT_LISTING_COUNT = 50;
     
     /**
-     * Get locations (places) as JSON
+     * Get locations (places).  The JSON response is streamed to the reader.
      */
-    public String executePlacesRequest(String term, String zip, double distanceInMiles,
-            int pageNum, Integer listingCount)
+    public <T> T executePlacesRequest(String term, String zip, double distanceInMiles,
+            int pageNum, Integer listingCount, HttpUtils.ResponseReader<T> reader)
             throws ClientProtocolException, IOException {
         StringBuilder sb = new StringBuilder(SEARCH_URL);
         sb.append("searchloc=").append(zip)
@@ -34,8 +34,7 @@ public final class YellowPagesConnector {
         appendMandatoryParameters(sb);
         
         String url = sb.toString();
-        String response = HttpUtils.executeGetRequest(url);
-        return response;
+        return HttpUtils.executeGetRequest(url, reader);
     }
     
     private void appendMandatoryParameters(StringBuilder sb) {
@@ -1,5 +1,7 @@
 package com.townwizard.globaldata.dao;
 
+import java.util.TimeZone;
+
 import com.townwizard.globaldata.model.CityLocation;
 
 /**
@@ -8,9 +10,9 @@ import com.townwizard.globaldata.model.CityLocation;
 public interface GlobalDataDao {
     
     /**
-     * Get time zone for a zip code
+     * Get time zone for a zip code, or null if the time zone is not known
      */
-    String getTimeZoneByZip(String zip);
+    TimeZone getTimeZoneByZip(String zip);
 
     /**
      * Get city location by IP
@@ -3,12 +3,28 @@ package com.townwizard.globaldata.dao;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+
+import net.sf.ehcache.util.NamedThreadFactory;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.type.StandardBasicTypes;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Component;
 
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
+import com.townwizard.db.logger.Log;
 import com.townwizard.db.util.StringUtils;
 import com.townwizard.globaldata.model.CityLocation;
 
@@ -19,29 +35,72 @@ import com.townwizard.globaldata.model.CityLocation;
 public class GlobalDataDaoHibernateImpl implements GlobalDataDao {
     
     private SessionFactory sessionFactory;
+    @Autowired
+    private ConfigurationService configurationService;
+    
+    private static final TimeZoneCache timeZoneCache = new TimeZoneCache();
+    
+    private static volatile IpLocationIndex ipLocationIndex;
+    private static ScheduledExecutorService geoDataLoader;
+    
+    /**
+     * Load the time zone cache and the IP location index in background, and reload them periodically,
+     * each on its own schedule
+     */
+    @PostConstruct
+    public void init() {
+        geoDataLoader = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("geo-data-loader"));
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loadTimeZones();
+                } catch (Exception e) {
+                    Log.exception(e);
+                }
+            }
+        }, configurationService.getIntValue(ConfigurationKey.GEO_TIME_ZONE_REFRESH_HOURS));
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loadIpLocationIndex();
+                } catch (Exception e) {
+                    Log.exception(e);
+                }
+            }
+        }, configurationService.getIntValue(ConfigurationKey.GEO_IP_INDEX_REFRESH_HOURS));
+    }
     
-    private static final Map<String, String> zipToTimeZone = new HashMap<>();
+    public static void shutdownThreads() {
+        if(geoDataLoader != null) {
+            Log.info("About to shutdown geo data loader...");
+            geoDataLoader.shutdownNow();
+            try {
+                if(!geoDataLoader.awaitTermination(30, TimeUnit.SECONDS)) {
+                    Log.warning("Cannot terminate geo data loader");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
     /**
-     * This method caches time zones for zip codes in a local cache
+     * Time zones are taken from the local cache, preloaded with the whole time zone table.
+     * Until the cache is preloaded, time zones of single zips are queried and cached.
      */
     @Override
-    public String getTimeZoneByZip(String zip) {
-        String timeZone = zipToTimeZone.get(zip);
-        if(timeZone == null) {
-            Session session = sessionFactory.openSession();
-            timeZone = (String)session
-                    .createSQLQuery(TIME_ZONE_BY_ZIP_SQL)
-                    .setString(0, zip)
-                    .uniqueResult();
-            zipToTimeZone.put(zip, timeZone);
-        }
-        return timeZone;
+    public TimeZone getTimeZoneByZip(String zip) {
+        return timeZoneCache.get(zip, timeZoneLoader);
     }
 
     /**
      * Parses ip, and if ip is valid gets the city location for it, otherwise
-     * returns null
+     * returns null.
+     * 
+     * The city location is looked up in the in-memory IP index.  Until the index is loaded,
+     * the database is queried.
      */
     @Override
     public CityLocation getCityLocationByIp(String ip) {
@@ -53,7 +112,72 @@ public class GlobalDataDaoHibernateImpl implements GlobalDataDao {
         }
         
         if(ipAsInt != -1) {
+            IpLocationIndex index = ipLocationIndex;
+            if(index != null) {
+                return index.find(ipAsInt);
+            }
+            return queryCityLocationByIp(ipAsInt);
+        }
+
+        return null;
+    }
+    
+    @Required
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+    
+    ///////// private methods /////////
+    
+    /*
+     * Run the loader periodically if refresh hours is positive, once if it is 0, and never if it is negative
+     */
+    private void schedule(Runnable loader, int refreshHours) {
+        if(refreshHours > 0) {
+            geoDataLoader.scheduleWithFixedDelay(loader, 0, refreshHours, TimeUnit.HOURS);
+        } else if(refreshHours == 0) {
+            geoDataLoader.submit(loader);
+        }
+    }
+    
+    private final TimeZoneCache.Loader timeZoneLoader = new TimeZoneCache.Loader() {
+        @Override
+        public String loadTimeZoneId(String zip) {
             Session session = sessionFactory.openSession();
+            try {
+                return (String)session
+                        .createSQLQuery(TIME_ZONE_BY_ZIP_SQL)
+                        .setString(0, zip)
+                        .uniqueResult();
+            } finally {
+                session.close();
+            }
+        }
+    };
+    
+    private void loadTimeZones() {
+        Map<String, String> zipToTimeZone = new HashMap<>();
+        StatelessSession session = sessionFactory.openStatelessSession();
+        try {
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = session.createSQLQuery(TIME_ZONES_SQL)
+                    .addScalar("zip", StandardBasicTypes.STRING)
+                    .addScalar("timezone", StandardBasicTypes.STRING)
+                    .list();
+            for(Object[] row : rows) {
+                zipToTimeZone.put((String)row[0], (String)row[1]);
+            }
+        } finally {
+            session.close();
+        }
+        Log.info("Time zone cache before reload: " + timeZoneCache);
+        timeZoneCache.preload(zipToTimeZone);
+        Log.info("Time zones loaded for " + zipToTimeZone.size() + " zips");
+    }
+    
+    private CityLocation queryCityLocationByIp(int ipAsInt) {
+        Session session = sessionFactory.openSession();
+        try {
             @SuppressWarnings({"unchecked" })
             List<Object[]> zipCodes = session
                     .createSQLQuery(ZIP_BY_IP_SQL)
@@ -64,19 +188,71 @@ public class GlobalDataDaoHibernateImpl implements GlobalDataDao {
                 return new CityLocation((String)data[0], (String)data[1], (String)data[2],
                         (Double)data[3], (Double)data[4]);
             }
+            return null;
+        } finally {
+            session.close();
         }
-
-        return null;
     }
     
-    @Required
-    public void setSessionFactory(SessionFactory sessionFactory) {
-        this.sessionFactory = sessionFactory;
-    }    
+    /*
+     * Read IP blocks and city locations, and replace the current IP index with a new one.
+     * Lookups use the old index while the new one is being loaded.
+     */
+    private void loadIpLocationIndex() {
+        long start = System.currentTimeMillis();
+        IpLocationIndex.Builder builder = new IpLocationIndex.Builder();
+        StatelessSession session = sessionFactory.openStatelessSession();
+        try {
+            ScrollableResults locations = session.createSQLQuery(CITY_LOCATIONS_SQL)
+                    .addScalar("id", StandardBasicTypes.INTEGER)
+                    .addScalar("city", StandardBasicTypes.STRING)
+                    .addScalar("postal_code", StandardBasicTypes.STRING)
+                    .addScalar("country_code", StandardBasicTypes.STRING)
+                    .addScalar("latitude", StandardBasicTypes.DOUBLE)
+                    .addScalar("longitude", StandardBasicTypes.DOUBLE)
+                    .setFetchSize(Integer.MIN_VALUE)  //stream rows with MySQL driver
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while(locations.next()) {
+                    builder.addLocation(locations.getInteger(0), locations.getString(1), locations.getString(2),
+                            locations.getString(3), locations.getDouble(4), locations.getDouble(5));
+                }
+            } finally {
+                locations.close();
+            }
+            
+            ScrollableResults blocks = session.createSQLQuery(CITY_BLOCKS_SQL)
+                    .addScalar("ip_start", StandardBasicTypes.INTEGER)
+                    .addScalar("ip_end", StandardBasicTypes.INTEGER)
+                    .addScalar("location_id", StandardBasicTypes.INTEGER)
+                    .setFetchSize(Integer.MIN_VALUE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while(blocks.next()) {
+                    builder.addBlock(blocks.getInteger(0), blocks.getInteger(1), blocks.getInteger(2));
+                }
+            } finally {
+                blocks.close();
+            }
+        } finally {
+            session.close();
+        }
+        
+        IpLocationIndex index = builder.build();
+        ipLocationIndex = index;
+        Log.info("IP location index loaded: " + index.numBlocks() + " blocks, " + 
+                index.numLocations() + " locations in " + (System.currentTimeMillis() - start) + " ms");
+    }
     
     private static final String TIME_ZONE_BY_ZIP_SQL = "SELECT timezone FROM geo.TimeZones WHERE zip = ?"; 
+    private static final String TIME_ZONES_SQL = "SELECT zip, timezone FROM geo.TimeZones";
     private static final String ZIP_BY_IP_SQL =     
         "SELECT cl.city, cl.postal_code, cl.country_code, cl.latitude, cl.longitude " +
         "FROM geo.CityLocations cl JOIN geo.CityBlocks cb ON cl.id = cb.location_id " +
         "WHERE ? BETWEEN cb.ip_start AND cb.ip_end";
+    private static final String CITY_LOCATIONS_SQL =
+        "SELECT id, city, postal_code, country_code, latitude, longitude " +
+        "FROM geo.CityLocations ORDER BY id";
+    private static final String CITY_BLOCKS_SQL =
+        "SELECT ip_start, ip_end, location_id FROM geo.CityBlocks ORDER BY ip_start";
 }
@@ -0,0 +1,142 @@
+package com.townwizard.globaldata.dao;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.townwizard.globaldata.model.CityLocation;
+
+/**
+ * Immutable in-memory copy of geo.CityBlocks and geo.CityLocations tables.
+ *
+ * IP blocks are kept in primitive arrays sorted by block start, so the block of an IP is found
+ * by binary search.  Every block points to a location, and locations are kept in columns:
+ * city, postal code and country code strings are shared between locations.
+ */
+final class IpLocationIndex {
+
+    private final int[] blockStarts;     //sorted
+    private final int[] blockEnds;
+    private final int[] blockLocations;  //block -> location index, or -1
+
+    private final String[] cities;
+    private final String[] postalCodes;
+    private final String[] countryCodes;
+    private final double[] latitudes;    //NaN when unknown
+    private final double[] longitudes;
+
+    private IpLocationIndex(Builder b) {
+        blockStarts = Arrays.copyOf(b.blockStarts, b.numBlocks);
+        blockEnds = Arrays.copyOf(b.blockEnds, b.numBlocks);
+        blockLocations = new int[b.numBlocks];
+        for(int i = 0; i < b.numBlocks; i++) {
+            int pos = Arrays.binarySearch(b.locationIds, 0, b.numLocations, b.blockLocationIds[i]);
+            blockLocations[i] = pos >= 0 ? pos : -1;
+        }
+        cities = Arrays.copyOf(b.cities, b.numLocations);
+        postalCodes = Arrays.copyOf(b.postalCodes, b.numLocations);
+        countryCodes = Arrays.copyOf(b.countryCodes, b.numLocations);
+        latitudes = Arrays.copyOf(b.latitudes, b.numLocations);
+        longitudes = Arrays.copyOf(b.longitudes, b.numLocations);
+    }
+
+    /**
+     * Find the city location of the IP (as returned by StringUtils.ip4ToInteger), or null
+     */
+    CityLocation find(int ip) {
+        //find the last block starting at or before the ip
+        int lo = 0;
+        int hi = blockStarts.length;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(blockStarts[mid] <= ip) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int block = lo - 1;
+        if(block < 0 || ip > blockEnds[block] || blockLocations[block] < 0) return null;
+
+        int l = blockLocations[block];
+        return new CityLocation(cities[l], postalCodes[l], countryCodes[l],
+                Double.isNaN(latitudes[l]) ? null : latitudes[l],
+                Double.isNaN(longitudes[l]) ? null : longitudes[l]);
+    }
+
+    int numBlocks() {
+        return blockStarts.length;
+    }
+
+    int numLocations() {
+        return cities.length;
+    }
+
+    /*
+     * Collects blocks (which must come sorted by start) and locations (sorted by id)
+     */
+    static final class Builder {
+        private int numBlocks = 0;
+        private int[] blockStarts = new int[1024];
+        private int[] blockEnds = new int[1024];
+        private int[] blockLocationIds = new int[1024];
+
+        private int numLocations = 0;
+        private int[] locationIds = new int[1024];
+        private String[] cities = new String[1024];
+        private String[] postalCodes = new String[1024];
+        private String[] countryCodes = new String[1024];
+        private double[] latitudes = new double[1024];
+        private double[] longitudes = new double[1024];
+
+        private final Map<String, String> strings = new HashMap<>();
+
+        void addBlock(int start, int end, int locationId) {
+            if(numBlocks == blockStarts.length) {
+                int capacity = numBlocks * 2;
+                blockStarts = Arrays.copyOf(blockStarts, capacity);
+                blockEnds = Arrays.copyOf(blockEnds, capacity);
+                blockLocationIds = Arrays.copyOf(blockLocationIds, capacity);
+            }
+            blockStarts[numBlocks] = start;
+            blockEnds[numBlocks] = end;
+            blockLocationIds[numBlocks] = locationId;
+            numBlocks++;
+        }
+
+        void addLocation(int id, String city, String postalCode, String countryCode,
+                Double latitude, Double longitude) {
+            if(numLocations == locationIds.length) {
+                int capacity = numLocations * 2;
+                locationIds = Arrays.copyOf(locationIds, capacity);
+                cities = Arrays.copyOf(cities, capacity);
+                postalCodes = Arrays.copyOf(postalCodes, capacity);
+                countryCodes = Arrays.copyOf(countryCodes, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+            }
+            locationIds[numLocations] = id;
+            cities[numLocations] = share(city);
+            postalCodes[numLocations] = share(postalCode);
+            countryCodes[numLocations] = share(countryCode);
+            latitudes[numLocations] = latitude != null ? latitude : Double.NaN;
+            longitudes[numLocations] = longitude != null ? longitude : Double.NaN;
+            numLocations++;
+        }
+
+        IpLocationIndex build() {
+            return new IpLocationIndex(this);
+        }
+
+        private String share(String s) {
+            if(s == null) return null;
+            String shared = strings.get(s);
+            if(shared == null) {
+                strings.put(s, s);
+                shared = s;
+            }
+            return shared;
+        }
+    }
+
+}
@@ -1,8 +1,11 @@
 package com.townwizard.globaldata.dao;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import com.townwizard.db.dao.AbstractDao;
+import com.townwizard.globaldata.model.Location;
 import com.townwizard.globaldata.model.directory.Place;
 import com.townwizard.globaldata.model.directory.PlaceCategory;
 import com.townwizard.globaldata.model.directory.PlaceIngest;
@@ -28,17 +31,42 @@ public interface PlaceDao extends AbstractDao {
      * Get places for a given ingest
      */
     List<Place> getPlaces(PlaceIngest ingest);
+    
+    /**
+     * Get a page of places for a given ingest, with categories populated.
+     * Places are sorted by distance from the origin (if the origin is not null), and then by name.
+     * If the category filter is not empty, only places with a category name containing (case insensitively)
+     * any of the filter strings are returned, or, if negate is true, only places without such categories.
+     */
+    List<Place> getPlaces(PlaceIngest ingest, Location origin, 
+            Set<String> categoryFilter, boolean negate, int offset, int limit);
 
     /**
-     * Delete places associated with the ingest (and only with this ingest),
-     * and then delete ingest itself.
+     * Mark the ingest as expired, so that it is no longer found, and can be ingested again.
+     * The ingest and its places are deleted later by purgeExpiredIngests()
+     */
+    void expireIngest(PlaceIngest ingest);
+    
+    /**
+     * Delete zip ingest, so that the zip is ingested again.  The ingests of the zip are kept,
+     * and are replaced one by one as the new zip ingest refreshes them
+     */
+    void expireZipIngest(ZipIngest ingest);
+    
+    /**
+     * Unlink at most batchSize places from one expired ingest, and delete the unlinked places
+     * which no other ingest references.  The expired ingest is deleted when it has no places left.
+     * Return the number of processed places (or 1 if an empty ingest was deleted), or 0 if
+     * there are no expired ingests.
      */
-    void deleteIngest(PlaceIngest ingest);
+    int purgeExpiredIngests(int batchSize);
     
     /**
-     * Delete zip ingest and associated ingests with places
+     * Mark as expired the refresh ingests (ingests with no zip) which are still in progress, and were
+     * created before the given time.  Such ingests are left behind by ingesters stopped before they
+     * finished, and are then purged like other expired ingests.  Return the number of expired ingests.
      */
-    void deleteZipIngest(ZipIngest ingest);
+    int expireAbandonedIngests(Date createdBefore);
    
     /**
      * Get zip ingest.
@@ -3,18 +3,23 @@ package com.townwizard.globaldata.dao;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.townwizard.db.dao.AbstractDaoHibernateImpl;
 import com.townwizard.db.logger.Log;
 import com.townwizard.db.util.CollectionUtils;
+import com.townwizard.globaldata.model.Location;
+import com.townwizard.globaldata.model.directory.Ingest;
 import com.townwizard.globaldata.model.directory.Place;
 import com.townwizard.globaldata.model.directory.PlaceCategory;
 import com.townwizard.globaldata.model.directory.PlaceIngest;
@@ -26,6 +31,8 @@ import com.townwizard.globaldata.model.directory.ZipIngest;
 @Component("placeDao")
 public class PlaceDaoHibernateImpl extends AbstractDaoHibernateImpl implements PlaceDao {
     
+    @Autowired private PlaceIngestCache placeIngestCache;
+    
     @Override
     @SuppressWarnings("unchecked")
     public List<PlaceCategory> getAllPlaceCategories() {
@@ -45,6 +52,59 @@ public class PlaceDaoHibernateImpl extends AbstractDaoHibernateImpl implements P
         return places;
     }
     
+    @Override
+    public List<Place> getPlaces(PlaceIngest ingest, Location origin, 
+            Set<String> categoryFilter, boolean negate, int offset, int limit) {
+        //SELECT {l.*} FROM Location l JOIN Location_Ingest li ON li.location_id = l.id
+        //WHERE li.ingest_id = 5 AND NOT EXISTS (SELECT 1 FROM Location_Category lc JOIN Category c ON c.id = lc.category_id
+        //                                       WHERE lc.location_id = l.id AND (LOWER(c.name) LIKE '%restaurants%'))
+        //ORDER BY <no coordinates>, <distance in meters>, <no name>, <name> LIMIT 10 OFFSET 20
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT {l.*} FROM Location l JOIN Location_Ingest li ON li.location_id = l.id ");
+        sb.append("WHERE li.ingest_id = :ingestId");
+        
+        List<String> patterns = new ArrayList<>(categoryFilter.size());
+        for(String c : categoryFilter) patterns.add("%" + escapeLikePattern(c.toLowerCase()) + "%");
+        if(!patterns.isEmpty()) {
+            sb.append(negate ? " AND NOT EXISTS" : " AND EXISTS");
+            sb.append(" (SELECT 1 FROM Location_Category lc JOIN Category c ON c.id = lc.category_id ");
+            sb.append("WHERE lc.location_id = l.id AND (");
+            for(int i = 0; i < patterns.size(); i++) {
+                if(i > 0) sb.append(" OR ");
+                sb.append("LOWER(c.name) LIKE :category").append(i);
+            }
+            sb.append("))");
+        }
+        
+        //same order as DistanceComparator, with distance truncated to meters as in LocationService 
+        boolean hasOrigin = origin != null && origin.getLatitude() != null && origin.getLongitude() != null;
+        sb.append(" ORDER BY ");
+        if(hasOrigin) {
+            sb.append("l.latitude IS NULL OR l.longitude IS NULL, ");
+            sb.append("FLOOR(6371000 * ACOS(LEAST(1, GREATEST(-1, ");
+            sb.append("SIN(RADIANS(:latitude)) * SIN(RADIANS(l.latitude)) + ");
+            sb.append("COS(RADIANS(:latitude)) * COS(RADIANS(l.latitude)) * COS(RADIANS(l.longitude) - RADIANS(:longitude)))))), ");
+        }
+        sb.append("l.name IS NULL, CAST(l.name AS BINARY)");
+        
+        SQLQuery query = getSession().createSQLQuery(sb.toString()).addEntity("l", Place.class);
+        query.setLong("ingestId", ingest.getId());
+        for(int i = 0; i < patterns.size(); i++) query.setString("category" + i, patterns.get(i));
+        if(hasOrigin) {
+            query.setDouble("latitude", origin.getLatitude());
+            query.setDouble("longitude", origin.getLongitude());
+        }
+        query.setFirstResult(offset).setMaxResults(limit);
+        
+        @SuppressWarnings("unchecked")
+        List<Place> places = query.list();
+        if(!places.isEmpty()) {
+            populatePlacesWithCategories(places);
+        }
+        return places;
+    }
+    
     @Override
     public PlaceIngest getIngest(String zip, String countryCode, String categoryOrTerm) {
         @SuppressWarnings("unchecked")
@@ -65,26 +125,14 @@ public class PlaceDaoHibernateImpl extends AbstractDaoHibernateImpl implements P
     }
     
     @Override
-    public void deleteIngest(PlaceIngest ingest) {        
-        Session session = getSession();
-        
-        session.createSQLQuery("DELETE FROM Location_Ingest WHERE ingest_id = :ingest_id")
-            .setLong("ingest_id", ingest.getId()).executeUpdate();
+    public void expireIngest(PlaceIngest ingest) {        
+        placeIngestCache.invalidate(ingest.getZip(), ingest.getCountryCode(),
+                ingest.getPlaceCategory() != null ? ingest.getPlaceCategory().getName() : ingest.getTerm());
         
-        session.createSQLQuery("DELETE FROM Ingest WHERE id = :ingest_id")
+        //expired ingests have no zip, which frees the zip unique keys for the next ingest
+        getSession().createSQLQuery("UPDATE Ingest SET status = :status, zip = NULL WHERE id = :ingest_id")
+            .setString("status", Ingest.Status.E.toString())
             .setLong("ingest_id", ingest.getId()).executeUpdate();
-
-        session.createSQLQuery(
-                "DELETE FROM Location_Category " +
-                "WHERE location_id IN (" +
-                    "SELECT id FROM Location " +
-                    "WHERE id NOT IN (SELECT location_id FROM Location_Ingest))")
-            .executeUpdate();
-
-        session.createSQLQuery("DELETE FROM Location WHERE id NOT IN (SELECT location_id FROM Location_Ingest)")
-            .executeUpdate();
-        
-        session.flush();
     }
     
     @Override
@@ -96,36 +144,76 @@ public class PlaceDaoHibernateImpl extends AbstractDaoHibernateImpl implements P
     }
     
     @Override
-    public void deleteZipIngest(ZipIngest ingest) {
+    public void expireZipIngest(ZipIngest ingest) {
+        getSession().createSQLQuery("DELETE FROM ZipIngest WHERE id = :id")
+            .setLong("id", ingest.getId()).executeUpdate();        
+    }
+    
+    @Override
+    public int purgeExpiredIngests(int batchSize) {
         Session session = getSession();
         
-        session.createSQLQuery("DELETE FROM Location_Ingest WHERE ingest_id IN " +
-        		"(SELECT id FROM Ingest WHERE zip = :zip AND country_code = :countryCode)")
-            .setString("zip", ingest.getZip()).setString("countryCode", ingest.getCountryCode())
-            .executeUpdate();
-        
-        session.createSQLQuery("DELETE FROM Ingest WHERE zip = :zip AND country_code = :countryCode")
-            .setString("zip", ingest.getZip()).setString("countryCode", ingest.getCountryCode())
-            .executeUpdate();        
-        
-        session.createSQLQuery(
-                "DELETE FROM Location_Category " +
-                "WHERE location_id IN (" +
-                    "SELECT id FROM Location " +
-                    "WHERE id NOT IN (SELECT location_id FROM Location_Ingest))")
-            .executeUpdate();
-
-        session.createSQLQuery("DELETE FROM Location WHERE id NOT IN (SELECT location_id FROM Location_Ingest)")
-            .executeUpdate();
+        Object id = session.createSQLQuery("SELECT id FROM Ingest WHERE status = :status")
+                .setString("status", Ingest.Status.E.toString())
+                .setMaxResults(1).uniqueResult();
+        if(id == null) return 0;
+        long ingestId = ((Number)id).longValue();
         
-        session.createSQLQuery("DELETE FROM ZipIngest WHERE id = :id")
-            .setLong("id", ingest.getId()).executeUpdate();        
+        List<Long> locationIds = toLongs(session
+                .createSQLQuery("SELECT location_id FROM Location_Ingest WHERE ingest_id = :ingest_id")
+                .setLong("ingest_id", ingestId)
+                .setMaxResults(batchSize).list());
+        if(locationIds.isEmpty()) {
+            session.createSQLQuery("DELETE FROM Ingest WHERE id = :ingest_id")
+                .setLong("ingest_id", ingestId).executeUpdate();
+            return 1;
+        }
         
-        session.flush();
+        session.createSQLQuery("DELETE FROM Location_Ingest WHERE ingest_id = :ingest_id AND location_id IN (:ids)")
+            .setLong("ingest_id", ingestId).setParameterList("ids", locationIds).executeUpdate();
+        
+        //lock the unlinked places, and then delete the ones which are not linked to other ingests.
+        //Ingesters keep the places they merge locked until they link them (see JdbcIngester), so the lock
+        //waits for ingesters which are linking these places, and then keeps new links from being made.
+        //The links are read with a locking read, which sees the links committed after this transaction began.
+        session.createSQLQuery("SELECT id FROM Location WHERE id IN (:ids) FOR UPDATE")
+            .setParameterList("ids", locationIds).list();
+        Set<Long> orphans = new HashSet<>(locationIds);
+        orphans.removeAll(toLongs(session
+                .createSQLQuery("SELECT DISTINCT location_id FROM Location_Ingest WHERE location_id IN (:ids) " +
+                        "LOCK IN SHARE MODE")
+                .setParameterList("ids", locationIds).list()));
+        if(!orphans.isEmpty()) {
+            session.createSQLQuery("DELETE FROM Location_Category WHERE location_id IN (:ids)")
+                .setParameterList("ids", orphans).executeUpdate();
+            session.createSQLQuery("DELETE FROM Location WHERE id IN (:ids)")
+                .setParameterList("ids", orphans).executeUpdate();
+        }
+        
+        return locationIds.size();
+    }
+    
+    @Override
+    public int expireAbandonedIngests(Date createdBefore) {
+        return getSession().createSQLQuery(
+                "UPDATE Ingest SET status = :expired WHERE status = :in_progress AND zip IS NULL AND created < :before")
+            .setString("expired", Ingest.Status.E.toString())
+            .setString("in_progress", Ingest.Status.I.toString())
+            .setTimestamp("before", createdBefore).executeUpdate();
     }
     
     ///////////////////////////// private methods //////////////////////////////////////////
     
+    private List<Long> toLongs(List<?> numbers) {
+        List<Long> result = new ArrayList<>(numbers.size());
+        for(Object n : numbers) result.add(((Number)n).longValue());
+        return result;
+    }
+    
+    private String escapeLikePattern(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+    
     private void populatePlacesWithCategories(List<Place> places) {
         List<Long> placeIds = new ArrayList<>(places.size());
         for(Place p : places) placeIds.add(p.getId());
@@ -0,0 +1,214 @@
+package com.townwizard.globaldata.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
+import com.townwizard.globaldata.model.Location;
+import com.townwizard.globaldata.model.directory.Place;
+
+/**
+ * In-memory cache of places of ready place ingests, by zip, country code, and category or term.
+ *
+ * Cached places are detached copies with categories populated.  They are normally sorted by
+ * distance from the primary location of the zip, with distances set, so a page of places is a range
+ * of the cached list.  Cached places are shared and must never be modified: callers copy the places
+ * they return.
+ *
+ * The cache is bounded by the total number of cached places, and the least recently used
+ * ingests are evicted first.  Ingests are invalidated when they are re-ingested or deleted.
+ * A load which started before an invalidation is not cached, so the cache never keeps places
+ * read before the ingest changed.
+ *
+ * Pages of ingests which are not cached are read from the DB page by page, and an ingest is loaded
+ * into the cache as a whole only when it is asked for again, so one-off requests don't fill the cache.
+ */
+@Component("placeIngestCache")
+public final class PlaceIngestCache {
+
+    @Autowired private ConfigurationService configurationService;
+
+    private static final int MAX_MISSED_INGESTS = 10000;
+
+    private final LinkedHashMap<Key, CachedIngest> ingests = new LinkedHashMap<>(256, 0.75f, true);
+    private final Set<Key> missedIngests = new HashSet<>();
+    private long numPlaces = 0;
+    private long invalidations = 0;
+
+    /**
+     * Places of a cached ingest, the ingest creation time, and the origin the places are sorted from
+     */
+    public static final class CachedIngest {
+        private final Date created;
+        private final Float originLatitude;
+        private final Float originLongitude;
+        private final List<Place> places;
+
+        private CachedIngest(Date created, Location origin, List<Place> places) {
+            this.created = created;
+            originLatitude = origin != null ? origin.getLatitude() : null;
+            originLongitude = origin != null ? origin.getLongitude() : null;
+            this.places = places;
+        }
+
+        public Date getCreated() {
+            return new Date(created.getTime());
+        }
+
+        /**
+         * Return the shared read only list of cached places
+         */
+        public List<Place> getPlaces() {
+            return places;
+        }
+
+        /**
+         * True if the places are sorted by distance from the origin, and have distances from it
+         */
+        public boolean isSortedFrom(Location origin) {
+            return origin != null && originLatitude != null && originLongitude != null &&
+                   originLatitude.equals(origin.getLatitude()) && originLongitude.equals(origin.getLongitude());
+        }
+    }
+
+    /**
+     * Get the cached ingest, or null
+     */
+    public synchronized CachedIngest get(String zip, String countryCode, String categoryOrTerm) {
+        return ingests.get(new Key(zip, countryCode, categoryOrTerm));
+    }
+
+    /**
+     * Record a cache miss of the ingest.  Return true if the ingest has missed the cache before,
+     * so that it is worth loading into the cache as a whole.
+     */
+    public synchronized boolean admit(String zip, String countryCode, String categoryOrTerm) {
+        Key key = new Key(zip, countryCode, categoryOrTerm);
+        if(missedIngests.remove(key)) return true;
+        if(missedIngests.size() >= MAX_MISSED_INGESTS) missedIngests.clear();
+        missedIngests.add(key);
+        return false;
+    }
+
+    /**
+     * Return the stamp to be passed to put() for the load which is about to start
+     */
+    public synchronized long getLoadStamp() {
+        return invalidations;
+    }
+
+    /**
+     * Cache places of a ready ingest, sorted by distance from the origin (which may be null if
+     * the places are not sorted).  The places are copied.
+     * Nothing is cached if anything was invalidated since the load stamp was taken.
+     */
+    public void put(String zip, String countryCode, String categoryOrTerm,
+            Date created, Location origin, List<Place> places, long loadStamp) {
+        long maxPlaces = configurationService.getIntValue(ConfigurationKey.PLACE_INGEST_CACHE_MAX_PLACES);
+        if(created == null || places.size() > maxPlaces) return;
+
+        CachedIngest ingest = new CachedIngest(new Date(created.getTime()), origin,
+                Collections.unmodifiableList(copyForCache(places)));
+        synchronized (this) {
+            if(loadStamp != invalidations) return;
+            CachedIngest old = ingests.put(new Key(zip, countryCode, categoryOrTerm), ingest);
+            if(old != null) numPlaces -= old.places.size();
+            numPlaces += ingest.places.size();
+
+            for(Iterator<CachedIngest> i = ingests.values().iterator(); numPlaces > maxPlaces && i.hasNext();) {
+                numPlaces -= i.next().places.size();
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove the ingest from the cache
+     */
+    public synchronized void invalidate(String zip, String countryCode, String categoryOrTerm) {
+        invalidations++;
+        CachedIngest old = ingests.remove(new Key(zip, countryCode, categoryOrTerm));
+        if(old != null) numPlaces -= old.places.size();
+    }
+
+    public synchronized int size() {
+        return ingests.size();
+    }
+
+    public synchronized long getNumPlaces() {
+        return numPlaces;
+    }
+
+    /**
+     * Copy places, so that the copies can be modified
+     */
+    public static List<Place> copy(Collection<Place> places) {
+        List<Place> copies = new ArrayList<>(places.size());
+        for(Place p : places) copies.add(p.copy());
+        return copies;
+    }
+
+    ///////// private methods /////////
+
+    //copies to be cached have read only categories, and are classified before they are shared
+    private static List<Place> copyForCache(Collection<Place> places) {
+        List<Place> copies = new ArrayList<>(places.size());
+        for(Place p : places) {
+            Place c = p.copy();
+            if(c.getCategories() != null) c.setCategories(Collections.unmodifiableSet(c.getCategories()));
+            c.getMainCategories();
+            copies.add(c);
+        }
+        return copies;
+    }
+
+    /*
+     * Cache key.  Categories and terms are matched case insensitively, as they are in the DB
+     */
+    private static final class Key {
+        private final String zip;
+        private final String countryCode;
+        private final String categoryOrTerm;
+
+        Key(String zip, String countryCode, String categoryOrTerm) {
+            this.zip = zip;
+            this.countryCode = countryCode;
+            this.categoryOrTerm = categoryOrTerm != null ? categoryOrTerm.toLowerCase() : null;
+        }
+
+        boolean isZip(String zip, String countryCode) {
+            return equal(this.zip, zip) && equal(this.countryCode, countryCode);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = zip != null ? zip.hashCode() : 0;
+            result = 31 * result + (countryCode != null ? countryCode.hashCode() : 0);
+            return 31 * result + (categoryOrTerm != null ? categoryOrTerm.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) return true;
+            if(!(obj instanceof Key)) return false;
+            Key k = (Key)obj;
+            return isZip(k.zip, k.countryCode) && equal(categoryOrTerm, k.categoryOrTerm);
+        }
+
+        private static boolean equal(String s1, String s2) {
+            return s1 != null ? s1.equals(s2) : s2 == null;
+        }
+    }
+
+}
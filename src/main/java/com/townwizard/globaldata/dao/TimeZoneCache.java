@@ -0,0 +1,120 @@
+package com.townwizard.globaldata.dao;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe zip to time zone cache.
+ *
+ * The cache is normally preloaded with the whole zip to time zone table.  Once preloaded, a zip
+ * which is not in the table has no time zone, and is not looked up anywhere else.
+ * Before the preload, single zips are looked up and cached (including zips without time zone)
+ * in a map bounded to the most recently used zips.
+ */
+final class TimeZoneCache {
+
+    static final int MAX_LOOKED_UP_ENTRIES = 10000;
+    private static final Object NO_TIME_ZONE = new Object();
+
+    private volatile Map<String, TimeZone> preloaded;
+    private final Map<String, Object> lookedUp = new LinkedHashMap<String, Object>(1024, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > MAX_LOOKED_UP_ENTRIES;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Looks up time zone ids of single zips
+     */
+    static interface Loader {
+        String loadTimeZoneId(String zip);
+    }
+
+    TimeZone get(String zip, Loader loader) {
+        Map<String, TimeZone> zones = preloaded;
+        if(zones != null) {
+            TimeZone timeZone = zones.get(zip);
+            (timeZone != null ? hits : negativeHits).incrementAndGet();
+            return timeZone;
+        }
+
+        Object cached;
+        synchronized (lookedUp) {
+            cached = lookedUp.get(zip);
+        }
+        if(cached != null) {
+            if(cached == NO_TIME_ZONE) {
+                negativeHits.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return (TimeZone)cached;
+        }
+
+        misses.incrementAndGet();
+        String timeZoneId = loader.loadTimeZoneId(zip);
+        TimeZone timeZone = timeZoneId != null ? TimeZone.getTimeZone(timeZoneId) : null;
+        synchronized (lookedUp) {
+            lookedUp.put(zip, timeZone != null ? timeZone : NO_TIME_ZONE);
+        }
+        return timeZone;
+    }
+
+    /**
+     * Replace the cache content with the complete zip to time zone id map
+     */
+    void preload(Map<String, String> zipToTimeZoneId) {
+        Map<String, TimeZone> zones = new HashMap<>(zipToTimeZoneId.size() * 2);
+        Map<String, TimeZone> resolved = new HashMap<>();
+        for(Map.Entry<String, String> e : zipToTimeZoneId.entrySet()) {
+            String id = e.getValue();
+            if(e.getKey() == null || id == null) continue;
+            TimeZone timeZone = resolved.get(id);
+            if(timeZone == null) {
+                timeZone = TimeZone.getTimeZone(id);
+                resolved.put(id, timeZone);
+            }
+            zones.put(e.getKey(), timeZone);
+        }
+        preloaded = zones;
+        synchronized (lookedUp) {
+            lookedUp.clear();
+        }
+    }
+
+    int size() {
+        Map<String, TimeZone> zones = preloaded;
+        if(zones != null) return zones.size();
+        synchronized (lookedUp) {
+            return lookedUp.size();
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getNegativeHitCount() {
+        return negativeHits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "size: " + size() + ", hits: " + getHitCount() +
+               ", negative hits: " + getNegativeHitCount() + ", misses: " + getMissCount();
+    }
+
+}
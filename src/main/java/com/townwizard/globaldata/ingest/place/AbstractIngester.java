@@ -3,7 +3,6 @@ package com.townwizard.globaldata.ingest.place;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -12,6 +11,7 @@ import java.util.TreeSet;
 import com.townwizard.db.logger.Log;
 import com.townwizard.globaldata.model.directory.Place;
 import com.townwizard.globaldata.model.directory.PlaceCategory;
+import com.townwizard.globaldata.model.directory.PlaceCategoryCatalog;
 import com.townwizard.globaldata.model.directory.PlaceIngest;
 
 public abstract class AbstractIngester implements Ingester {
@@ -21,23 +21,21 @@ public abstract class AbstractIngester implements Ingester {
     private String categoryOrTerm;
     private boolean highPriorityIngest;
     private boolean highPriorityIngestDone;
-    private Map<String, PlaceCategory> categoryNameToCategory;
-    private LinkedList<String> submittionList;
+    //zip ingesters submit the categories of the catalog they started with, in name order;
+    //the list is immutable, so categories added to newer catalog versions do not shift it
+    private final List<String> categoryNames;
+    private final int numCategories;
+    private int nextCategoryIndex;
     private Set<String> processedCategories;
     
     public AbstractIngester(
-            String zipCode, String countryCode, List<PlaceCategory> categories, String categoryOrTerm) {
+            String zipCode, String countryCode, PlaceCategoryCatalog catalog, String categoryOrTerm) {
         this.zipCode = zipCode;
         this.countryCode = countryCode;
         this.categoryOrTerm = categoryOrTerm;
         highPriorityIngest = categoryOrTerm != null;
-    
-        categoryNameToCategory = new HashMap<>();
-        for(PlaceCategory c : categories) {
-            categoryNameToCategory.put(c.getName(), c);
-        }
-        submittionList = new LinkedList<>();
-        submittionList.addAll(categoryNameToCategory.keySet());
+        categoryNames = catalog.getNames(0);
+        numCategories = categoryNames.size();
         processedCategories = new HashSet<>();        
     }
     
@@ -54,24 +52,33 @@ public abstract class AbstractIngester implements Ingester {
     @Override
     public boolean hasNextCategory() {
         if(highPriorityIngest) return !highPriorityIngestDone;
-        return submittionList.size() > 0;
+        return nextCategoryIndex < numCategories;
+    }
+    
+    /**
+     * Return the category which getNextCategory() would return, without moving to the next one
+     */
+    @Override
+    public String peekNextCategory() {
+        if(highPriorityIngest) return categoryOrTerm;
+        return categoryNames.get(nextCategoryIndex);
     }
     
     @Override
     public String getNextCategory() {
         if(highPriorityIngest) return categoryOrTerm;
-        return submittionList.removeFirst();
+        return categoryNames.get(nextCategoryIndex++);
     }
     
     @Override
     public boolean allDone() {
         if(highPriorityIngest) return highPriorityIngestDone;
-        return processedCategories.size() == categoryNameToCategory.size();
+        return processedCategories.size() == numCategories;
     }
     
     @Override
     public int size() {
-        return categoryNameToCategory.size();
+        return numCategories;
     }
     
     @Override
@@ -85,11 +92,13 @@ public abstract class AbstractIngester implements Ingester {
             //go through places category names and
             //1) collect new categories
             //2) create a map of categories (including new ones) to places
+            //the current shared catalog, which includes the categories added since the ingester started
+            PlaceCategoryCatalog cats = getCatalog();
             Map<String, Set<Place>> categoryToPlaces = new HashMap<>();
             Set<String> newCategories = new HashSet<>();
             for(Place p : task.getPlaces()) {
                 for(String cName : p.extractCategoryNames()) {
-                    if(!categoryNameToCategory.containsKey(cName)) {
+                    if(cats.getByName(cName) == null) {
                         newCategories.add(cName);
                     }
                     Set<Place> categoryPlaces = categoryToPlaces.get(cName);
@@ -102,12 +111,14 @@ public abstract class AbstractIngester implements Ingester {
             }
 
             beforeIngest();
-            PlaceIngest ingest = createIngest(task);
+            PlaceIngest ingest = createIngest(task, cats);
             
             markIngestInProgress(ingest);            
             mergePlaces(task.getPlaces());            
             mapPlacesToIngest(ingest);
-            addNewCategories(newCategories);
+            if(!newCategories.isEmpty()) {
+                addNewCategories(newCategories);
+            }
             mapPlacesToCategories(categoryToPlaces);
             markIngestReady(ingest);
             
@@ -127,21 +138,28 @@ public abstract class AbstractIngester implements Ingester {
         }
     }
     
+    /**
+     * Return the current version of the shared category catalog
+     */
+    protected abstract PlaceCategoryCatalog getCatalog();
     protected abstract void markIngestInProgress(PlaceIngest ingest);
     protected abstract void mergePlaces(Collection<Place> places);
     protected abstract void mapPlacesToIngest(PlaceIngest ingest);
     protected abstract void mapPlacesToCategories(Map<String, Set<Place>> categoryToPlaces);
+    /**
+     * Create the new categories, and add them to the shared catalog
+     */
     protected abstract void addNewCategories(Set<String> newCategoryNames);
     protected abstract void markIngestReady(PlaceIngest ingest);
     protected abstract void beforeIngest();
     protected abstract void afterIngest();
     protected abstract void onError(Exception e, IngestTask task);
     
-    private  PlaceIngest createIngest(IngestTask task) {
+    private  PlaceIngest createIngest(IngestTask task, PlaceCategoryCatalog catalog) {
         PlaceIngest ingest = new PlaceIngest();
         ingest.setZip(getZipCode());
         ingest.setCountryCode(getCountryCode());
-        PlaceCategory category = categoryNameToCategory.get(task.getCategory());
+        PlaceCategory category = catalog.getByName(task.getCategory());
         if(category != null) {        
             ingest.setPlaceCategory(category);
         } else {
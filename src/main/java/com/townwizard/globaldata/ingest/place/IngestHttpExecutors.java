@@ -17,16 +17,17 @@ import com.townwizard.db.configuration.ConfigurationListener;
 import com.townwizard.db.configuration.ConfigurationService;
 import com.townwizard.db.logger.Log;
 import com.townwizard.globaldata.model.directory.Place;
-import com.townwizard.globaldata.service.provider.YellowPagesService;
+import com.townwizard.globaldata.service.provider.PlaceSourceFetcher;
 
 @Component("placeIngestHttpExecutors")
 public class IngestHttpExecutors implements Runnable, ConfigurationListener {
     
     private static final String THREAD_NAME_PREFIX = "http-executor"; 
+    private static final long POLL_TIMEOUT_MILLIS = 500;
     
     @Autowired private ConfigurationService configurationService;
     @Autowired private IngestQueue placeIngestQueue;
-    @Autowired private YellowPagesService yellowPagesService;
+    @Autowired private PlaceSourceFetcher placeSourceFetcher;
 
     private static ExecutorService httpExecutors;
     private static boolean stoppedFlag = false;
@@ -40,27 +41,30 @@ public class IngestHttpExecutors implements Runnable, ConfigurationListener {
             
             IngestTask task = null;
             try {
-                task = placeIngestQueue.getHighPriorityHttpTask();
-                if(task == null) {
-                    task = placeIngestQueue.getHttpTask();
-                }
+                task = placeIngestQueue.takeHttpTask(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
                 if(task != null) {
+                    //don't fetch more places while the DB is behind
+                    while(!placeIngestQueue.awaitDbCapacity(task, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if(stoppedFlag || shutdownFlag) {
+                            placeIngestQueue.returnHttpTask(task);
+                            return;
+                        }
+                    }
                     List<Place> places = getPlacesFromSource(
                             task.getZipCode(), task.getCountryCode(), task.getCategory());
-                    placeIngestQueue.addDbTask(
-                            new IngestTask(task.getZipCode(), task.getCountryCode(), task.getCategory(),
-                                    task.isHighPriority(), places));                    
-                } else {
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException ie) {
-                        Log.info("Exiting http executor " + Thread.currentThread().getName());
-                        return;
+                    IngestTask dbTask = new IngestTask(task.getZipCode(), task.getCountryCode(),
+                            task.getCategory(), task.isHighPriority(), places);
+                    //keep the fetched places until the DB takes them, rather than fetch them again
+                    while(!placeIngestQueue.addDbTask(dbTask)) {
+                        if(stoppedFlag || shutdownFlag) {
+                            placeIngestQueue.returnHttpTask(task);
+                            return;
+                        }
                     }
                 }
             } catch (Exception e) {
                 if(task != null) {
-                    placeIngestQueue.addHttpTask(task);
+                    placeIngestQueue.returnHttpTask(task);
                 }
                 if(e instanceof InterruptedException) {
                     Log.info("Exiting http executor " + Thread.currentThread().getName());
@@ -132,9 +136,7 @@ public class IngestHttpExecutors implements Runnable, ConfigurationListener {
     
     private List<Place> getPlacesFromSource(String zipCode, String countryCode, String category) 
             throws Exception {
-        List<Place> places = yellowPagesService.getPlaces(zipCode, category);
-        for(Place p : places) p.setCountryCode(countryCode);
-        return places;
+        return placeSourceFetcher.getPlaces(zipCode, countryCode, category);
     }
 
 }
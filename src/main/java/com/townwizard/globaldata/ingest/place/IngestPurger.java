@@ -0,0 +1,91 @@
+package com.townwizard.globaldata.ingest.place;
+
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import net.sf.ehcache.util.NamedThreadFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
+import com.townwizard.db.logger.Log;
+import com.townwizard.globaldata.service.PlaceService;
+
+/**
+ * Deletes expired place ingests and the places no other ingest references, in background.
+ *
+ * User requests only mark ingests as expired.  The purger periodically takes expired ingests
+ * and deletes their places in small batches, one transaction per batch, so neither user requests
+ * nor ingesters wait for large deletes.  Refresh ingests abandoned in progress (for example, when
+ * the application stopped while they were ingested) are expired and purged as well.
+ */
+@Component("placeIngestPurger")
+public final class IngestPurger implements Runnable {
+
+    private static ScheduledExecutorService purger;
+
+    @Autowired private PlaceService placeService;
+    @Autowired private ConfigurationService configurationService;
+
+    @PostConstruct
+    public void init() {
+        int intervalSeconds = configurationService.getIntValue(
+                ConfigurationKey.PLACE_INGEST_PURGE_INTERVAL_SECONDS);
+        if(intervalSeconds < 1) intervalSeconds = 1;
+        purger = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ingest-purger"));
+        purger.scheduleWithFixedDelay(this, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        Log.info("Place ingest purger started");
+    }
+
+    /**
+     * Expire abandoned ingests, and purge batches until there is nothing left to purge
+     */
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        long purged = 0;
+        try {
+            int abandonedHours = configurationService.getIntValue(ConfigurationKey.PLACE_INGEST_ABANDONED_HOURS);
+            if(abandonedHours > 0) {
+                int abandoned = placeService.expireAbandonedIngests(
+                        new Date(start - TimeUnit.HOURS.toMillis(abandonedHours)));
+                if(abandoned > 0) Log.info("Expired " + abandoned + " abandoned place ingests");
+            }
+            int batchSize = configurationService.getIntValue(ConfigurationKey.PLACE_INGEST_PURGE_BATCH_SIZE);
+            if(batchSize < 1) batchSize = 1;
+            int n;
+            while(!Thread.currentThread().isInterrupted() &&
+                    (n = placeService.purgeExpiredIngests(batchSize)) > 0) {
+                purged += n;
+            }
+        } catch (Exception e) {
+            //the batch is rolled back, and will be retried next time
+            Log.exception(e);
+        }
+        if(purged > 0 && Log.isInfoEnabled()) {
+            Log.info("Purged " + purged + " places of expired ingests in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    public static void shutdownThreads() {
+        if(purger != null) {
+            Log.info("About to shutdown place ingest purger ...");
+            purger.shutdownNow();
+            try {
+                if(!purger.awaitTermination(30, TimeUnit.SECONDS)) {
+                    Log.warning("Cannot terminate place ingest purger");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
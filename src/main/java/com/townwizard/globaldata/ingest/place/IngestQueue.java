@@ -1,7 +1,7 @@
 package com.townwizard.globaldata.ingest.place;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -10,62 +10,154 @@ import javax.annotation.PostConstruct;
 
 import net.sf.ehcache.util.NamedThreadFactory;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
 import com.townwizard.db.logger.Log;
 
+/**
+ * Holds place ingest tasks between the ingesters loop, http executors, and db loops.
+ * 
+ * Both http and db queues are bounded and blocking, and have high priority and background lanes.
+ * When a db queue is full, http executors wait before fetching more places from the provider,
+ * so a slow DB puts backpressure on the http executors instead of growing the queue.
+ */
 @Component("placeIngestQueue")
 public final class IngestQueue {
     
-    private static final Queue<IngestTask> httpExecutorsQueue = new ConcurrentLinkedQueue<>();
-    private static final Queue<IngestTask> highPrioryHttpExecutorsQueue = new ConcurrentLinkedQueue<>();
-    private static final Queue<IngestTask> dbIngestQueue = new ConcurrentLinkedQueue<>();
+    private static final long HTTP_PUT_TIMEOUT_SECONDS = 10;
+    private static final long DB_PUT_TIMEOUT_SECONDS = 60;
+    
+    @Autowired private ConfigurationService configurationService;
+    
+    private static IngestTaskQueue httpExecutorsQueue;
+    private static volatile IngestTaskQueue[] dbIngestQueues;
     
     private static boolean shutdownFlag;
     private static ExecutorService queueMonitor;
     
-    public void addHttpTask(IngestTask task) {
-        if(task.isHighPriority()) {
-            boolean found = false;
-            for(IngestTask t : highPrioryHttpExecutorsQueue) {
-                if(t.equals(task)) found = true;
-                break;
-            }
-            if(!found) {
-                highPrioryHttpExecutorsQueue.add(task);
-            }            
-        } else {
-            httpExecutorsQueue.add(task);
+    /**
+     * Add http task, waiting if the http queue is full.
+     * Duplicate high priority tasks are ignored.
+     * Return false if the task was rejected because the queue stayed full.
+     */
+    public boolean addHttpTask(IngestTask task) throws InterruptedException {
+        if(task.isHighPriority() && httpExecutorsQueue.contains(task)) {
+            return true;
         }
+        boolean added = httpExecutorsQueue.put(task, HTTP_PUT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if(!added) {
+            Log.warning("Http ingest queue is full, rejected task " + task.getZipCode() + 
+                    ", " + task.getCategory());
+        }
+        return added;
     }
     
-    public IngestTask getHttpTask() {
-        return httpExecutorsQueue.poll();
+    /**
+     * Return http task taken by an http executor back to the queue
+     */
+    public void returnHttpTask(IngestTask task) {
+        httpExecutorsQueue.requeue(task);
     }
     
-    public IngestTask getHighPriorityHttpTask() {
-        return highPrioryHttpExecutorsQueue.poll();
-    }    
+    /**
+     * Take the next http task (high priority first), waiting up to timeout if there are no tasks.
+     */
+    public IngestTask takeHttpTask(long timeout, TimeUnit unit) throws InterruptedException {
+        return httpExecutorsQueue.take(timeout, unit);
+    }
+    
+    /**
+     * DB tasks are sharded by (zip, country code), so all tasks of one ingester
+     * end up in the same shard, and are processed by the same thread.
+     * 
+     * Waits if the db shard queue is full, and returns false if the task was not added
+     * because the queue stayed full, in which case the caller may try again.
+     */
+    public boolean addDbTask(IngestTask task) throws InterruptedException {
+        IngestTaskQueue[] queues = dbIngestQueues;
+        IngestTaskQueue queue = queues[shardOf(task, queues.length)];
+        boolean added = queue.put(task, DB_PUT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if(added && queues != dbIngestQueues) {
+            //shards were changed while we were waiting, move tasks to the new shards
+            moveToCurrentShards(queue);
+        }
+        if(!added) {
+            Log.warning("Db ingest queue is full, cannot add task " + task.getZipCode() + 
+                    ", " + task.getCategory() + " yet");
+        }
+        return added;
+    }
+    
+    /**
+     * Wait until the db shard queue for the task has free space.
+     * Return false if there is no space after timeout.
+     */
+    public boolean awaitDbCapacity(IngestTask task, long timeout, TimeUnit unit) throws InterruptedException {
+        IngestTaskQueue[] queues = dbIngestQueues;
+        return queues[shardOf(task, queues.length)].awaitCapacity(timeout, unit);
+    }
+    
+    /**
+     * Take the next db task of a shard (high priority first), waiting up to timeout 
+     * if there are no tasks.
+     */
+    public IngestTask takeDbTask(int shard, long timeout, TimeUnit unit) throws InterruptedException {
+        IngestTaskQueue[] queues = dbIngestQueues;
+        if(shard >= queues.length) {
+            unit.sleep(timeout);
+            return null;
+        }
+        return queues[shard].take(timeout, unit);
+    }
     
-    public void addDbTask(IngestTask task) {
-        dbIngestQueue.add(task);
+    /**
+     * Change the number of DB task shards. Pending DB tasks are redistributed between the new shards.
+     * Should be called when no thread is consuming DB tasks.
+     */
+    public synchronized void setNumDbShards(int numShards) {
+        IngestTaskQueue[] oldQueues = dbIngestQueues;
+        IngestTaskQueue[] newQueues = newDbQueues(numShards);
+        dbIngestQueues = newQueues;
+        if(oldQueues != null) {
+            for(IngestTaskQueue q : oldQueues) {
+                moveToCurrentShards(q);
+            }
+        }
     }
     
-    public IngestTask getDbTask() {
-        return dbIngestQueue.poll();
+    public int dbTasks() {
+        int size = 0;
+        for(IngestTaskQueue q : dbIngestQueues) size += q.size();
+        return size;
     }
     
     public int submittedHttpTasks() {
-        return httpExecutorsQueue.size();
+        return httpExecutorsQueue.backgroundSize();
+    }
+    
+    public IngestTaskQueue getHttpQueue() {
+        return httpExecutorsQueue;
+    }
+    
+    public IngestTaskQueue[] getDbQueues() {
+        return dbIngestQueues;
     }
     
     public void clear() {
-        httpExecutorsQueue.clear();
-        dbIngestQueue.clear();
+        httpExecutorsQueue.clearBackground();
+        for(IngestTaskQueue q : dbIngestQueues) q.clearBackground();
     }
     
     @PostConstruct
     public void init() {
+        httpExecutorsQueue = new IngestTaskQueue(
+                configurationService.getIntValue(ConfigurationKey.PLACE_INGEST_HTTP_QUEUE_CAPACITY));
+        if(dbIngestQueues == null) {
+            setNumDbShards(1);
+        }
         queueMonitor = Executors.newFixedThreadPool(1, new NamedThreadFactory("queue-monitor"));
         queueMonitor.submit(new IngestQueueMonitor());
     }
@@ -85,6 +177,31 @@ public final class IngestQueue {
         }
     }    
     
+    private static int shardOf(IngestTask task, int numShards) {
+        int hash = 31 * task.getZipCode().hashCode() + task.getCountryCode().hashCode();
+        return Math.abs(hash % numShards);
+    }
+    
+    /*
+     * The total db queue capacity is split between shards
+     */
+    private IngestTaskQueue[] newDbQueues(int numShards) {
+        int capacity = configurationService.getIntValue(ConfigurationKey.PLACE_INGEST_DB_QUEUE_CAPACITY);
+        int shardCapacity = Math.max(1, capacity / numShards);
+        IngestTaskQueue[] queues = new IngestTaskQueue[numShards];
+        for(int i = 0; i < numShards; i++) queues[i] = new IngestTaskQueue(shardCapacity);
+        return queues;
+    }
+    
+    private void moveToCurrentShards(IngestTaskQueue from) {
+        List<IngestTask> tasks = new ArrayList<>();
+        from.drainTo(tasks);
+        IngestTaskQueue[] queues = dbIngestQueues;
+        for(IngestTask task : tasks) {
+            queues[shardOf(task, queues.length)].requeue(task);
+        }
+    }
+    
     private final class IngestQueueMonitor implements Runnable {
         
         IngestQueueMonitor() {
@@ -102,15 +219,20 @@ public final class IngestQueue {
                 }
                 try {
                     int httpQueueSize = httpExecutorsQueue.size();
-                    int dbQueueSize = dbIngestQueue.size();
+                    int dbQueueSize = dbTasks();
                     if(httpQueueSize > 0) {
                         if(Log.isInfoEnabled()) {
-                            Log.info("Ingest http executor queue size: " + httpQueueSize);
+                            Log.info("Ingest http executor queue " + httpExecutorsQueue);
                         }
                     }
                     if(dbQueueSize > 0) {
                         if(Log.isInfoEnabled()) {
-                            Log.info("Db ingest queue size: " + dbQueueSize);
+                            IngestTaskQueue[] queues = dbIngestQueues;
+                            StringBuilder sb = new StringBuilder("Db ingest queue size: " + dbQueueSize);
+                            for(int i = 0; i < queues.length; i++) {
+                                sb.append("\nDb shard ").append(i).append(" queue ").append(queues[i]);
+                            }
+                            Log.info(sb.toString());
                         }
                     }                    
                     try {
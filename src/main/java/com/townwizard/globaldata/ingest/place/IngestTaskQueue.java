@@ -0,0 +1,253 @@
+package com.townwizard.globaldata.ingest.place;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking queue of ingest tasks with two lanes: high priority and background.
+ *
+ * Tasks are taken from the high priority lane first.  The capacity is shared by both lanes.
+ * Producers block (with timeout) when the queue is full, and consumers block (with timeout)
+ * when the queue is empty.
+ *
+ * The queue keeps statistics: number of rejected tasks (the tasks which could not be put
+ * in the queue before timeout), and the time tasks spent waiting in the queue.
+ */
+public final class IngestTaskQueue {
+
+    private final int capacity;
+    private final Deque<Entry> highPriorityLane = new ArrayDeque<>();
+    private final Deque<Entry> backgroundLane = new ArrayDeque<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    public IngestTaskQueue(int capacity) {
+        this.capacity = capacity > 0 ? capacity : 1;
+    }
+
+    /**
+     * Put a task in the queue, waiting for free space if necessary.
+     * Return false if the queue is still full after the timeout (the task is rejected)
+     */
+    public boolean put(IngestTask task, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(size() >= capacity) {
+                if(nanos <= 0) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Put a task in the queue ignoring the queue capacity.
+     * This is used to return tasks which were already taken from some queue.
+     */
+    public void requeue(IngestTask task) {
+        lock.lock();
+        try {
+            enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a task from the queue (high priority lane first), waiting for a task if necessary.
+     * Return null if no task became available before the timeout.
+     */
+    public IngestTask take(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(isEmpty()) {
+                if(nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            Entry e = highPriorityLane.poll();
+            if(e == null) e = backgroundLane.poll();
+            notFull.signal();
+            recordWait(e);
+            return e.task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the queue has free space.  Return false if the queue is still full after the timeout.
+     */
+    public boolean awaitCapacity(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(size() >= capacity) {
+                if(nanos <= 0) return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(IngestTask task) {
+        lock.lock();
+        try {
+            Deque<Entry> lane = task.isHighPriority() ? highPriorityLane : backgroundLane;
+            for(Entry e : lane) {
+                if(e.task.equals(task)) return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move all tasks from this queue to the given collection
+     */
+    public void drainTo(Collection<IngestTask> tasks) {
+        lock.lock();
+        try {
+            for(Entry e : highPriorityLane) tasks.add(e.task);
+            for(Entry e : backgroundLane) tasks.add(e.task);
+            highPriorityLane.clear();
+            backgroundLane.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            highPriorityLane.clear();
+            backgroundLane.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clearBackground() {
+        lock.lock();
+        try {
+            backgroundLane.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return highPriorityLane.size() + backgroundLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int highPrioritySize() {
+        lock.lock();
+        try {
+            return highPriorityLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int backgroundSize() {
+        lock.lock();
+        try {
+            return backgroundLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getTakenCount() {
+        return taken.get();
+    }
+
+    public long getAverageWaitMillis() {
+        long n = taken.get();
+        return n > 0 ? totalWaitMillis.get() / n : 0;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return "size: " + size() + " (high priority: " + highPrioritySize() + ")" +
+               ", capacity: " + capacity + ", rejected: " + getRejectedCount() +
+               ", avg wait: " + getAverageWaitMillis() + " ms, max wait: " + getMaxWaitMillis() + " ms";
+    }
+
+    private boolean isEmpty() {
+        return highPriorityLane.isEmpty() && backgroundLane.isEmpty();
+    }
+
+    private void enqueue(IngestTask task) {
+        Entry e = new Entry(task);
+        if(task.isHighPriority()) {
+            highPriorityLane.add(e);
+        } else {
+            backgroundLane.add(e);
+        }
+        notEmpty.signal();
+    }
+
+    private void recordWait(Entry e) {
+        long wait = System.currentTimeMillis() - e.enqueued;
+        taken.incrementAndGet();
+        totalWaitMillis.addAndGet(wait);
+        long max;
+        while(wait > (max = maxWaitMillis.get())) {
+            if(maxWaitMillis.compareAndSet(max, wait)) break;
+        }
+    }
+
+    private static final class Entry {
+        final IngestTask task;
+        final long enqueued;
+
+        Entry(IngestTask task) {
+            this.task = task;
+            this.enqueued = System.currentTimeMillis();
+        }
+    }
+
+}
@@ -6,6 +6,7 @@ public interface Ingester {
     String getCountryCode();
     
     boolean hasNextCategory();
+    String peekNextCategory();
     String getNextCategory();
     boolean allDone();
 
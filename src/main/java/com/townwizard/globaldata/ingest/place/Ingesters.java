@@ -2,10 +2,15 @@ package com.townwizard.globaldata.ingest.place;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
@@ -20,8 +25,9 @@ import com.townwizard.db.configuration.ConfigurationListener;
 import com.townwizard.db.configuration.ConfigurationService;
 import com.townwizard.db.logger.Log;
 import com.townwizard.globaldata.dao.PlaceDao;
+import com.townwizard.globaldata.dao.PlaceIngestCache;
 import com.townwizard.globaldata.model.directory.Ingest;
-import com.townwizard.globaldata.model.directory.PlaceCategory;
+import com.townwizard.globaldata.model.directory.PlaceCategoryCatalog;
 import com.townwizard.globaldata.model.directory.ZipIngest;
 import com.townwizard.globaldata.service.PlaceService;
 
@@ -29,19 +35,25 @@ import com.townwizard.globaldata.service.PlaceService;
 public final class Ingesters implements ConfigurationListener {
 
     private static final int HTTP_TASK_BATCH_SIZE = 10;
+    private static final String DB_THREAD_NAME_PREFIX = "db-loop";
 
     private static ExecutorService ingestersLoop;
     private static ExecutorService dbLoop;
     private static ExecutorService ingestReporter;
     private static boolean stoppedFlag = false;
    
-    private List<Ingester> ingesters = new CopyOnWriteArrayList<>();
-    private List<Ingester> highPriorityIngesters = new CopyOnWriteArrayList<>();
-    private List<Ingester> processedHighPriorityIngesters = new CopyOnWriteArrayList<>();
-    private int currentIngesterIndex;
+    //zip ingesters by (zip, country code), and their round-robin order
+    private ConcurrentMap<IngesterKey, Ingester> ingesters = new ConcurrentHashMap<>();
+    private Queue<Ingester> ingestersRotation = new ConcurrentLinkedQueue<>();
+    //all high priority ingesters in progress by (zip, country code, category or term),
+    //and the ones whose http task has not been submitted yet
+    private ConcurrentMap<IngesterKey, Ingester> highPriorityIngesters = new ConcurrentHashMap<>();
+    private Queue<Ingester> newHighPriorityIngesters = new ConcurrentLinkedQueue<>();
+    private List<DbLoop> dbLoops = new CopyOnWriteArrayList<>();
 
     @Autowired private IngestQueue placeIngestQueue;
     @Autowired private PlaceDao placeDao;
+    @Autowired private PlaceIngestCache placeIngestCache;
     @Autowired private PlaceService placeService;
     @Autowired private IngestHttpExecutors placeIngestHttpExecutors;
     @Autowired private ConfigurationService configurationService;
@@ -52,9 +64,9 @@ public final class Ingesters implements ConfigurationListener {
         ingestersLoop.submit(new IngestersLoop());
         Log.info("Place ingesters loop started");
         
-        dbLoop = Executors.newFixedThreadPool(1, new NamedThreadFactory("db-loop"));
-        dbLoop.submit(new DbLoop());
-        Log.info("Place ingest db loop started");
+        int numDbExecutors = configurationService.getIntValue(ConfigurationKey.PLACE_INGEST_NUM_DB_EXECUTORS);
+        startDbLoops(numDbExecutors);
+        Log.info("Place ingest db loop started with " + numDbExecutors + " threads");
         
         ingestReporter = Executors.newFixedThreadPool(1, new NamedThreadFactory("ingest-reporter"));
         ingestReporter.submit(new IngestReporter());
@@ -73,40 +85,98 @@ public final class Ingesters implements ConfigurationListener {
             Log.info("Starting ingest for zip: " + zipCode);
         }
         
-        List<PlaceCategory> categories = placeService.getAllPlaceCategories();        
-        
-        if(!ingestInProgress(zipCode, countryCode)) {
-            ingesters.add(createIngester(zipCode, countryCode, categories, null));
-        } else {
-            Log.warning("Rejected intester for zip: (" + zipCode + ", " + countryCode + ")");
+        IngesterKey key = new IngesterKey(zipCode, countryCode, null);
+        if(!ingesters.containsKey(key)) {
+            PlaceCategoryCatalog catalog = placeService.getPlaceCategoryCatalog();
+            Ingester ingester = createIngester(zipCode, countryCode, catalog, null);
+            if(ingesters.putIfAbsent(key, ingester) == null) {
+                ingestersRotation.add(ingester);
+                return;
+            }
         }
+        Log.warning("Rejected intester for zip: (" + zipCode + ", " + countryCode + ")");
     }
     
     public void submitHighPriorityIngest(String zipCode, String countryCode, String categoryOrTerm, 
-            List<PlaceCategory> categories) {
-        if(!hightPriorityInProgress(zipCode, countryCode, categoryOrTerm)) {
-            highPriorityIngesters.add(createIngester(zipCode, countryCode, categories, categoryOrTerm));
+            PlaceCategoryCatalog catalog) {
+        IngesterKey key = new IngesterKey(zipCode, countryCode, categoryOrTerm);
+        if(!highPriorityIngesters.containsKey(key)) {
+            Ingester ingester = createIngester(zipCode, countryCode, catalog, categoryOrTerm);
+            if(highPriorityIngesters.putIfAbsent(key, ingester) == null) {
+                newHighPriorityIngesters.add(ingester);
+            }
+        }
+    }
+    
+    /**
+     * Submit a high priority ingest refreshing an expired ingest, unless it is in progress already
+     */
+    public void submitRefreshIngest(String zipCode, String countryCode, String categoryOrTerm) {
+        if(stoppedFlag) return;
+        if(!highPriorityIngesters.containsKey(new IngesterKey(zipCode, countryCode, categoryOrTerm))) {
+            if(Log.isDebugEnabled()) {
+                Log.debug("Refreshing ingest (" + zipCode + ", " + categoryOrTerm + ")");
+            }
+            submitHighPriorityIngest(zipCode, countryCode, categoryOrTerm, placeService.getPlaceCategoryCatalog());
         }
     }
     
     @Override
     public ConfigurationKey[] keysOfInterest() {
-        return new ConfigurationKey[] {ConfigurationKey.PLACE_INGEST_STOPPED};        
+        return new ConfigurationKey[] {
+                ConfigurationKey.PLACE_INGEST_STOPPED,
+                ConfigurationKey.PLACE_INGEST_NUM_DB_EXECUTORS};
     }
 
     @Override
     public void configurationChanged(ConfigurationKey key) {
         if(key == ConfigurationKey.PLACE_INGEST_STOPPED) {
             stoppedFlag = configurationService.getBooleanValue(ConfigurationKey.PLACE_INGEST_STOPPED);
+        } else if(key == ConfigurationKey.PLACE_INGEST_NUM_DB_EXECUTORS) {
+            synchronized (dbLoops) {
+                dbLoop.shutdownNow();
+                try {
+                    if(!dbLoop.awaitTermination(120, TimeUnit.SECONDS)) {
+                        Log.warning("////////////////// Cannot terminate place ingest db loop...");
+                        return;
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                
+                int numDbExecutors = configurationService.getIntValue(key);
+                startDbLoops(numDbExecutors);
+                Log.info("Place ingest db loop pool size changed to: " + numDbExecutors);
+            }
         }
     }     
     
+    /*
+     * Start one db loop thread per DB task shard.
+     */
+    private void startDbLoops(int numDbExecutors) {
+        if(numDbExecutors < 1) numDbExecutors = 1;
+        placeIngestQueue.setNumDbShards(numDbExecutors);
+        dbLoops.clear();
+        dbLoop = Executors.newFixedThreadPool(numDbExecutors, new NamedThreadFactory(DB_THREAD_NAME_PREFIX));
+        for(int shard = 0; shard < numDbExecutors; shard++) {
+            DbLoop loop = new DbLoop(shard);
+            dbLoops.add(loop);
+            dbLoop.submit(loop);
+        }
+    }
+    
+    /*
+     * Take the ingester from the head of the rotation queue, and put it back to the tail.
+     * Ingesters which are no longer in progress are dropped from the rotation.
+     */
     private Ingester getNextIngester() {
-        if(!ingesters.isEmpty()) {
-            if(++currentIngesterIndex >= ingesters.size()) {
-                currentIngesterIndex = 0;
+        Ingester i;
+        while((i = ingestersRotation.poll()) != null) {
+            if(ingesters.get(new IngesterKey(i.getZipCode(), i.getCountryCode(), null)) == i) {
+                ingestersRotation.add(i);
+                return i;
             }
-            return ingesters.get(currentIngesterIndex);
         }
         return null;
     }
@@ -118,27 +188,28 @@ public final class Ingesters implements ConfigurationListener {
                 if(Thread.interrupted()) return;
                 if(stoppedFlag) {                    
                     ingesters.clear();
+                    ingestersRotation.clear();
                     placeIngestQueue.clear();
                 }
                 try {
                     boolean doneSomeWork = false;
-                    if(!highPriorityIngesters.isEmpty()) {
-                        for(Ingester ingester : highPriorityIngesters) {
-                            placeIngestQueue.addHttpTask(
-                                    new IngestTask(ingester.getZipCode(), ingester.getCountryCode(),
-                                            ingester.getNextCategory(), true, null));
-                        }
-                        processedHighPriorityIngesters.addAll(highPriorityIngesters);
-                        highPriorityIngesters.clear();
+                    Ingester newIngester;
+                    while((newIngester = newHighPriorityIngesters.peek()) != null) {
+                        boolean added = placeIngestQueue.addHttpTask(
+                                new IngestTask(newIngester.getZipCode(), newIngester.getCountryCode(),
+                                        newIngester.getNextCategory(), true, null));
+                        //rejected ingesters stay in the queue, and will be resubmitted
+                        if(!added) break;
+                        newHighPriorityIngesters.poll();
                         doneSomeWork = true;
                     }
                     
-                    if(!processedHighPriorityIngesters.isEmpty()) {
-                        for(Ingester ingester : processedHighPriorityIngesters) {
-                            if(ingester.allDone()) {
-                                processedHighPriorityIngesters.remove(ingester);
-                                doneSomeWork = true;
-                            }
+                    for(Ingester ingester : highPriorityIngesters.values()) {
+                        if(ingester.allDone()) {
+                            highPriorityIngesters.remove(
+                                    new IngesterKey(ingester.getZipCode(), ingester.getCountryCode(),
+                                            ingester.getNextCategory()), ingester);
+                            doneSomeWork = true;
                         }
                     }
                     
@@ -148,16 +219,18 @@ public final class Ingesters implements ConfigurationListener {
                             Ingester i = getNextIngester();
                             if(i != null) {
                                 if(i.hasNextCategory()) {
-                                    String next = i.getNextCategory();
-                                    placeIngestQueue.addHttpTask(
-                                            new IngestTask(i.getZipCode(), i.getCountryCode(), next, false, null));
+                                    boolean added = placeIngestQueue.addHttpTask(new IngestTask(
+                                            i.getZipCode(), i.getCountryCode(), i.peekNextCategory(), false, null));
+                                    //a rejected category is not consumed, and will be resubmitted
+                                    if(!added) break;
+                                    i.getNextCategory();
                                     doneSomeWork = true;
                                 }
                             }
                         }
                     }
                     
-                    for(Ingester ingester : ingesters) {
+                    for(Ingester ingester : ingesters.values()) {
                         if(ingester.allDone()) {
                             ZipIngest zipIngest = placeService.getZipIngest(
                                     ingester.getZipCode(), ingester.getCountryCode());
@@ -166,7 +239,9 @@ public final class Ingesters implements ConfigurationListener {
                             placeService.updateZipIngest(zipIngest);
                             Log.info("Finished place ingest for zip: (" + 
                                     ingester.getZipCode() + ", " + ingester.getCountryCode() + ")");
-                            ingesters.remove(ingester);
+                            ingesters.remove(
+                                    new IngesterKey(ingester.getZipCode(), ingester.getCountryCode(), null),
+                                    ingester);
                             doneSomeWork = true;
                         }
                     }
@@ -179,6 +254,9 @@ public final class Ingesters implements ConfigurationListener {
                             return;
                         }                    
                     }
+                } catch (InterruptedException e) {
+                    Log.info("Exiting place ingesters loop...");
+                    return;
                 } catch (Exception e) {
                     Log.exception(e);
                 }
@@ -186,26 +264,40 @@ public final class Ingesters implements ConfigurationListener {
         }
     }
     
+    /*
+     * Processes DB tasks of one shard.  Since tasks are sharded by (zip, country code),
+     * ingesters of one zip are always accessed by the same db loop thread
+     */
     private final class DbLoop implements Runnable {
+        
+        private final int shard;
+        private final AtomicLong tasksDone = new AtomicLong();
+        private final AtomicLong placesDone = new AtomicLong();
+        private final AtomicLong busyMillis = new AtomicLong();
+        
+        DbLoop(int shard) {
+            this.shard = shard;
+        }
+        
         @Override
         public void run() {
             while(true) {
                 if(Thread.interrupted()) return;
                 try {
-                    IngestTask task = placeIngestQueue.getDbTask();
+                    IngestTask task = placeIngestQueue.takeDbTask(shard, 500, TimeUnit.MILLISECONDS);
                     if(task != null) {                        
                         Ingester ingester = findIngester(task);
                         if(ingester != null) {
+                            long start = System.currentTimeMillis();
                             ingester.ingest(task);
-                        }
-                    } else {
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException ie) {
-                            Log.info("Exiting place db loop...");
-                            return;
+                            busyMillis.addAndGet(System.currentTimeMillis() - start);
+                            tasksDone.incrementAndGet();
+                            placesDone.addAndGet(task.getPlaces().size());
                         }
                     }
+                } catch (InterruptedException ie) {
+                    Log.info("Exiting place db loop...");
+                    return;
                 } catch (Exception e) {
                     Log.exception(e);
                 }
@@ -224,7 +316,7 @@ public final class Ingesters implements ConfigurationListener {
                         sb.append("\n---------------------------------\n");
                         sb.append("|   Zip   |   Done   |   Left   |\n");
                         sb.append("---------------------------------\n");
-                        for(Ingester i : ingesters) {
+                        for(Ingester i : ingesters.values()) {
                             int done = i.done();
                             sb.append("|")
                               .append(String.format("%7s", i.getZipCode())).append("  | ")
@@ -236,6 +328,25 @@ public final class Ingesters implements ConfigurationListener {
                         Log.log(Level.FINE, getClass(), null, sb.toString());
                     }
                     
+                    if(Log.isInfoEnabled()) {
+                        StringBuilder sb = new StringBuilder();
+                        for(DbLoop loop : dbLoops) {
+                            long tasks = loop.tasksDone.getAndSet(0);
+                            long places = loop.placesDone.getAndSet(0);
+                            long busy = loop.busyMillis.getAndSet(0);
+                            if(tasks > 0) {
+                                sb.append("\nDb shard ").append(loop.shard).append(": ")
+                                  .append(tasks).append(" tasks, ")
+                                  .append(places).append(" places, ")
+                                  .append(busy).append(" ms busy, ")
+                                  .append(busy > 0 ? places * 1000 / busy : 0).append(" places/sec");
+                            }
+                        }
+                        if(sb.length() > 0) {
+                            Log.info("Place ingest db throughput for the last minute:" + sb.toString());
+                        }
+                    }
+                    
                     try {
                         Thread.sleep(60000);
                     } catch (InterruptedException ie) {
@@ -286,46 +397,56 @@ public final class Ingesters implements ConfigurationListener {
     }
     
     private Ingester findIngester(IngestTask task) {
-        Ingester result = null;
         if(task.isHighPriority()) {
-            for(Ingester i : highPriorityIngesters) {
-                if(i.getZipCode().equals(task.getZipCode()) && 
-                   i.getCountryCode().equals(task.getCountryCode()) &&
-                   i.getNextCategory().equals(task.getCategory())) {
-                    result = i;
-                    break;
-                }
-            }            
-            for(Ingester i : processedHighPriorityIngesters) {
-                if(i.getZipCode().equals(task.getZipCode()) && 
-                   i.getCountryCode().equals(task.getCountryCode()) &&
-                   i.getNextCategory().equals(task.getCategory())) {
-                    result = i;
-                    break;
-                }
-            }
-        } else {
-            for(Ingester i : ingesters) {
-                if(i.getZipCode().equals(task.getZipCode()) &&
-                   i.getCountryCode().equals(task.getCountryCode())) {
-                    result = i;
-                    break;
-                }
-            }
+            return highPriorityIngesters.get(
+                    new IngesterKey(task.getZipCode(), task.getCountryCode(), task.getCategory()));
         }
-        return result;
+        return ingesters.get(new IngesterKey(task.getZipCode(), task.getCountryCode(), null));
     }
     
-    private boolean ingestInProgress(String zipCode, String countryCode) {
-        return findIngester(new IngestTask(zipCode, countryCode, null, false, null)) != null;
+    private Ingester createIngester(String zipCode, String countryCode, PlaceCategoryCatalog catalog,
+            String categoryOrTerm) {
+        return new JdbcIngester(zipCode, countryCode, catalog, categoryOrTerm, placeDao, placeIngestCache,
+                placeService, configurationService.getIntValue(ConfigurationKey.PLACE_INGEST_DB_BATCH_SIZE));
     }
     
-    private boolean hightPriorityInProgress(String zipCode, String countryCode, String categoryOrTerm) {
-        return findIngester(new IngestTask(zipCode, countryCode, categoryOrTerm, true, null)) != null;
-    }    
-    
-    private Ingester createIngester(String zipCode, String countryCode, List<PlaceCategory> categories,
-            String categoryOrTerm) {
-        return new JdbcIngester(zipCode, countryCode, categories, categoryOrTerm, placeDao);
+    /*
+     * Ingester index key: (zip, country code) for zip ingesters, and
+     * (zip, country code, category or term) for high priority ingesters
+     */
+    private static final class IngesterKey {
+        private final String zipCode;
+        private final String countryCode;
+        private final String categoryOrTerm;
+        
+        IngesterKey(String zipCode, String countryCode, String categoryOrTerm) {
+            this.zipCode = zipCode;
+            this.countryCode = countryCode;
+            this.categoryOrTerm = categoryOrTerm;
+        }
+        
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((categoryOrTerm == null) ? 0 : categoryOrTerm.hashCode());
+            result = prime * result + ((countryCode == null) ? 0 : countryCode.hashCode());
+            result = prime * result + ((zipCode == null) ? 0 : zipCode.hashCode());
+            return result;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            IngesterKey other = (IngesterKey) obj;
+            return equal(zipCode, other.zipCode) && 
+                   equal(countryCode, other.countryCode) &&
+                   equal(categoryOrTerm, other.categoryOrTerm);
+        }
+        
+        private static boolean equal(String s1, String s2) {
+            return (s1 == null) ? s2 == null : s1.equals(s2);
+        }
     }
 }
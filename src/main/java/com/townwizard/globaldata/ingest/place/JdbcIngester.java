@@ -2,188 +2,289 @@ package com.townwizard.globaldata.ingest.place;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.hibernate.Session;
+import org.hibernate.Transaction;
 
 import com.townwizard.db.dao.AbstractDao;
 import com.townwizard.db.dao.AbstractDaoHibernateImpl;
 import com.townwizard.db.logger.Log;
+import com.townwizard.db.util.CollectionUtils;
+import com.townwizard.globaldata.dao.PlaceIngestCache;
 import com.townwizard.globaldata.model.directory.Ingest;
 import com.townwizard.globaldata.model.directory.Place;
 import com.townwizard.globaldata.model.directory.PlaceCategory;
+import com.townwizard.globaldata.model.directory.PlaceCategoryCatalog;
 import com.townwizard.globaldata.model.directory.PlaceIngest;
+import com.townwizard.globaldata.service.PlaceService;
 
+/**
+ * Ingester which writes places with plain SQL.
+ *
+ * Rows are written with multi-row INSERT statements of at most batchSize rows each, and
+ * location, ingest, and category ids are resolved in bulk once per ingest task,
+ * so one task costs a handful of statements rather than one statement per place.
+ *
+ * When a ready ingest is re-ingested (refreshed), the new places are written to a new ingest
+ * with no zip, which is not visible to readers, and the stale ingest is served until the new one is ready.
+ * Then the stale ingest is expired and the new one takes its place in one transaction.
+ *
+ * Places are merged, their ids resolved, and linked to the ingest in one transaction, which keeps
+ * the places locked until they are linked.  This way the ingest purger, which locks places
+ * before it deletes the ones no ingest links, never deletes a place between its id resolution and linking.
+ */
 public class JdbcIngester extends AbstractIngester {
     
     private static final DateFormat MYSQL_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
     private AbstractDao dao;
+    private PlaceIngestCache placeIngestCache;
+    private PlaceService placeService;
     private Session session;
+    private int batchSize;
     
-    public JdbcIngester(String zipCode, String countryCode, List<PlaceCategory> categories, 
-            String categoryOrTerm, AbstractDao dao) {
-        super(zipCode, countryCode, categories, categoryOrTerm);
+    //ids resolved for the task currently being ingested
+    private Long ingestId;
+    private Long staleIngestId;
+    private Map<String, Long> locationIds;
+    private Transaction placesTransaction;
+
+    public JdbcIngester(String zipCode, String countryCode, PlaceCategoryCatalog catalog,
+            String categoryOrTerm, AbstractDao dao, PlaceIngestCache placeIngestCache,
+            PlaceService placeService, int batchSize) {
+        super(zipCode, countryCode, catalog, categoryOrTerm);
         this.dao = dao;
+        this.placeIngestCache = placeIngestCache;
+        this.placeService = placeService;
+        this.batchSize = batchSize > 0 ? batchSize : 1;
     }
-
+    
+    @Override
+    protected PlaceCategoryCatalog getCatalog() {
+        return placeService.getPlaceCategoryCatalog();
+    }
+    
     @Override
     protected void markIngestInProgress(PlaceIngest ingest) {
-        String now = MYSQL_DATE_FORMAT.format(new Date());
+        String now = formatNow();
 
-        //INSERT INTO Ingest (created, status, zip, country_code, category_id) 
-        //VALUES ('2013-05-07 17:26:20', 'I', '10001', 'US', 1)
-        //ON DUPLICATE KEY UPDATE id = id
-        
-        boolean hasCategory = ingest.getPlaceCategory() != null;
-        StringBuilder sb = new StringBuilder();
-        if(hasCategory) {
-            sb.append("INSERT INTO Ingest (created, status, zip, country_code, category_id) ");
-        } else {
-            sb.append("INSERT INTO Ingest (created, status, zip, country_code, term) ");
-        }
-        sb.append("VALUES (");
-        appendString(sb, now).append(", ");
-        appendString(sb, Ingest.Status.I.toString()).append(", ");
-        appendString(sb, ingest.getZip()).append(", ");
-        appendString(sb, ingest.getCountryCode()).append(", ");
-        if(hasCategory) {
-            sb.append(ingest.getPlaceCategory().getId());
-        } else {
-            appendEscapedString(sb, ingest.getTerm());
+        //SELECT id, status FROM Ingest WHERE zip = '10001' AND country_code = 'US' AND category_id = 1
+
+        StringBuilder sb = new StringBuilder("SELECT id, status FROM Ingest WHERE ");
+        appendIngestCondition(sb, ingest);
+        Object[] existing = (Object[])session.createSQLQuery(sb.toString()).uniqueResult();
+        if(existing != null && Ingest.Status.R.toString().equals(String.valueOf(existing[1]))) {
+            //refresh: the new ingest has no zip until it replaces the stale one
+            staleIngestId = ((Number)existing[0]).longValue();
+            executeSQL(insertIngestSQL(ingest, null, now, false));
+            Object id = session.createSQLQuery("SELECT LAST_INSERT_ID()").uniqueResult();
+            ingestId = (id != null) ? ((Number)id).longValue() : null;
+            return;
         }
-        sb.append(") ");
-        sb.append("ON DUPLICATE KEY UPDATE id = id");
-        executeSQL(sb.toString());        
+
+        executeSQL(insertIngestSQL(ingest, ingest.getZip(), now, true));
+
+        //SELECT id FROM Ingest WHERE zip = '10001' AND country_code = 'US' AND category_id = 1
+
+        sb = new StringBuilder("SELECT id FROM Ingest WHERE ");
+        appendIngestCondition(sb, ingest);
+        Object id = session.createSQLQuery(sb.toString()).uniqueResult();
+        ingestId = (id != null) ? ((Number)id).longValue() : null;
     }
     
     @Override
     protected void mergePlaces(Collection<Place> places) {
-        String now = MYSQL_DATE_FORMAT.format(new Date());
-        
+        String now = formatNow();
+
         //INSERT INTO Location (created, external_id, name, category, street, city, state, zip, country_code, phone, latitude, longitude, url, source) 
-        //VALUES ('2013-05-07 17:26:20', '12345', 'Mike''s Pizza', 'Italian Restaurants', '123 Main Street', 'Maraphon', '12345', 'US', '(456) 111-2222'), 40.715874, -73.99052, 'http://mikspizza', 1) 
+        //VALUES ('2013-05-07 17:26:20', '12345', 'Mike''s Pizza', 'Italian Restaurants', '123 Main Street', 'Maraphon', '12345', 'US', '(456) 111-2222'), 40.715874, -73.99052, 'http://mikspizza', 1),
+        //       (...), (...)
         //ON DUPLICATE KEY UPDATE id = id
         
-        for(Place p : places) {
+        //committed by mapPlacesToIngest(); places are locked in the same order by all ingesters
+        placesTransaction = session.beginTransaction();
+        List<Place> sortedPlaces = new ArrayList<>(places);
+        Collections.sort(sortedPlaces, new Place.SourceAndExternalIdComparator());
+        for(List<Place> batch : CollectionUtils.partition(sortedPlaces, batchSize)) {
             StringBuilder sb = new StringBuilder();
             sb.append("INSERT INTO Location ");
             sb.append("(created, external_id, name, category, street, city, state, zip, country_code, phone, latitude, longitude, url, source) ");
-            sb.append("VALUES (");
-            appendString(sb, now).append(", ");
-            appendString(sb, p.getExternalId()).append(", ");
-            appendEscapedString(sb, p.getName()).append(", ");
-            appendEscapedString(sb, p.getCategory()).append(", ");
-            appendEscapedString(sb, p.getStreet()).append(", ");
-            appendEscapedString(sb, p.getCity()).append(", ");
-            appendString(sb, p.getState()).append(", ");
-            appendString(sb, p.getZip()).append(", ");            
-            appendString(sb, p.getCountryCode()).append(", ");
-            appendString(sb, p.getPhone()).append(", ");
-            sb.append(p.getLatitude()).append(", ");
-            sb.append(p.getLongitude()).append(", ");
-            appendString(sb, p.getUrl()).append(", ");
-            sb.append(p.getSource().getId());
-            sb.append(") ");
-            sb.append("ON DUPLICATE KEY UPDATE id = id");
+            sb.append("VALUES ");
+            boolean first = true;
+            for(Place p : batch) {
+                if(!first) sb.append(", ");
+                first = false;
+                sb.append("(");
+                appendString(sb, now).append(", ");
+                appendString(sb, p.getExternalId()).append(", ");
+                appendEscapedString(sb, p.getName()).append(", ");
+                appendEscapedString(sb, p.getCategory()).append(", ");
+                appendEscapedString(sb, p.getStreet()).append(", ");
+                appendEscapedString(sb, p.getCity()).append(", ");
+                appendString(sb, p.getState()).append(", ");
+                appendString(sb, p.getZip()).append(", ");
+                appendString(sb, p.getCountryCode()).append(", ");
+                appendString(sb, p.getPhone()).append(", ");
+                sb.append(p.getLatitude()).append(", ");
+                sb.append(p.getLongitude()).append(", ");
+                appendString(sb, p.getUrl()).append(", ");
+                sb.append(p.getSource().getId());
+                sb.append(")");
+            }
+            sb.append(" ON DUPLICATE KEY UPDATE id = id");
             executeSQL(sb.toString());
         }
+
+        locationIds = loadLocationIds(places);
     }
     
     @Override
     protected void mapPlacesToIngest(PlaceIngest ingest) {
         //INSERT INTO Location_Ingest (location_id, ingest_id)
-        //VALUES (
-        //  (SELECT id FROM Location WHERE external_id = '123456' AND source = 1),
-        //  (SELECT id FROM Ingest WHERE zip = 'zip' AND country_code = 'US' AND category_id = 1))
+        //VALUES (101, 5), (102, 5), (103, 5)
         //ON DUPLICATE KEY UPDATE id = id
-        
-        boolean hasCategory = ingest.getPlaceCategory() != null;
-        
+
+        if(ingestId == null) {
+            Log.warning("Cannot find ingest id for " + ingest);
+            commitPlacesTransaction();
+            return;
+        }
+
+        List<Long> placeIds = new ArrayList<>(ingest.getPlaces().size());
         for(Place p : ingest.getPlaces()) {
+            Long locationId = locationIds.get(locationKey(p));
+            if(locationId != null) placeIds.add(locationId);
+        }
+
+        for(List<Long> batch : CollectionUtils.partition(placeIds, batchSize)) {
             StringBuilder sb = new StringBuilder();
             sb.append("INSERT INTO Location_Ingest (location_id, ingest_id) ");
-            sb.append("VALUES (");
-            sb.append("(SELECT id FROM Location WHERE external_id = ");
-            appendString(sb, p.getExternalId()).append(" AND source = ").append(p.getSource().getId()).append("), ");
-            sb.append("(SELECT id FROM Ingest WHERE zip = ");
-            appendString(sb, ingest.getZip()).append(" AND country_code = ");
-            appendString(sb, ingest.getCountryCode());
-            if(hasCategory) {
-                sb.append(" AND category_id = ").append(ingest.getPlaceCategory().getId()).append(")");
-            } else {
-                sb.append(" AND term = ");
-                appendEscapedString(sb, ingest.getTerm()).append(")");
+            sb.append("VALUES ");
+            boolean first = true;
+            for(Long locationId : batch) {
+                if(!first) sb.append(", ");
+                first = false;
+                sb.append("(").append(locationId).append(", ").append(ingestId).append(")");
             }
-            sb.append(") ");
-            sb.append("ON DUPLICATE KEY UPDATE id = id");
+            sb.append(" ON DUPLICATE KEY UPDATE id = id");
             executeSQL(sb.toString());
         }
+        commitPlacesTransaction();
     }
     
     @Override
     protected void addNewCategories(Set<String> newCategoryNames) {
-        //INSERT INTO Category (name) VALUES ('pizza') ON DUPLICATE KEY UPDATE id = id
-        
-        for(String name : newCategoryNames) {
+        //INSERT INTO Category (name) VALUES ('pizza'), ('bakery') ON DUPLICATE KEY UPDATE id = id
+
+        for(List<String> batch : CollectionUtils.partition(new ArrayList<>(newCategoryNames), batchSize)) {
             StringBuilder sb = new StringBuilder();
             sb.append("INSERT INTO Category (name) ");
-            sb.append("VALUES (");
-            appendEscapedString(sb, name);
-            sb.append(") ");
-            sb.append("ON DUPLICATE KEY UPDATE id = id");
+            sb.append("VALUES ");
+            boolean first = true;
+            for(String name : batch) {
+                if(!first) sb.append(", ");
+                first = false;
+                sb.append("(");
+                appendEscapedString(sb, name);
+                sb.append(")");
+            }
+            sb.append(" ON DUPLICATE KEY UPDATE id = id");
             executeSQL(sb.toString());
         }
+
+        //the categories are added to the shared catalog, so later ingests don't treat them as new
+        placeService.addPlaceCategories(loadCategories(newCategoryNames));
     }
     
     @Override
     protected void mapPlacesToCategories(Map<String, Set<Place>> categoryToPlaces) {
         //INSERT INTO Location_Category (location_id, category_id)
-        //VALUES ((SELECT id FROM Location WHERE external_id = '123456' AND source = 1), 
-        //        (SELECT id FROM Category WHERE name = 'Pizza'))
-        //ON DUPLICATE KEY UPDATE category_id = 1
-        
+        //VALUES (101, 1), (101, 7), (102, 1)
+        //ON DUPLICATE KEY UPDATE id = id
+
+        Map<String, Long> categoryIds = loadCategoryIds(categoryToPlaces.keySet());
+
+        List<long[]> pairs = new ArrayList<>();
         for(Map.Entry<String, Set<Place>> e : categoryToPlaces.entrySet()) {
-            String c = e.getKey();
+            Long categoryId = categoryIds.get(e.getKey().toLowerCase());
+            if(categoryId == null) {
+                Log.warning("Cannot find category id for category '" + e.getKey() + "'");
+                continue;
+            }
             for(Place p : e.getValue()) {
-                StringBuilder sb = new StringBuilder();
-                sb.append("INSERT INTO Location_Category (location_id, category_id) ");
-                sb.append("VALUES (");
-                sb.append("(SELECT id FROM Location WHERE external_id = ");
-                appendString(sb, p.getExternalId()).append(" AND source = ").append(p.getSource().getId()).append("), ");
-                sb.append("(SELECT id FROM Category WHERE name = ");
-                appendEscapedString(sb, c).append(")");
-                sb.append(") ");
-                sb.append("ON DUPLICATE KEY UPDATE id = id");
-                executeSQL(sb.toString());
+                Long locationId = locationIds.get(locationKey(p));
+                if(locationId != null) {
+                    pairs.add(new long[] {locationId, categoryId});
+                }
+            }
+        }
+
+        for(List<long[]> batch : CollectionUtils.partition(pairs, batchSize)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("INSERT INTO Location_Category (location_id, category_id) ");
+            sb.append("VALUES ");
+            boolean first = true;
+            for(long[] pair : batch) {
+                if(!first) sb.append(", ");
+                first = false;
+                sb.append("(").append(pair[0]).append(", ").append(pair[1]).append(")");
             }
+            sb.append(" ON DUPLICATE KEY UPDATE id = id");
+            executeSQL(sb.toString());
         }
     }
     
     @Override
     protected void markIngestReady(PlaceIngest ingest) {
-        //UPDATE Ingest WHERE zip = '11223' AND country_code = 'US' AND category_id = 1 SET status = 'R'
-        
-        boolean hasCategory = ingest.getPlaceCategory() != null;
-        
-        StringBuilder sb = new StringBuilder();
-        sb.append("UPDATE Ingest SET status = ");
-        appendString(sb, Ingest.Status.R.toString());
-        sb.append(" WHERE zip = ");
-        appendString(sb, ingest.getZip()).append(" AND country_code = ");
-        appendString(sb, ingest.getCountryCode());
+        if(staleIngestId != null && ingestId != null) {
+            //UPDATE Ingest SET status = 'E', zip = NULL WHERE id = 5
+            //UPDATE Ingest SET status = 'R', zip = '11223' WHERE id = 7 AND status = 'I'
 
-        if(hasCategory) {
-            sb.append(" AND category_id = ").append(ingest.getPlaceCategory().getId());
+            StringBuilder expire = new StringBuilder("UPDATE Ingest SET status = ");
+            appendString(expire, Ingest.Status.E.toString());
+            expire.append(", zip = NULL WHERE id = ").append(staleIngestId);
+
+            StringBuilder ready = new StringBuilder("UPDATE Ingest SET status = ");
+            appendString(ready, Ingest.Status.R.toString());
+            ready.append(", zip = ");
+            appendString(ready, ingest.getZip());
+            ready.append(" WHERE id = ").append(ingestId).append(" AND status = ");
+            appendString(ready, Ingest.Status.I.toString());
+
+            Transaction tx = session.beginTransaction();
+            try {
+                executeSQL(expire.toString());
+                if(executeSQL(ready.toString()) == 0) {
+                    //the new ingest was taken for abandoned and expired by the purger
+                    throw new IllegalStateException("Refresh ingest " + ingestId + " is no longer in progress");
+                }
+                tx.commit();
+            } catch (RuntimeException e) {
+                tx.rollback();
+                throw e;
+            }
+            staleIngestId = null;
         } else {
-            sb.append(" AND term = ");
-            appendEscapedString(sb, ingest.getTerm());
+            //UPDATE Ingest WHERE zip = '11223' AND country_code = 'US' AND category_id = 1 SET status = 'R'
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("UPDATE Ingest SET status = ");
+            appendString(sb, Ingest.Status.R.toString());
+            sb.append(" WHERE ");
+            appendIngestCondition(sb, ingest);
+            executeSQL(sb.toString());
         }
-        executeSQL(sb.toString());
+
+        placeIngestCache.invalidate(ingest.getZip(), ingest.getCountryCode(),
+                ingest.getPlaceCategory() != null ? ingest.getPlaceCategory().getName() : ingest.getTerm());
     }
     
     @Override
@@ -191,19 +292,202 @@ public class JdbcIngester extends AbstractIngester {
         if(session == null || !session.isOpen()) {
             session = ((AbstractDaoHibernateImpl)dao).getSessionFactory().openSession();
         }
+        ingestId = null;
+        staleIngestId = null;
+        locationIds = new HashMap<>();
+        placesTransaction = null;
     }
     
     @Override
     protected void afterIngest() {
+        rollbackPlacesTransaction();
         if(session != null) {
             session.close();
         }
+        locationIds = null;
     }
     
     @Override
     protected void onError(Exception e, IngestTask task) {
         Log.error("Error processing ingest for (" + 
                 task.getZipCode() + ", " + task.getCategory() + ") :" + e.getMessage());
+        rollbackPlacesTransaction();
+
+        //a failed refresh leaves the stale ingest in place, and the new one is purged
+        if(staleIngestId != null && ingestId != null) {
+            try {
+                StringBuilder sb = new StringBuilder("UPDATE Ingest SET status = ");
+                appendString(sb, Ingest.Status.E.toString());
+                sb.append(" WHERE id = ").append(ingestId);
+                executeSQL(sb.toString());
+            } catch (Exception ex) {
+                Log.exception(ex);
+            }
+        }
+    }
+
+    private void commitPlacesTransaction() {
+        if(placesTransaction != null) {
+            placesTransaction.commit();
+            placesTransaction = null;
+        }
+    }
+    
+    private void rollbackPlacesTransaction() {
+        if(placesTransaction != null) {
+            try {
+                placesTransaction.rollback();
+            } catch (Exception e) {
+                Log.exception(e);
+            }
+            placesTransaction = null;
+        }
+    }
+
+    /*
+     * Bring ids of the given places from the DB, grouped by source, in batches, and lock the places
+     * until the places transaction ends.
+     * The resulting map keys are built by locationKey()
+     */
+    private Map<String, Long> loadLocationIds(Collection<Place> places) {
+        //SELECT id, external_id, source FROM Location WHERE source = 1 AND external_id IN ('123', '456') FOR UPDATE
+
+        Map<Integer, List<String>> sourceToExternalIds = new HashMap<>();
+        for(Place p : places) {
+            Integer source = p.getSource().getId();
+            List<String> externalIds = sourceToExternalIds.get(source);
+            if(externalIds == null) {
+                externalIds = new ArrayList<>();
+                sourceToExternalIds.put(source, externalIds);
+            }
+            externalIds.add(p.getExternalId());
+        }
+
+        Map<String, Long> result = new HashMap<>();
+        for(Map.Entry<Integer, List<String>> e : sourceToExternalIds.entrySet()) {
+            for(List<String> batch : CollectionUtils.partition(e.getValue(), batchSize)) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("SELECT id, external_id, source FROM Location WHERE source = ").append(e.getKey());
+                sb.append(" AND external_id IN (");
+                boolean first = true;
+                for(String externalId : batch) {
+                    if(!first) sb.append(", ");
+                    first = false;
+                    appendString(sb, externalId);
+                }
+                sb.append(") FOR UPDATE");
+
+                @SuppressWarnings("unchecked")
+                List<Object[]> rows = session.createSQLQuery(sb.toString()).list();
+                for(Object[] row : rows) {
+                    result.put(locationKey(((Number)row[2]).intValue(), (String)row[1]),
+                            ((Number)row[0]).longValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Bring category ids by category names from the DB in batches.
+     * Since category names are compared case insensitively by MySQL, the resulting map
+     * is keyed by lower case category names
+     */
+    private Map<String, Long> loadCategoryIds(Collection<String> categoryNames) {
+        Map<String, Long> result = new HashMap<>();
+        for(PlaceCategory c : loadCategories(categoryNames)) {
+            result.put(c.getName().toLowerCase(), c.getId());
+        }
+        return result;
+    }
+
+    /*
+     * Bring categories (ids and names, as they are in the DB) by category names from the DB in batches
+     */
+    private List<PlaceCategory> loadCategories(Collection<String> categoryNames) {
+        //SELECT id, name FROM Category WHERE name IN ('Pizza', 'Bakery')
+
+        List<PlaceCategory> result = new ArrayList<>(categoryNames.size());
+        for(List<String> batch : CollectionUtils.partition(new ArrayList<>(categoryNames), batchSize)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("SELECT id, name FROM Category WHERE name IN (");
+            boolean first = true;
+            for(String name : batch) {
+                if(!first) sb.append(", ");
+                first = false;
+                appendEscapedString(sb, name);
+            }
+            sb.append(")");
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = session.createSQLQuery(sb.toString()).list();
+            for(Object[] row : rows) {
+                PlaceCategory c = new PlaceCategory();
+                c.setId(((Number)row[0]).longValue());
+                c.setName((String)row[1]);
+                result.add(c);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * INSERT INTO Ingest (created, status, zip, country_code, category_id)
+     * VALUES ('2013-05-07 17:26:20', 'I', '10001', 'US', 1)
+     * ON DUPLICATE KEY UPDATE id = id
+     */
+    private String insertIngestSQL(PlaceIngest ingest, String zip, String now, boolean onDuplicateKey) {
+        boolean hasCategory = ingest.getPlaceCategory() != null;
+        StringBuilder sb = new StringBuilder();
+        if(hasCategory) {
+            sb.append("INSERT INTO Ingest (created, status, zip, country_code, category_id) ");
+        } else {
+            sb.append("INSERT INTO Ingest (created, status, zip, country_code, term) ");
+        }
+        sb.append("VALUES (");
+        appendString(sb, now).append(", ");
+        appendString(sb, Ingest.Status.I.toString()).append(", ");
+        if(zip != null) {
+            appendString(sb, zip).append(", ");
+        } else {
+            sb.append("NULL, ");
+        }
+        appendString(sb, ingest.getCountryCode()).append(", ");
+        if(hasCategory) {
+            sb.append(ingest.getPlaceCategory().getId());
+        } else {
+            appendEscapedString(sb, ingest.getTerm());
+        }
+        sb.append(")");
+        if(onDuplicateKey) sb.append(" ON DUPLICATE KEY UPDATE id = id");
+        return sb.toString();
+    }
+    
+    private StringBuilder appendIngestCondition(StringBuilder sb, PlaceIngest ingest) {
+        sb.append("zip = ");
+        appendString(sb, ingest.getZip()).append(" AND country_code = ");
+        appendString(sb, ingest.getCountryCode());
+        if(ingest.getPlaceCategory() != null) {
+            sb.append(" AND category_id = ").append(ingest.getPlaceCategory().getId());
+        } else {
+            sb.append(" AND term = ");
+            appendEscapedString(sb, ingest.getTerm());
+        }
+        return sb;
+    }
+    
+    private String locationKey(Place p) {
+        return locationKey(p.getSource().getId(), p.getExternalId());
+    }
+    
+    private String locationKey(int source, String externalId) {
+        return source + ":" + externalId;
+    }
+    
+    private String formatNow() {
+        synchronized (MYSQL_DATE_FORMAT) {
+            return MYSQL_DATE_FORMAT.format(new Date());
+        }
     }
     
     private StringBuilder appendString(StringBuilder sb, String s) {
@@ -217,9 +501,9 @@ public class JdbcIngester extends AbstractIngester {
         return sb;
     }
     
-    private void executeSQL(String sql) {
+    private int executeSQL(String sql) {
         try {
-            session.createSQLQuery(sql).executeUpdate();
+            return session.createSQLQuery(sql).executeUpdate();
         } catch (Exception e) {
             Log.error("Error executing SQL:\n" + sql);
             throw e;
@@ -171,4 +171,33 @@ public class Event implements DistanceComparable {
         this.endDate = endDate;
     }
     
+    /**
+     * Create a copy of the event.  The copy shares the start and end dates with this event.
+     */
+    public Event copy() {
+        Event c = new Event();
+        c.id = id;
+        c.name = name;
+        c.location = location;
+        c.description = description;
+        c.street = street;
+        c.city = city;
+        c.state = state;
+        c.country = country;
+        c.zip = zip;
+        c.locationId = locationId;
+        c.picture = picture;
+        c.privacy = privacy;
+        c.latitude = latitude;
+        c.longitude = longitude;
+        c.distance = distance;
+        c.distanceInMiles = distanceInMiles;
+        c.startTime = startTime;
+        c.endTime = endTime;
+        c.link = link;
+        c.startDate = startDate;
+        c.endDate = endDate;
+        return c;
+    }
+    
 }
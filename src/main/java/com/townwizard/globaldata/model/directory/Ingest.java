@@ -11,7 +11,7 @@ import javax.persistence.MappedSuperclass;
 public abstract class Ingest {
     
     public static enum Status {
-        N, I, R; // New, In progress, Ready
+        N, I, R, E; // New, In progress, Ready, Expired (to be purged)
     }
     
     @Id @GeneratedValue @Column(nullable = false, updatable = false)
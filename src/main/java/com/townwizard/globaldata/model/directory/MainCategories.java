@@ -0,0 +1,67 @@
+package com.townwizard.globaldata.model.directory;
+
+import java.util.Collection;
+
+import com.townwizard.db.constants.Constants;
+
+/**
+ * Classification of place categories and places into main categories (restaurants and directory).
+ *
+ * Main categories are bits of a bitmask.  A category is classified once by its name, and the main
+ * categories of a place are combined from its categories, so filtering by main category is a bitwise test.
+ */
+public final class MainCategories {
+
+    public static final int RESTAURANTS = 1;
+    public static final int DIRECTORY = 2;
+
+    /**
+     * Comma separated strings; a category whose name contains any of them is a restaurant category
+     */
+    public static final String RESTAURANTS_CATEGORIES = "restaurants";
+
+    private static final String[] RESTAURANTS_CATEGORY_STRINGS = RESTAURANTS_CATEGORIES.split(",");
+
+    private MainCategories() {}
+
+    /**
+     * Get the main category bit by the main category name (Constants.RESTAURANTS or Constants.DIRECTORY),
+     * or 0 if the name is not a main category name
+     */
+    public static int forName(String mainCategory) {
+        if(Constants.RESTAURANTS.equals(mainCategory)) return RESTAURANTS;
+        if(Constants.DIRECTORY.equals(mainCategory)) return DIRECTORY;
+        return 0;
+    }
+
+    /**
+     * Classify a place category by its name.  A category is either a restaurant or a directory category.
+     */
+    public static int classify(String categoryName) {
+        if(categoryName != null) {
+            String name = categoryName.toLowerCase();
+            for(String s : RESTAURANTS_CATEGORY_STRINGS) {
+                if(name.contains(s.trim())) return RESTAURANTS;
+            }
+        }
+        return DIRECTORY;
+    }
+
+    /**
+     * Classify a place by its category names
+     */
+    public static int classify(Collection<String> categoryNames) {
+        int mask = 0;
+        for(String name : categoryNames) mask |= classify(name);
+        return combine(mask);
+    }
+
+    /**
+     * Get the main categories of a place from the combined main categories of its categories:
+     * a place is a restaurant if any of its categories is, and belongs to directory otherwise
+     */
+    public static int combine(int categoriesMask) {
+        return (categoriesMask & RESTAURANTS) != 0 ? RESTAURANTS : DIRECTORY;
+    }
+
+}
@@ -81,6 +81,8 @@ public class Place implements DistanceComparable {
     private Integer distance;          //calculated on our side on the fly, and not saved in the DB
     @Transient
     private Double distanceInMiles;    //calculated on our side on the fly, and not saved in the DB
+    @JsonIgnore @Transient
+    private int mainCategories;        //bitmask of MainCategories, calculated from categories on demand
     
     public Long getId() {
         return id;
@@ -111,6 +113,7 @@ public class Place implements DistanceComparable {
     }
     public void setCategory(String category) {
         this.category = category;
+        mainCategories = 0;
     }
     public String getZip() {
         return zip;
@@ -171,12 +174,14 @@ public class Place implements DistanceComparable {
     }
     public void setCategoriesStr(String categoriesStr) {
         this.categoriesStr = categoriesStr;
+        mainCategories = 0;
     }
     public Set<PlaceCategory> getCategories() {
         return categories;
     }
     public void setCategories(Set<PlaceCategory> categories) {
         this.categories = categories;
+        mainCategories = 0;
     }
     public Set<PlaceIngest> getIngests() {
         return ingests;
@@ -233,6 +238,24 @@ public class Place implements DistanceComparable {
         return result;
     }
     
+    /**
+     * Get main categories (bitmask of MainCategories bits) of the place.  They are combined from
+     * the categories of the place, or, if categories are not set, from the category names.
+     */
+    @JsonIgnore
+    public int getMainCategories() {
+        if(mainCategories == 0) {
+            if(categories != null) {
+                int mask = 0;
+                for(PlaceCategory c : categories) mask |= c.getMainCategories();
+                mainCategories = MainCategories.combine(mask);
+            } else {
+                mainCategories = MainCategories.classify(extractCategoryNames());
+            }
+        }
+        return mainCategories;
+    }
+    
     /**
      * Convenience method to add location category to the location, which will set both sides of
      * the Location <-> LocationCategory relationships
@@ -243,6 +266,7 @@ public class Place implements DistanceComparable {
         }
         categories.add(c);
         c.addPlace(this);
+        mainCategories = 0;
     }
 
     /**
@@ -255,8 +279,37 @@ public class Place implements DistanceComparable {
         }
         ingests.add(i);
         i.addPlace(this);
-    }    
-    
+    }
+
+    /**
+     * Create a copy of the place which is not attached to any ingest.
+     * The copy shares the categories set with this place.
+     */
+    public Place copy() {
+        Place c = new Place();
+        c.id = id;
+        c.created = created;
+        c.externalId = externalId;
+        c.name = name;
+        c.zip = zip;
+        c.city = city;
+        c.state = state;
+        c.countryCode = countryCode;
+        c.latitude = latitude;
+        c.longitude = longitude;
+        c.url = url;
+        c.phone = phone;
+        c.street = street;
+        c.category = category;
+        c.categoriesStr = categoriesStr;
+        c.categories = categories;
+        c.source = source;
+        c.distance = distance;
+        c.distanceInMiles = distanceInMiles;
+        c.mainCategories = mainCategories;
+        return c;
+    }
+
     @Override
     public String toString() {
         //return "[" + latitude + "," + longitude + "," + zip + "," + countryCode + "] - " + city;
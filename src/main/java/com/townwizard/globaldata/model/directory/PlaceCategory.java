@@ -11,7 +11,9 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
+import javax.persistence.PostLoad;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
 /**
  * Place category objects are Hibernate entities and relate to Place objects in many-to-many
@@ -32,6 +34,8 @@ public class PlaceCategory {
             inverseJoinColumns = {@JoinColumn(name="location_id")}
     )    
     private Set<Place> places;
+    @Transient
+    private int mainCategories;        //bitmask of MainCategories, classified once by name
 
     public Long getId() {
         return id;
@@ -44,6 +48,7 @@ public class PlaceCategory {
     }
     public void setName(String name) {
         this.name = name;
+        classify();
     }
     public Set<Place> getPlaces() {
         return places;
@@ -52,6 +57,14 @@ public class PlaceCategory {
         this.places = places;
     }
     
+    /**
+     * Get main categories (bitmask of MainCategories bits) of this category
+     */
+    public int getMainCategories() {
+        if(mainCategories == 0) classify();
+        return mainCategories;
+    }
+    
     /**
      * Convenience method to add place to place category.  This method will not set
      * both sides of the relationships.  This is done on the Place side.
@@ -89,6 +102,11 @@ public class PlaceCategory {
         return name;
     }
     
+    @PostLoad
+    private void classify() {
+        mainCategories = MainCategories.classify(name);
+    }
+    
     private boolean compareWithNulls(Object o1, Object o2) {
         if(o1 != null && o2 != null) return o1.equals(o2);
         if(o1 == null && o2 != null || o1 != null && o2 == null) return false;
@@ -0,0 +1,141 @@
+package com.townwizard.globaldata.model.directory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable catalog of place categories: categories by id and by name, and category names
+ * sorted for every main category.
+ *
+ * The catalog holds its own detached copies of categories, so it can be shared between threads.
+ * A catalog with new categories is created with withCategories(), which increments the version.
+ */
+public final class PlaceCategoryCatalog {
+
+    private static final Comparator<PlaceCategory> BY_NAME = new Comparator<PlaceCategory>() {
+        @Override
+        public int compare(PlaceCategory c1, PlaceCategory c2) {
+            return c1.getName().compareTo(c2.getName());
+        }
+    };
+
+    private final long version;
+    private final List<PlaceCategory> categories;   //sorted by name
+    private final Map<Long, PlaceCategory> byId;
+    private final Map<String, PlaceCategory> byName;
+    private final List<String> names;
+    private final List<String> restaurantNames;
+    private final List<String> directoryNames;
+
+    private PlaceCategoryCatalog(long version, List<PlaceCategory> sortedCategories) {
+        this.version = version;
+        categories = Collections.unmodifiableList(sortedCategories);
+        byId = new HashMap<>(sortedCategories.size() * 2);
+        byName = new HashMap<>(sortedCategories.size() * 2);
+        List<String> allNames = new ArrayList<>(sortedCategories.size());
+        List<String> restaurants = new ArrayList<>();
+        List<String> directory = new ArrayList<>(sortedCategories.size());
+        for(PlaceCategory c : sortedCategories) {
+            byId.put(c.getId(), c);
+            byName.put(c.getName(), c);
+            allNames.add(c.getName());
+            if((c.getMainCategories() & MainCategories.RESTAURANTS) != 0) restaurants.add(c.getName());
+            if((c.getMainCategories() & MainCategories.DIRECTORY) != 0) directory.add(c.getName());
+        }
+        names = Collections.unmodifiableList(allNames);
+        restaurantNames = Collections.unmodifiableList(restaurants);
+        directoryNames = Collections.unmodifiableList(directory);
+    }
+
+    /**
+     * Create the first version of the catalog
+     */
+    public static PlaceCategoryCatalog create(Collection<PlaceCategory> categories) {
+        List<PlaceCategory> sorted = copy(categories);
+        Collections.sort(sorted, BY_NAME);
+        return new PlaceCategoryCatalog(1, sorted);
+    }
+
+    /**
+     * Return the next version of the catalog with the given categories added.
+     * Return this catalog if all the categories are already in it.
+     */
+    public PlaceCategoryCatalog withCategories(Collection<PlaceCategory> newCategories) {
+        List<PlaceCategory> added = new ArrayList<>(newCategories.size());
+        for(PlaceCategory c : copy(newCategories)) {
+            if(!byId.containsKey(c.getId())) added.add(c);
+        }
+        if(added.isEmpty()) return this;
+        Collections.sort(added, BY_NAME);
+
+        //merge the sorted lists
+        List<PlaceCategory> merged = new ArrayList<>(categories.size() + added.size());
+        int i = 0, j = 0;
+        while(i < categories.size() || j < added.size()) {
+            if(j == added.size() || i < categories.size() && BY_NAME.compare(categories.get(i), added.get(j)) <= 0) {
+                merged.add(categories.get(i++));
+            } else {
+                merged.add(added.get(j++));
+            }
+        }
+        return new PlaceCategoryCatalog(version + 1, merged);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return categories.size();
+    }
+
+    /**
+     * Return all categories sorted by name.  The categories must not be modified.
+     */
+    public List<PlaceCategory> getCategories() {
+        return categories;
+    }
+
+    public PlaceCategory getById(Long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Get category by its exact name, or null
+     */
+    public PlaceCategory getByName(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Return sorted names of the categories in the main category (MainCategories bit),
+     * or all names if the main category is 0
+     */
+    public List<String> getNames(int mainCategory) {
+        switch(mainCategory) {
+        case MainCategories.RESTAURANTS: return restaurantNames;
+        case MainCategories.DIRECTORY: return directoryNames;
+        default: return names;
+        }
+    }
+
+    ///////// private methods /////////
+
+    private static List<PlaceCategory> copy(Collection<PlaceCategory> categories) {
+        List<PlaceCategory> copies = new ArrayList<>(categories.size());
+        for(PlaceCategory c : categories) {
+            if(c.getId() == null || c.getName() == null) continue;
+            PlaceCategory copy = new PlaceCategory();
+            copy.setId(c.getId());
+            copy.setName(c.getName());
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.townwizard.globaldata.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+
+import net.sf.ehcache.util.NamedThreadFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
+import com.townwizard.db.logger.Log;
+import com.townwizard.db.util.SingleFlightCache;
+import com.townwizard.globaldata.model.Event;
+
+/**
+ * In-memory cache of event feeds by zip and country code.
+ *
+ * A feed is the processed list of events of a town, sorted by date.  A feed younger than
+ * the TTL is served as is.  An older feed is still served, up to the max stale time, while it is
+ * reloaded in background.  Feeds which are missing or too old are loaded by the requesting thread,
+ * and concurrent requests for the same feed share one load.
+ *
+ * Feeds are shared, so neither the lists nor the events in them may be modified.
+ */
+@Component("eventFeedCache")
+public final class EventFeedCache {
+
+    private static final int MAX_FEEDS = 1000;
+
+    private static ExecutorService refresher;
+
+    @Autowired private ConfigurationService configurationService;
+
+    private final Map<Key, Feed> feeds = new LinkedHashMap<Key, Feed>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Feed> eldest) {
+            return size() > MAX_FEEDS;
+        }
+    };
+    private final SingleFlightCache<Key, Feed> loads = new SingleFlightCache<>(MAX_FEEDS);
+    private final Set<Key> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+
+    /**
+     * Events of a town sorted by date, with distances from the town's primary location:
+     * all of them, and the ones close enough to the town
+     */
+    public static final class Feed {
+        private final List<Event> events;
+        private final List<Event> nearbyEvents;
+        private long loaded;
+
+        public Feed(List<Event> events, List<Event> nearbyEvents) {
+            this.events = Collections.unmodifiableList(events);
+            this.nearbyEvents = Collections.unmodifiableList(nearbyEvents);
+        }
+
+        public List<Event> getEvents() {
+            return events;
+        }
+
+        public List<Event> getNearbyEvents() {
+            return nearbyEvents;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        refresher = Executors.newFixedThreadPool(1, new NamedThreadFactory("event-feed-refresher"));
+    }
+
+    public static void shutdownThreads() {
+        if(refresher != null) {
+            Log.info("About to shutdown event feed refresher...");
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the feed of the zip, loading it with the loader if it is not cached, and
+     * scheduling its reload if it is stale
+     */
+    public Feed get(String zip, String countryCode, Callable<Feed> loader) throws Exception {
+        long ttl = configurationService.getIntValue(ConfigurationKey.EVENT_FEED_TTL_SECONDS) * 1000L;
+        if(ttl <= 0 || zip == null) return loader.call();
+        long maxStale = configurationService.getIntValue(ConfigurationKey.EVENT_FEED_MAX_STALE_SECONDS) * 1000L;
+
+        Key key = new Key(zip, countryCode);
+        Feed feed;
+        synchronized (feeds) {
+            feed = feeds.get(key);
+        }
+        if(feed != null) {
+            long age = System.currentTimeMillis() - feed.loaded;
+            if(age < ttl) return feed;
+            if(age < ttl + maxStale) {
+                refresh(key, loader);
+                return feed;
+            }
+        }
+        return loads.get(key, 0, loading(key, loader));
+    }
+
+    public int size() {
+        synchronized (feeds) {
+            return feeds.size();
+        }
+    }
+
+    ///////// private methods /////////
+
+    private Callable<Feed> loading(final Key key, final Callable<Feed> loader) {
+        return new Callable<Feed>() {
+            @Override
+            public Feed call() throws Exception {
+                Feed feed = loader.call();
+                feed.loaded = System.currentTimeMillis();
+                synchronized (feeds) {
+                    feeds.put(key, feed);
+                }
+                return feed;
+            }
+        };
+    }
+
+    private void refresh(final Key key, Callable<Feed> loader) {
+        if(!refreshing.add(key)) return;
+        final Callable<Feed> refreshLoader = loading(key, loader);
+        try {
+            refresher.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loads.get(key, 0, refreshLoader);
+                    } catch (Exception e) {
+                        //the stale feed is served until it is too old, and then loaded on request
+                        Log.exception(e);
+                    } finally {
+                        refreshing.remove(key);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(key);
+            throw e;
+        }
+    }
+
+    /*
+     * Feed key: zip and country code
+     */
+    private static final class Key {
+        private final String zip;
+        private final String countryCode;
+
+        Key(String zip, String countryCode) {
+            this.zip = zip;
+            this.countryCode = countryCode;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = zip.hashCode();
+            return 31 * result + (countryCode != null ? countryCode.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) return true;
+            if(!(obj instanceof Key)) return false;
+            Key k = (Key)obj;
+            return zip.equals(k.zip) &&
+                   (countryCode != null ? countryCode.equals(k.countryCode) : k.countryCode == null);
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.townwizard.globaldata.service;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parses Facebook event times, which come either as date and time with a UTC offset
+ * (yyyy-MM-dd'T'HH:mm:ssZ), or as a date only (yyyy-MM-dd) in the local time zone of the event.
+ *
+ * There is one parser per time zone, and parsers are thread safe.  Times in the exact formats
+ * above, which is how Facebook sends them, are parsed by hand straight into the returned calendar,
+ * with the same lenient calendar arithmetic SimpleDateFormat uses.  Anything else is parsed by
+ * SimpleDateFormat instances which are created once per thread and time zone, and are never
+ * reconfigured, so the results are always the same as SimpleDateFormat's.
+ */
+public final class EventTimeParser {
+
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+    private static final int DATE_ONLY_LENGTH = "yyyy-MM-dd".length();
+    private static final int DATE_TIME_LENGTH = "yyyy-MM-ddTHH:mm:ss+HHmm".length();
+
+    private static final ThreadLocal<DateFormat> DATE_TIME_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+            format.setTimeZone(GMT);
+            return format;
+        }
+    };
+
+    private static final EventTimeParser GMT_PARSER = new EventTimeParser(GMT);
+    private static final ConcurrentMap<String, EventTimeParser> parsers = new ConcurrentHashMap<>();
+
+    private final TimeZone timeZone;
+    private final ThreadLocal<DateFormat> dateFormat;
+
+    private EventTimeParser(final TimeZone timeZone) {
+        this.timeZone = timeZone;
+        dateFormat = new ThreadLocal<DateFormat>() {
+            @Override
+            protected DateFormat initialValue() {
+                DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+                format.setTimeZone(timeZone);
+                return format;
+            }
+        };
+    }
+
+    /**
+     * Get the parser for the time zone of the event, or the GMT parser if the time zone is null
+     */
+    public static EventTimeParser forTimeZone(TimeZone timeZone) {
+        if(timeZone == null) return GMT_PARSER;
+        EventTimeParser parser = parsers.get(timeZone.getID());
+        if(parser == null) {
+            parser = new EventTimeParser((TimeZone)timeZone.clone());
+            EventTimeParser existing = parsers.putIfAbsent(timeZone.getID(), parser);
+            if(existing != null) parser = existing;
+        }
+        return parser;
+    }
+
+    /**
+     * True if the time string has no time, and so is parsed in the time zone of the parser
+     */
+    public static boolean isDateOnly(String timeStr) {
+        return timeStr.length() <= DATE_ONLY_LENGTH;
+    }
+
+    /**
+     * Parse the event time.  Date and time is returned as a GMT calendar, and a date only as
+     * a calendar in the time zone of the parser, set to the beginning of the day.
+     * Return null if the string cannot be parsed.
+     */
+    public Calendar parse(String timeStr) {
+        if(timeStr == null) return null;
+        boolean dateOnly = isDateOnly(timeStr);
+        Calendar c = dateOnly ? parseDate(timeStr) : parseDateTime(timeStr);
+        if(c != null) return c;
+        try {
+            DateFormat format = dateOnly ? dateFormat.get() : DATE_TIME_FORMAT.get();
+            c = Calendar.getInstance(dateOnly ? timeZone : GMT);
+            c.setTime(format.parse(timeStr));
+            return c;
+        } catch (Exception e) {
+            //nothing, the date is null
+            return null;
+        }
+    }
+
+    ///////// private methods /////////
+
+    /*
+     * yyyy-MM-dd with all digits, or null if the string is in any other format
+     */
+    private Calendar parseDate(String s) {
+        if(s.length() != DATE_ONLY_LENGTH || s.charAt(4) != '-' || s.charAt(7) != '-') return null;
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 7);
+        int day = digits(s, 8, 10);
+        if(year < 0 || month < 0 || day < 0) return null;
+
+        Calendar c = Calendar.getInstance(timeZone);
+        c.clear();
+        c.set(year, month - 1, day);
+        c.setTimeInMillis(c.getTimeInMillis());
+        return c;
+    }
+
+    /*
+     * yyyy-MM-dd'T'HH:mm:ss+HHmm (or -HHmm) with all digits, or null if the string is in any other format
+     */
+    private static Calendar parseDateTime(String s) {
+        if(s.length() != DATE_TIME_LENGTH || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' ||
+                s.charAt(13) != ':' || s.charAt(16) != ':') return null;
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 7);
+        int day = digits(s, 8, 10);
+        int hour = digits(s, 11, 13);
+        int minute = digits(s, 14, 16);
+        int second = digits(s, 17, 19);
+        char sign = s.charAt(19);
+        int offsetHours = digits(s, 20, 22);
+        int offsetMinutes = digits(s, 22, 24);
+        if(year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0 ||
+                (sign != '+' && sign != '-') || offsetHours < 0 || offsetHours > 23 ||
+                offsetMinutes < 0 || offsetMinutes > 59) return null;
+
+        Calendar c = Calendar.getInstance(GMT);
+        c.clear();
+        c.set(year, month - 1, day, hour, minute, second);
+        long offset = (offsetHours * 60 + offsetMinutes) * 60000L;
+        c.setTimeInMillis(c.getTimeInMillis() - (sign == '-' ? -offset : offset));
+        return c;
+    }
+
+    /*
+     * Number made of the digits in [from, to), or -1 if there is anything but digits
+     */
+    private static int digits(String s, int from, int to) {
+        int n = 0;
+        for(int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if(c < '0' || c > '9') return -1;
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+}
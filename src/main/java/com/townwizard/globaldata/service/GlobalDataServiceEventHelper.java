@@ -1,15 +1,13 @@
 package com.townwizard.globaldata.service;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -29,15 +27,26 @@ public final class GlobalDataServiceEventHelper {
     @Autowired private LocationService locationService;
     @Autowired private GlobalDataDao globalDataDao;
     @Autowired private FacebookService facebookService;
+    @Autowired private EventFeedCache eventFeedCache;
     
     public List<Event> getEventsByZipInfo(String zip, String countryCode) {
-        Location origin = locationService.getPrimaryLocation(zip, countryCode);
-        return getEvents(zip, countryCode, origin);
+        EventFeedCache.Feed feed = getFeed(zip, countryCode);
+        return filterEventsByDate(feed.getNearbyEvents());
     }
     
+    /**
+     * The events are the events of the location zip, with distances from the location
+     */
     public List<Event> getEventsByLocation(double latitude, double longitude) {
         Location origin = locationService.getLocation(latitude, longitude);
-        return getEvents(origin.getZip(), origin.getCountryCode(), origin);
+        EventFeedCache.Feed feed = getFeed(origin.getZip(), origin.getCountryCode());
+        List<Event> events = new ArrayList<>(feed.getEvents().size());
+        for(Event e : feed.getEvents()) {
+            Event copy = e.copy();
+            setEventDistance(copy, origin.getCountryCode(), origin);
+            events.add(copy);
+        }
+        return filterEventsByDate(filterEventsByDistance(events));
     }
     
     public List<Event> getEventsByIp(String ip) {
@@ -54,17 +63,34 @@ public final class GlobalDataServiceEventHelper {
     
     /////////////// private methods ///////////////////
     
-    private List<Event> getEvents(String zip, String countryCode, Location origin) {
+    //the feed is cached, and the events in the past are cut from it by the callers
+    private EventFeedCache.Feed getFeed(final String zip, final String countryCode) {
+        try {
+            return eventFeedCache.get(zip, countryCode, new Callable<EventFeedCache.Feed>() {
+                @Override
+                public EventFeedCache.Feed call() throws Exception {
+                    return loadFeed(zip, countryCode);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private EventFeedCache.Feed loadFeed(String zip, String countryCode) {
+        Location origin = locationService.getPrimaryLocation(zip, countryCode);
         List<String> terms = locationService.getCities(zip, countryCode);
         List<Event> events = facebookService.getEvents(terms);
-        List<Event> processedEvents = postProcessEvents(origin, countryCode, events);
-        return processedEvents;
+        postProcessEvents(origin, countryCode, events);
+        return new EventFeedCache.Feed(events, filterEventsByDistance(events));
     }
     
     //this calculates and sets event distances as well as
     //properly set events date and time (with time zone) 
-    //removes events in the past and sorts the remaining events by time/date
-    private List<Event> postProcessEvents(Location origin, String countryCode, List<Event> events) {
+    //and sorts the events by time/date
+    private void postProcessEvents(Location origin, String countryCode, List<Event> events) {
         for(Event e : events) {
             if(origin != null) {
                 setEventDistance(e, countryCode, origin);
@@ -72,10 +98,7 @@ public final class GlobalDataServiceEventHelper {
             setEventDates(e);
         }
         
-        List<Event> eventsFiltered = filterEventsByDate(events);
-        eventsFiltered = filterEventsByDistance(events);
-        
-        Collections.sort(eventsFiltered, new Comparator<Event>() {
+        Collections.sort(events, new Comparator<Event>() {
             @Override
             public int compare(Event e1, Event e2) {
                 Calendar e1Start = e1.getStartDate();
@@ -90,8 +113,6 @@ public final class GlobalDataServiceEventHelper {
                 return 0;
             }
         });
-        
-        return eventsFiltered;
     }
     
     private void setEventDistance(Event e, String countryCode, Location origin) {
@@ -109,60 +130,46 @@ public final class GlobalDataServiceEventHelper {
         }
     }    
     
-    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
-    private static final DateFormat FB_EVENT_DATE_FORMAT_TIME = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-    static { FB_EVENT_DATE_FORMAT_TIME.setTimeZone(GMT); }    
-    private static final DateFormat FB_EVENT_DATE_FORMAT_DATE_ONLY = new SimpleDateFormat("yyyy-MM-dd");
-    private static final int FB_EVENT_DATE_FORMAT_DATE_ONLY_LENGTH = "yyyy-MM-dd".length();    
-    
     private void setEventDates(Event e) {
-        e.setStartDate(calculateEventDate(e, e.getStartTime()));
-        e.setEndDate(calculateEventDate(e, e.getEndTime()));
-    }
-    
-    private Calendar calculateEventDate(Event e, String timeStr) {
-        if(timeStr == null) return null;
-        Calendar date = null;
-        try {
-            if(timeStr.length() > FB_EVENT_DATE_FORMAT_DATE_ONLY_LENGTH) {
-                DateFormat format = FB_EVENT_DATE_FORMAT_TIME;
-                date = Calendar.getInstance();
-                date.setTimeZone(GMT);
-                date.setTime(format.parse(timeStr));
-            } else {
-                DateFormat format = FB_EVENT_DATE_FORMAT_DATE_ONLY;
-                format.setTimeZone(GMT);
-                
-                String zip = e.getZip();
-                if(zip != null) {
-                    String timeZone = globalDataDao.getTimeZoneByZip(e.getZip());
-                    if(timeZone != null) {
-                        format.setTimeZone(TimeZone.getTimeZone(timeZone));                        
-                    }
-                }
-                date = Calendar.getInstance();
-                date.setTimeZone(format.getTimeZone());
-                date.setTime(format.parse(timeStr));            
-            }
-        } catch (Exception ex) {
-          //nothing keep the date null
+        //the time zone is only needed for dates without time
+        EventTimeParser parser;
+        String startTime = e.getStartTime();
+        String endTime = e.getEndTime();
+        if(e.getZip() != null && (startTime != null && EventTimeParser.isDateOnly(startTime) || 
+                                  endTime != null && EventTimeParser.isDateOnly(endTime))) {
+            parser = EventTimeParser.forTimeZone(globalDataDao.getTimeZoneByZip(e.getZip()));
+        } else {
+            parser = EventTimeParser.forTimeZone(null);
         }
-        return date;
+        e.setStartDate(parser.parse(startTime));
+        e.setEndDate(parser.parse(endTime));
     }
-        
+    
+    /*
+     * "Now" is taken once per request, and is shifted to the time zone of each event
+     * as DateUtils.now() does it
+     */
     private List<Event> filterEventsByDate(List<Event> events) {
+        long now = System.currentTimeMillis();
+        int localOffset = TimeZone.getDefault().getRawOffset();
+        
         List<Event> result = new ArrayList<>(events.size());        
         for(Event e : events) {
             Calendar startDate = e.getStartDate();
             Calendar endDate = e.getEndDate();
             
-            Date now = startDate != null ? DateUtils.now(startDate.getTimeZone()) : 
-                (endDate != null ? DateUtils.now(endDate.getTimeZone()) : null);
+            TimeZone timeZone = startDate != null ? startDate.getTimeZone() : 
+                (endDate != null ? endDate.getTimeZone() : null);
+            if(timeZone == null) {
+                result.add(e);
+                continue;
+            }
+            long eventNow = now - (localOffset - timeZone.getRawOffset());
             
-            Date latestTime = endDate != null ?
-                endDate.getTime() : (startDate != null ? DateUtils.ceiling(startDate.getTime()) : null);
+            long latestTime = endDate != null ?
+                endDate.getTimeInMillis() : DateUtils.ceiling(startDate.getTime()).getTime();
                 
-            if(latestTime == null || now == null || latestTime.after(now)) {
+            if(latestTime > eventNow) {
                 result.add(e);
             }
         }
@@ -3,6 +3,7 @@ package com.townwizard.globaldata.service;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,15 +11,15 @@ import org.springframework.stereotype.Component;
 
 import com.townwizard.db.configuration.ConfigurationKey;
 import com.townwizard.db.configuration.ConfigurationService;
-import com.townwizard.db.constants.Constants;
 import com.townwizard.db.model.paging.Page;
-import com.townwizard.db.util.CollectionUtils;
 import com.townwizard.db.util.StringUtils;
 import com.townwizard.globaldata.dao.GlobalDataDao;
+import com.townwizard.globaldata.dao.PlaceIngestCache;
 import com.townwizard.globaldata.ingest.place.Ingesters;
 import com.townwizard.globaldata.model.CityLocation;
 import com.townwizard.globaldata.model.DistanceComparator;
 import com.townwizard.globaldata.model.Location;
+import com.townwizard.globaldata.model.directory.MainCategories;
 import com.townwizard.globaldata.model.directory.Place;
 import com.townwizard.globaldata.service.geo.LocationService;
 
@@ -60,17 +61,7 @@ public final class GlobalDataServicePlaceHelper {
     }
     
     public List<String> getPlaceCategories(String mainCategory) {        
-        List<String> categories = placeService.getAllPlaceCategoryNames();
-        
-        if(mainCategory != null && !mainCategory.isEmpty()) {
-            if(Constants.RESTAURANTS.equals(mainCategory)) {
-                categories = filterPlaceCategories(categories, getRestaurantsCategories(), false);
-            } else if(Constants.DIRECTORY.equals(mainCategory)){
-                categories = filterPlaceCategories(categories, getRestaurantsCategories(), true);
-            }
-        }        
-        
-        return categories;
+        return placeService.getPlaceCategoryNames(mainCategory);
     }
 
 
@@ -79,6 +70,33 @@ public final class GlobalDataServicePlaceHelper {
     private Page<Place> getPlaces(String zip, String countryCode, String categoryOrTerm, 
             String mainCategory, Location origin, Integer pageNum) {
 
+        //ready ingests are served from memory without opening a DB transaction
+        PlaceIngestCache.CachedIngest cached = placeService.getCachedIngest(zip, countryCode, categoryOrTerm);
+        if(cached != null) {
+            placeIngesters.submitIngest(zip, countryCode);
+            return getPageOfCachedPlaces(cached, mainCategory, origin, pageNum);
+        }
+        
+        //pages of ingests which are not cached are read from the DB one page at a time
+        if(pageNum != null && pageNum > 0 && 
+           configurationService.getBooleanValue(ConfigurationKey.DIRECTORY_USE_PAGING)) {
+            int mainCategoryBit = MainCategories.forName(mainCategory);
+            Set<String> categoryFilter = (mainCategoryBit != 0) ?
+                    StringUtils.split(MainCategories.RESTAURANTS_CATEGORIES, ",", true) : 
+                    Collections.<String>emptySet();
+            Page<Place> page = placeService.getPageOfPlaces(zip, countryCode, categoryOrTerm, origin, 
+                    categoryFilter, mainCategoryBit == MainCategories.DIRECTORY, pageNum, 
+                    configurationService.getIntValue(ConfigurationKey.DIRECTORY_PAGE_SIZE));
+            if(page != null) {
+                for(Place p : page.getObjects()) {
+                    Integer distance = locationService.distance(origin, new Location(p.getLatitude(), p.getLongitude()));
+                    if(distance != null) p.setDistance(distance);
+                }
+                placeIngesters.submitIngest(zip, countryCode);
+                return page;
+            }
+        }
+        
         Object[] placesWithRemoteIndicator = 
                 placeService.getPlaces(zip, countryCode, categoryOrTerm, pageNum);
         
@@ -88,13 +106,7 @@ public final class GlobalDataServicePlaceHelper {
             List<Place> places = (List<Place>)placesWithRemoteIndicator[0];
             boolean remote = (Boolean)placesWithRemoteIndicator[1];
             
-            if(mainCategory != null && !mainCategory.isEmpty()) {
-                if(Constants.RESTAURANTS.equals(mainCategory)) {
-                    places = filterPlacesByCategories(places, getRestaurantsCategories(), false);
-                } else if(Constants.DIRECTORY.equals(mainCategory)){
-                    places = filterPlacesByCategories(places, getRestaurantsCategories(), true);
-                }
-            }
+            places = filterPlacesByMainCategory(places, mainCategory);
     
             for(Place p : places) {
                 Location l = new Location(p.getLatitude(), p.getLongitude());
@@ -131,48 +143,71 @@ public final class GlobalDataServicePlaceHelper {
         return Page.<Place>empty();
     }
     
-    private List<String> filterPlaceCategories(
-            List<String> placeCategories, String categories, boolean negate) {
-        if(categories == null || categories.isEmpty()) return placeCategories;
-        List<String> filtered = new ArrayList<>(placeCategories.size());
-
-        Set<String> cats = StringUtils.split(categories, ",", true);
-        outer: for(String c : placeCategories) {
-            String categoriesString = c.toLowerCase();
-            for(String cat : cats) {
-                boolean contains = categoriesString.contains(cat); 
-                if(contains && !negate || !contains && negate) {
-                    filtered.add(c);
-                    continue outer;
-                }
-            }            
+    /*
+     * Cached places are sorted by distance from the zip primary location, which is normally the origin,
+     * so a page is a range of the cached places.  For other origins, only the places up to the end of
+     * the page are selected and sorted.  Only the returned places are copied.
+     */
+    private Page<Place> getPageOfCachedPlaces(PlaceIngestCache.CachedIngest ingest, 
+            String mainCategory, Location origin, Integer pageNum) {
+        List<Place> places = filterPlacesByMainCategory(ingest.getPlaces(), mainCategory);
+        int size = places.size();
+        int start = 0;
+        int end = size;
+        boolean hasMore = false;
+        
+        if(pageNum != null && pageNum > 0 && 
+           configurationService.getBooleanValue(ConfigurationKey.DIRECTORY_USE_PAGING)) {
+            int pageSize = configurationService.getIntValue(ConfigurationKey.DIRECTORY_PAGE_SIZE);
+            start = (pageNum - 1) * pageSize;
+            if(start > size) {
+                return new Page<>(Collections.<Place>emptyList(), pageNum, false);
+            }
+            end = Math.min(start + pageSize, size);
+            hasMore = end < size;
         }
-        return filtered;
+        
+        //without an origin there are no distances to sort by
+        if(origin == null || ingest.isSortedFrom(origin)) {
+            return new Page<>(PlaceIngestCache.copy(places.subList(start, end)), pageNum, hasMore);
+        }
+        List<Place> nearest = getNearestPlaces(places, origin, end);
+        return new Page<>(nearest.subList(start, end), pageNum, hasMore);
     }
     
-    private List<Place> filterPlacesByCategories(
-            List<Place> places, String categories, boolean negate) {
-        if(categories == null || categories.isEmpty() || places.isEmpty()) {            
-            return places;
+    /*
+     * Return copies of count places nearest to the origin, sorted by distance.
+     * A bounded heap keeps the selection at O(n log count)
+     */
+    private List<Place> getNearestPlaces(List<Place> places, Location origin, int count) {
+        if(count <= 0) return Collections.emptyList();
+        DistanceComparator comparator = new DistanceComparator();
+        PriorityQueue<Place> nearest = new PriorityQueue<>(count, Collections.reverseOrder(comparator));
+        for(Place p : places) {
+            Place c = p.copy();
+            Integer distance = locationService.distance(origin, new Location(p.getLatitude(), p.getLongitude()));
+            if(distance != null) c.setDistance(distance);
+            if(nearest.size() < count) {
+                nearest.add(c);
+            } else if(comparator.compare(c, nearest.peek()) < 0) {
+                nearest.poll();
+                nearest.add(c);
+            }
         }
+        List<Place> result = new ArrayList<>(nearest);
+        Collections.sort(result, comparator);
+        return result;
+    }
+    
+    private List<Place> filterPlacesByMainCategory(List<Place> places, String mainCategory) {
+        int mainCategoryBit = MainCategories.forName(mainCategory);
+        if(mainCategoryBit == 0 || places.isEmpty()) return places;
         
         List<Place> filtered = new ArrayList<>(places.size());
-        Set<String> cats = StringUtils.split(categories, ",", true);
-        outer: for(Place place : places) {
-            String categoriesString = CollectionUtils.join(place.getCategoryNames()).toLowerCase();
-            for(String c : cats) {
-                boolean contains = categoriesString.contains(c); 
-                if(contains && !negate || !contains && negate) {
-                    filtered.add(place);
-                    continue outer;
-                }
-            }            
+        for(Place p : places) {
+            if((p.getMainCategories() & mainCategoryBit) != 0) filtered.add(p);
         }
         return filtered;
     }
     
-    private String getRestaurantsCategories() {
-        return "restaurants";
-    }
-    
 }
@@ -1,23 +1,60 @@
 package com.townwizard.globaldata.service;
 
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
+import com.townwizard.db.model.paging.Page;
+import com.townwizard.globaldata.dao.PlaceIngestCache;
+import com.townwizard.globaldata.model.Location;
+import com.townwizard.globaldata.model.directory.Place;
 import com.townwizard.globaldata.model.directory.PlaceCategory;
+import com.townwizard.globaldata.model.directory.PlaceCategoryCatalog;
 import com.townwizard.globaldata.model.directory.ZipIngest;
 
 public interface PlaceService {
     
     /**
-     * Return the list of all place categories
+     * Return the list of all place categories sorted by name.  The categories must not be modified.
      */
     List<PlaceCategory> getAllPlaceCategories();
     
+    /**
+     * Return the current version of the place category catalog.
+     * The catalog is loaded from the DB once, and is immutable, so it can be shared.
+     */
+    PlaceCategoryCatalog getPlaceCategoryCatalog();
+    
+    /**
+     * Purge one batch of places of expired ingests, and return the number of purged places, or 0
+     * if there is nothing to purge.  This is called by the background purger, never by user requests.
+     */
+    int purgeExpiredIngests(int batchSize);
+    
+    /**
+     * Mark as expired the refresh ingests which are still in progress, and were created before the given time,
+     * so that they are purged.  Return the number of expired ingests.
+     */
+    int expireAbandonedIngests(Date createdBefore);
+    
+    /**
+     * Add categories, which have just been created in the DB, to the place category catalog
+     */
+    void addPlaceCategories(Collection<PlaceCategory> categories);
+    
     /**
      * Return sorted list of all place category names
      */
     List<String> getAllPlaceCategoryNames();
     
+    /**
+     * Return sorted list of names of the categories in the main category (Constants.RESTAURANTS or
+     * Constants.DIRECTORY), or all category names if the main category is not given or unknown
+     */
+    List<String> getPlaceCategoryNames(String mainCategory);
+    
     /**
      * Get places for zip info, and a category.  If places are available in the local DB, get them
      * from their.  Otherwise, bring them from the source and start places ingest.
@@ -25,6 +62,22 @@ public interface PlaceService {
      *  Page number is an optional parameter, if it is null, then all places will be retrieved.
      */
     Object[] getPlaces(String zipCode, String countryCode, String categoryOrTerm, Integer pageNum);
+    
+    /**
+     * Get a page of places of a ready ingest from the DB, sorted by distance from the origin,
+     * and filtered by categories as described in PlaceDao.getPlaces().
+     * Return null if the ingest is not ready, or if it is requested often enough to be loaded
+     * into the cache, in which case getPlaces() should be used.
+     */
+    Page<Place> getPageOfPlaces(String zipCode, String countryCode, String categoryOrTerm, Location origin,
+            Set<String> categoryFilter, boolean negate, int pageNum, int pageSize);
+    
+    /**
+     * Get a ready ingest from the in-memory cache, without going to the DB.
+     * Return null if the ingest is not cached.  The places of the cached ingest are shared, 
+     * and must be copied before they are modified.
+     */
+    PlaceIngestCache.CachedIngest getCachedIngest(String zipCode, String countryCode, String categoryOrTerm);
 
     /**
      * Get zip ingest.
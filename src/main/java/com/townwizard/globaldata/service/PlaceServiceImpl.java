@@ -2,50 +2,93 @@ package com.townwizard.globaldata.service;
 
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.townwizard.db.configuration.ConfigurationKey;
 import com.townwizard.db.configuration.ConfigurationService;
 import com.townwizard.db.constants.Constants;
 import com.townwizard.db.logger.Log;
+import com.townwizard.db.model.paging.Page;
 import com.townwizard.db.util.DateUtils;
 import com.townwizard.globaldata.dao.PlaceDao;
+import com.townwizard.globaldata.dao.PlaceIngestCache;
 import com.townwizard.globaldata.ingest.place.Ingesters;
+import com.townwizard.globaldata.model.DistanceComparator;
+import com.townwizard.globaldata.model.Location;
 import com.townwizard.globaldata.model.directory.Ingest;
+import com.townwizard.globaldata.model.directory.MainCategories;
 import com.townwizard.globaldata.model.directory.Place;
 import com.townwizard.globaldata.model.directory.PlaceCategory;
+import com.townwizard.globaldata.model.directory.PlaceCategoryCatalog;
 import com.townwizard.globaldata.model.directory.PlaceIngest;
 import com.townwizard.globaldata.model.directory.ZipIngest;
-import com.townwizard.globaldata.service.provider.YellowPagesService;
+import com.townwizard.globaldata.service.geo.LocationService;
+import com.townwizard.globaldata.service.provider.PlaceSourceFetcher;
 
 @Component("placeService")
 @Transactional("directoryTransactionManager")
 public final class PlaceServiceImpl implements PlaceService {
     
     @Autowired private PlaceDao placeDao;
+    @Autowired private PlaceIngestCache placeIngestCache;
     @Autowired private Ingesters placeIngesters;
-    @Autowired private YellowPagesService yellowPagesService;
+    @Autowired private PlaceSourceFetcher placeSourceFetcher;
     @Autowired private ConfigurationService configurationService;
+    @Autowired private LocationService locationService;
+    
+    //loaded once, and then updated with the categories created by ingesters
+    private volatile PlaceCategoryCatalog categoryCatalog;
+    private final Object categoryCatalogLock = new Object();
     
     @Override
     public List<PlaceCategory> getAllPlaceCategories() {
-        return placeDao.getAllPlaceCategories();
+        return getPlaceCategoryCatalog().getCategories();
+    }
+    
+    @Override
+    public PlaceCategoryCatalog getPlaceCategoryCatalog() {
+        PlaceCategoryCatalog catalog = categoryCatalog;
+        if(catalog == null) {
+            synchronized (categoryCatalogLock) {
+                catalog = categoryCatalog;
+                if(catalog == null) {
+                    catalog = PlaceCategoryCatalog.create(placeDao.getAllPlaceCategories());
+                    categoryCatalog = catalog;
+                    Log.info("Loaded place category catalog with " + catalog.size() + " categories");
+                }
+            }
+        }
+        return catalog;
+    }
+    
+    @Override
+    @Transactional(value = "directoryTransactionManager", propagation = Propagation.NOT_SUPPORTED)
+    public void addPlaceCategories(Collection<PlaceCategory> categories) {
+        synchronized (categoryCatalogLock) {
+            //if the catalog is not loaded yet, it will be loaded with these categories
+            if(categoryCatalog != null) {
+                categoryCatalog = categoryCatalog.withCategories(categories);
+            }
+        }
     }
     
     @Override
     public List<String> getAllPlaceCategoryNames() {
-        List<PlaceCategory> cats = getAllPlaceCategories();
-        List<String> categories = new ArrayList<>(cats.size());
-        for(PlaceCategory c : cats) categories.add(c.getName());
-        Collections.sort(categories);
-        return categories;
+        return getPlaceCategoryNames(null);
+    }
+    
+    @Override
+    public List<String> getPlaceCategoryNames(String mainCategory) {
+        return getPlaceCategoryCatalog().getNames(MainCategories.forName(mainCategory));
     }
 
     @Override
@@ -59,12 +102,9 @@ public final class PlaceServiceImpl implements PlaceService {
                 placeDao.delete(ingest);
                 ingest = null;
             } else if(isZipIngestExpired(ingest)) {
-                Log.info("About to delete zip ingest for " + ingest.getZip() + 
+                Log.info("Expiring zip ingest for " + ingest.getZip() + 
                         ". Ingest create time: " + ingest.getStarted());
-                long start = System.currentTimeMillis();
-                placeDao.deleteZipIngest(ingest);
-                long end = System.currentTimeMillis();
-                Log.info("Deleted zip ingest for " + ingest.getZip() + " in " + (end - start) + " ms");
+                placeDao.expireZipIngest(ingest);
                 ingest = null;                
             }
         }
@@ -83,10 +123,21 @@ public final class PlaceServiceImpl implements PlaceService {
     
     @Override
     public Object[] getPlaces(String zipCode, String countryCode, String categoryOrTerm, Integer pageNum) {
+        PlaceIngestCache.CachedIngest cached = getCachedIngest(zipCode, countryCode, categoryOrTerm);
+        if(cached != null) {
+            return new Object[] {PlaceIngestCache.copy(cached.getPlaces()), false};
+        }
+        
+        long loadStamp = placeIngestCache.getLoadStamp();
         PlaceIngest ingest = getIngest(zipCode, countryCode, categoryOrTerm);
         
         if(ingest != null && ingest.getStatus() == Ingest.Status.R) {
-            return new Object[] {placeDao.getPlaces(ingest), false};
+            List<Place> ingestPlaces = placeDao.getPlaces(ingest);
+            Location origin = locationService.getPrimaryLocation(zipCode, countryCode);
+            if(origin != null) sortByDistance(ingestPlaces, origin);
+            placeIngestCache.put(zipCode, countryCode, categoryOrTerm,
+                    ingest.getCreated(), origin, ingestPlaces, loadStamp);
+            return new Object[] {ingestPlaces, false};
         }
         
         List<Place> places = null;
@@ -103,23 +154,77 @@ public final class PlaceServiceImpl implements PlaceService {
         }
         if(!error) {   
              placeIngesters.submitHighPriorityIngest(zipCode, countryCode,
-                     categoryOrTerm, getAllPlaceCategories());
+                     categoryOrTerm, getPlaceCategoryCatalog());
         }
 
         return new Object[]{places, true};
     }    
     
+    @Override
+    public Page<Place> getPageOfPlaces(String zipCode, String countryCode, String categoryOrTerm, Location origin,
+            Set<String> categoryFilter, boolean negate, int pageNum, int pageSize) {
+        if(placeIngestCache.admit(zipCode, countryCode, categoryOrTerm)) return null;
+        
+        PlaceIngest ingest = getIngest(zipCode, countryCode, categoryOrTerm);
+        if(ingest == null || ingest.getStatus() != Ingest.Status.R) return null;
+        
+        //one extra place tells if there are more pages
+        List<Place> places = placeDao.getPlaces(ingest, origin, categoryFilter, negate, 
+                (pageNum - 1) * pageSize, pageSize + 1);
+        boolean hasMore = places.size() > pageSize;
+        if(hasMore) places = places.subList(0, pageSize);
+        return new Page<>(places, pageNum, hasMore);
+    }
+    
+    @Override
+    @Transactional(value = "directoryTransactionManager", propagation = Propagation.NOT_SUPPORTED)
+    public PlaceIngestCache.CachedIngest getCachedIngest(
+            String zipCode, String countryCode, String categoryOrTerm) {
+        PlaceIngestCache.CachedIngest cached = placeIngestCache.get(zipCode, countryCode, categoryOrTerm);
+        if(cached != null && isIngestInvalid(cached.getCreated())) {
+            //stale places are served until the refreshed ingest replaces them
+            placeIngesters.submitRefreshIngest(zipCode, countryCode, categoryOrTerm);
+        }
+        return cached;
+    }
+    
+    @Override
+    public int purgeExpiredIngests(int batchSize) {
+        return placeDao.purgeExpiredIngests(batchSize);
+    }
+    
+    @Override
+    public int expireAbandonedIngests(Date createdBefore) {
+        return placeDao.expireAbandonedIngests(createdBefore);
+    }
+    
     ////////////////////////// private methods ////////////////////////////////////////
 
+    /*
+     * Set distances from the origin, and sort places by distance, which is done once per cached ingest
+     */
+    private void sortByDistance(List<Place> places, Location origin) {
+        for(Place p : places) {
+            Integer distance = locationService.distance(origin, new Location(p.getLatitude(), p.getLongitude()));
+            if(distance != null) p.setDistance(distance);
+        }
+        Collections.sort(places, new DistanceComparator());
+    }
+
     private PlaceIngest getIngest(String zipCode, String countryCode, String categoryOrTerm) {
         PlaceIngest ingest = placeDao.getIngest(zipCode, countryCode, categoryOrTerm);
         
-        if(ingest != null && (isIngestInvalid(ingest) || Ingest.Status.N.equals(ingest.getStatus()))) {
+        if(ingest != null && Ingest.Status.R.equals(ingest.getStatus()) && isIngestInvalid(ingest.getCreated())) {
+            //a ready ingest is served while it is being refreshed, and the ingester
+            //replaces it with the new one when the new one is ready
+            placeIngesters.submitRefreshIngest(zipCode, countryCode, categoryOrTerm);
+        } else if(ingest != null && 
+                (isIngestInvalid(ingest.getCreated()) || Ingest.Status.N.equals(ingest.getStatus()))) {
             //normally, the DB ingest status should be never N
             //the N status is an indicator for the current thread
             //that ingest has been created by the current thread
             //if the DB has an ingest with such status, it's an error, and let's reingest it
-            placeDao.deleteIngest(ingest);
+            placeDao.expireIngest(ingest);
             ingest = null;
         }
 
@@ -127,8 +232,8 @@ public final class PlaceServiceImpl implements PlaceService {
     }
     
     
-    private boolean isIngestInvalid(PlaceIngest ingest) {
-        return DateUtils.addDays(ingest.getCreated(), Constants.REFRESH_PLACE_INGEST_PERIOD_IN_DAYS)
+    private boolean isIngestInvalid(Date ingestCreated) {
+        return DateUtils.addDays(ingestCreated, Constants.REFRESH_PLACE_INGEST_PERIOD_IN_DAYS)
                 .before(new Date());
     }
     
@@ -170,12 +275,10 @@ public final class PlaceServiceImpl implements PlaceService {
     
     private List<Place> getPlacesFromSource(
             String zipCode, String countryCode, String categoryOrTerm, Integer pageNum) throws Exception {        
-        List<Place> places = (pageNum == null) ? 
-                yellowPagesService.getPlaces(zipCode, categoryOrTerm) :
-                yellowPagesService.getPageOfPlaces(zipCode, categoryOrTerm, pageNum, 
+        return (pageNum == null) ? 
+                placeSourceFetcher.getPlaces(zipCode, countryCode, categoryOrTerm) :
+                placeSourceFetcher.getPageOfPlaces(zipCode, countryCode, categoryOrTerm, pageNum, 
                         configurationService.getIntValue(ConfigurationKey.DIRECTORY_PAGE_SIZE));
-        for(Place p : places) p.setCountryCode(countryCode);
-        return places;
-    }    
+    }
 
 }
@@ -0,0 +1,166 @@
+package com.townwizard.globaldata.service.geo;
+
+import java.util.Arrays;
+
+/**
+ * Immutable spatial index of location store rows for nearest location lookups.
+ *
+ * The earth is split into a grid of CELL_DEGREES x CELL_DEGREES cells.  Location coordinates are
+ * kept in primitive arrays ordered by cell, and for every cell the index keeps the offset of
+ * its first location, so the locations of one cell are found in O(1).
+ *
+ * The nearest location search scans rings of cells around the requested point, and stops
+ * as soon as no location in the next ring can be closer than the ones already found.
+ * Distances are compared in the equirectangular projection, which is exact enough at this scale.
+ */
+final class LocationGridIndex {
+
+    private static final float CELL_DEGREES = 0.25f;
+    private static final int ROWS = (int)(180 / CELL_DEGREES);
+    private static final int COLUMNS = (int)(360 / CELL_DEGREES);
+    private static final int MAX_RINGS = 20;  //do not look further than 5 degrees
+
+    private final int[] cellStart;   //cell -> offset of its first location in the arrays below
+    private final float[] latitudes;
+    private final float[] longitudes;
+    private final int[] storeRows;
+
+    /**
+     * Build the index of the given store rows.  The rows must have coordinates.
+     */
+    LocationGridIndex(LocationStore store, int[] rows) {
+        cellStart = new int[ROWS * COLUMNS + 1];
+        for(int row : rows) {
+            cellStart[cell(store.getLatitude(row), store.getLongitude(row)) + 1]++;
+        }
+        for(int i = 1; i < cellStart.length; i++) cellStart[i] += cellStart[i - 1];
+
+        latitudes = new float[rows.length];
+        longitudes = new float[rows.length];
+        storeRows = new int[rows.length];
+        int[] next = Arrays.copyOf(cellStart, ROWS * COLUMNS);
+        for(int row : rows) {
+            float lat = store.getLatitude(row);
+            float lon = store.getLongitude(row);
+            int pos = next[cell(lat, lon)]++;
+            latitudes[pos] = lat;
+            longitudes[pos] = lon;
+            storeRows[pos] = row;
+        }
+    }
+
+    int size() {
+        return storeRows.length;
+    }
+
+    /**
+     * Find the store row nearest to the given point, or -1 if there are no locations around
+     */
+    int nearest(double latitude, double longitude) {
+        int row = row(latitude);
+        int column = column(longitude);
+        double cosLat = Math.cos(Math.toRadians(latitude));
+
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for(int ring = 0; ring <= MAX_RINGS; ring++) {
+            if(best >= 0 && minRingDistance(ring, cosLat) > bestDistance) break;
+            for(int r = row - ring; r <= row + ring; r++) {
+                if(r < 0 || r >= ROWS) continue;
+                boolean edgeRow = (r == row - ring || r == row + ring);
+                int step = edgeRow ? 1 : 2 * ring;
+                for(int c = column - ring; c <= column + ring; c += step) {
+                    int cell = r * COLUMNS + wrapColumn(c);
+                    for(int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        double d = distance(latitude, longitude, cosLat, i);
+                        if(d < bestDistance) {
+                            bestDistance = d;
+                            best = i;
+                        }
+                    }
+                }
+            }
+        }
+        return best >= 0 ? storeRows[best] : -1;
+    }
+
+    /**
+     * Find up to count store rows nearest to the given point, ordered by distance
+     */
+    int[] nearest(double latitude, double longitude, int count) {
+        if(count <= 0) return new int[0];
+        int row = row(latitude);
+        int column = column(longitude);
+        double cosLat = Math.cos(Math.toRadians(latitude));
+
+        //sorted arrays of the best candidates found so far, the farthest is the last
+        int[] best = new int[count];
+        double[] bestDistances = new double[count];
+        int found = 0;
+        for(int ring = 0; ring <= MAX_RINGS; ring++) {
+            if(found == count && minRingDistance(ring, cosLat) > bestDistances[count - 1]) break;
+            for(int r = row - ring; r <= row + ring; r++) {
+                if(r < 0 || r >= ROWS) continue;
+                boolean edgeRow = (r == row - ring || r == row + ring);
+                int step = edgeRow ? 1 : 2 * ring;
+                for(int c = column - ring; c <= column + ring; c += step) {
+                    int cell = r * COLUMNS + wrapColumn(c);
+                    for(int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        double d = distance(latitude, longitude, cosLat, i);
+                        if(found < count || d < bestDistances[found - 1]) {
+                            int pos = (found < count) ? found++ : found - 1;
+                            while(pos > 0 && bestDistances[pos - 1] > d) {
+                                bestDistances[pos] = bestDistances[pos - 1];
+                                best[pos] = best[pos - 1];
+                                pos--;
+                            }
+                            bestDistances[pos] = d;
+                            best[pos] = i;
+                        }
+                    }
+                }
+            }
+        }
+
+        int[] result = new int[found];
+        for(int i = 0; i < found; i++) result[i] = storeRows[best[i]];
+        return result;
+    }
+
+    ///////// private methods /////////
+
+    //squared equirectangular distance in degrees
+    private double distance(double latitude, double longitude, double cosLat, int i) {
+        double dLat = latitudes[i] - latitude;
+        double dLon = Math.abs(longitudes[i] - longitude);
+        if(dLon > 180) dLon = 360 - dLon;
+        dLon *= cosLat;
+        return dLat * dLat + dLon * dLon;
+    }
+
+    //lower bound of the squared distance to any location in the given ring of cells
+    private double minRingDistance(int ring, double cosLat) {
+        if(ring <= 1) return 0;
+        double d = (ring - 1) * CELL_DEGREES * cosLat;
+        return d * d;
+    }
+
+    private static int cell(float latitude, float longitude) {
+        return row(latitude) * COLUMNS + column(longitude);
+    }
+
+    private static int row(double latitude) {
+        int row = (int)Math.floor((latitude + 90) / CELL_DEGREES);
+        return row < 0 ? 0 : (row >= ROWS ? ROWS - 1 : row);
+    }
+
+    private static int column(double longitude) {
+        return wrapColumn((int)Math.floor((longitude + 180) / CELL_DEGREES));
+    }
+
+    private static int wrapColumn(int column) {
+        int c = column % COLUMNS;
+        return c < 0 ? c + COLUMNS : c;
+    }
+
+}
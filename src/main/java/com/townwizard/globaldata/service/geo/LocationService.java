@@ -22,6 +22,11 @@ public interface LocationService {
      * Get location by latitude and longitude
      */
     Location getLocation(double latitude, double longitude);
+    
+    /**
+     * Get up to count zip locations nearest to latitude and longitude, the nearest first
+     */
+    List<Location> getNearestLocations(double latitude, double longitude, int count);
 
     /**
      * Get list of city names by zip info
@@ -1,48 +1,78 @@
 package com.townwizard.globaldata.service.geo;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Level;
 
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
 import com.townwizard.db.logger.Log;
-import com.townwizard.db.util.DataUtils;
 import com.townwizard.globaldata.model.Location;
 
 /**
  * LocationService implementation, which uses allCountries.txt data file.
- * The data is loaded on the first request and kept in the memory.
+ * The data is loaded on application start (or on the first request) and kept in the memory.
+ * After the first load from the text file, a binary snapshot of the data is saved,
+ * and the next loads are done from the snapshot.
  */
 @Component("LocationService")
 public class LocationServiceImpl implements LocationService {
     
     private static final String LOCATION_DATABASE = "allCountries.txt"; 
     
-    private static Map<String, List<Location>> locationsByZip;
-    private static SortedMap<Float, SortedSet<Location>> locationsByLatitude;
-    private static SortedMap<Float, SortedSet<Location>> locationsByLongitude;
+    //allCountries.txt columns
+    private static final int COUNTRY_COLUMN = 0;
+    private static final int ZIP_COLUMN = 1;
+    private static final int CITY_COLUMN = 2;
+    private static final int LATITUDE_COLUMN = 9;
+    private static final int LONGITUDE_COLUMN = 10;
+    
+    private static volatile LocationStore locationStore;
+    private static LocationGridIndex locationIndex;
+    
+    @Autowired
+    private ConfigurationService configurationService;
+    private static ConfigurationService config;
+    
+    @PostConstruct
+    public void init() {
+        config = configurationService;
+    }
+    
+    /**
+     * Start loading location data in a background thread, so the first location request
+     * doesn't have to wait for it.
+     */
+    public static void loadDataInBackground() {
+        Thread loader = new Thread("location-data-loader") {
+            @Override
+            public void run() {
+                try {
+                    checkDataLoaded();
+                } catch (Exception e) {
+                    Log.exception(e);
+                }
+            }
+        };
+        loader.setDaemon(true);
+        loader.start();
+    }
         
     @Override
     public List<Location> getLocations(String zip, String countryCode) {
         checkDataLoaded();
-        List<Location> allLocations = locationsByZip.get(zip);
-        if(allLocations != null) {
-            List<Location> locations = new ArrayList<>();
-            for(Location l : allLocations) if(countryCode.equals(l.getCountryCode())) locations.add(l);
-            return locations;
-        }
-        return Collections.emptyList();        
+        return locationStore.getLocations(zip, countryCode);
     }
     
     /**
@@ -51,50 +81,31 @@ public class LocationServiceImpl implements LocationService {
      */
     @Override
     public Location getPrimaryLocation(String zip, String countryCode) {
-        List<Location> zipLocations = getLocations(zip, countryCode);        
-        for(Location l : zipLocations) {
-            if(l.getLatitude() != null && l.getLongitude() != null) {
-                return l;
-            }
-        }
-        return null;
+        checkDataLoaded();
+        int row = locationStore.getPrimaryRow(zip, countryCode);
+        return row >= 0 ? locationStore.getLocation(row) : null;
     }
     
     /**
-     * Load all locations for the latitude.
-     * Load all locations for the longitude.
-     * Put them all in one list.
-     * For each location calculate the distance from it to the requested latitude/longitude.
-     * Return the location with the smaller distance.
+     * Find the nearest zip location in the spatial index.
      */
     @Override
     public Location getLocation(double latitude, double longitude) {
         checkDataLoaded();
-        
-        float lat = (float)latitude;
-        float lon = (float)longitude;
-        Set<Location> lByLatitude = findInMap(locationsByLatitude, lat);
-        Set<Location> lByLongitude = findInMap(locationsByLongitude, lon);
-        
-        if(lByLatitude != null && lByLongitude != null) {
-            Set<Location> allLocations = lByLatitude;
-            allLocations.addAll(lByLongitude);
-            
-            Location orig = new Location(lat, lon);
-            
-            int minDistance = Integer.MAX_VALUE;
-            Location selected = null;
-            for(Location l : allLocations) {
-               int distance = distance(orig, l);
-               if(distance < minDistance) {
-                   minDistance = distance;
-                   selected = l;
-               }
-            }
-            return selected;            
-        }
-        
-        return null;
+        int row = locationIndex.nearest(latitude, longitude);
+        return row >= 0 ? locationStore.getLocation(row) : null;
+    }
+    
+    /**
+     * Find the nearest zip locations in the spatial index.
+     */
+    @Override
+    public List<Location> getNearestLocations(double latitude, double longitude, int count) {
+        checkDataLoaded();
+        int[] rows = locationIndex.nearest(latitude, longitude, count);
+        List<Location> locations = new ArrayList<>(rows.length);
+        for(int row : rows) locations.add(locationStore.getLocation(row));
+        return locations;
     }
     
     @Override
@@ -137,14 +148,14 @@ public class LocationServiceImpl implements LocationService {
         return null;
     }
     
-    private void checkDataLoaded() {
-        if(locationsByZip == null) {
-            synchronized(this) {
-                if(locationsByZip == null) {
+    private static void checkDataLoaded() {
+        if(locationStore == null) {
+            synchronized(LocationServiceImpl.class) {
+                if(locationStore == null) {
                     try {
-                        if(Log.isInfoEnabled()) Log.log(Level.INFO, getClass(), null, "Loading location data...");
+                        if(Log.isInfoEnabled()) Log.log(Level.INFO, LocationServiceImpl.class, null, "Loading location data...");
                         loadData();
-                        if(Log.isInfoEnabled()) Log.log(Level.INFO, getClass(), null, "Done loading location data...");                        
+                        if(Log.isInfoEnabled()) Log.log(Level.INFO, LocationServiceImpl.class, null, "Done loading location data...");                        
                     } catch (Exception e) {
                         throw new RuntimeException (e);
                     }
@@ -153,81 +164,61 @@ public class LocationServiceImpl implements LocationService {
         }        
     }    
     
-    private void loadData() throws Exception {
-        locationsByZip = DataUtils.dataFileToMap(
-                getDataInputStream(LOCATION_DATABASE), 0,
-                new int[]{1, 0, 2, 9, 10}, 
-                new String[] {"zip", "countryCode", "city", "latitude", "longitude"},
-                String.class, Location.class, "\t", "");
+    /*
+     * Load the location store from the binary snapshot, if the snapshot is up to date.
+     * Otherwise, load it from the text data file, and write a new snapshot.
+     */
+    private static void loadData() throws Exception {
+        URL source = getDataUrl(LOCATION_DATABASE);
+        URLConnection connection = source.openConnection();
+        connection.setUseCaches(false);
+        long sourceLength = connection.getContentLengthLong();
+        long sourceLastModified = connection.getLastModified();
+        connection.getInputStream().close();
         
-        locationsByLatitude = new TreeMap<>();
-        locationsByLongitude = new TreeMap<>();
+        String snapshotPath = config.getStringValue(ConfigurationKey.GEO_SNAPSHOT_FILE);
+        File snapshot = (snapshotPath != null && !snapshotPath.isEmpty()) ? new File(snapshotPath) : null;
         
-        for(Map.Entry<String, List<Location>> e : locationsByZip.entrySet()) {            
-            List<Location> locations = e.getValue();
-            if(locations != null) {
-                for(Location l : locations) {
-                    Float lat = l.getLatitude();
-                    Float lon = l.getLongitude();
-                    String zip = l.getZip();
-                    String cc = l.getCountryCode();
-                    if(lat != null && lon != null && zip != null && cc != null) {
-                        addToMap(locationsByLatitude, lat, l);
-                        addToMap(locationsByLongitude, lon, l);
-                    }
+        LocationStore store = null;
+        if(snapshot != null) {
+            try {
+                store = LocationSnapshot.read(snapshot, sourceLength, sourceLastModified);
+                if(store != null) {
+                    Log.info("Location data loaded from snapshot " + snapshot);
                 }
-            }            
+            } catch (IOException e) {
+                Log.warning("Cannot read location snapshot " + snapshot + ": " + e.getMessage());
+            }
         }
-    }
-
-    //finds locations by latitude or longitude in a map
-    //the logic here is to round the given key to two decimal places,
-    //then go through hash map keys and find a key which is between the candidate key and candidate key + 0.01.
-    //Then retrieve the locations for the found key
-    private Set<Location> findInMap(SortedMap<Float, SortedSet<Location>> map, float candidateKey) {
-        // if key is 40.552544 or -74.15088
-        int k1Int = (int)(candidateKey * 100);                  //-> 4055 or -7415
-        int k2Int = (candidateKey > 0) ? k1Int + 1 : k1Int - 1; //-> 4056 or -7416
-        float k1 = (float)(k1Int/100.0);
-        float k2 = (float)(k2Int/100.0);    
-        float hiKey = Math.max(k1, k2);    //-> 40.5600 or -74.1500
-        float loKey = Math.min(k1, k2);    //-> 40.5500 or -74.1600
         
-        SortedSet<Float> keys = (SortedSet<Float>)map.keySet();
-        Set<Location> locations = new TreeSet<>(new ZipCodeComparator());
-        Iterator<Float> i = keys.iterator();
-        while(i.hasNext()) {
-            Float next = i.next();
-            if(next > hiKey) break;
-            if(next >= loKey && next <= hiKey) {
-                locations.addAll(map.get(next));
+        if(store == null) {
+            try (InputStream in = source.openStream()) {
+                store = LocationStore.load(in,
+                        COUNTRY_COLUMN, ZIP_COLUMN, CITY_COLUMN, LATITUDE_COLUMN, LONGITUDE_COLUMN);
+            }
+            if(snapshot != null) {
+                try {
+                    LocationSnapshot.write(store, snapshot, sourceLength, sourceLastModified);
+                    Log.info("Location snapshot written to " + snapshot);
+                } catch (IOException e) {
+                    Log.warning("Cannot write location snapshot " + snapshot + ": " + e.getMessage());
+                }
             }
-        }        
-        return locations;
-    }
-    
-    private void addToMap(Map<Float, SortedSet<Location>> map, Float key, Location l) {        
-        SortedSet<Location> value = map.get(key);
-        if(value == null) {
-            value = new TreeSet<>(new ZipCodeComparator());
-            map.put(key, value);
-        }
-        value.add(l);
-    }
-    
-    private static class ZipCodeComparator implements Comparator<Location> {
-        @Override
-        public int compare(Location l1, Location l2) {
-            return l1.getZip().compareTo(l2.getZip());
         }
+        
+        locationIndex = new LocationGridIndex(store, store.getPrimaryRows());
+        locationStore = store;
     }
  
-    private InputStream getDataInputStream(String name) {
-        InputStream in = getClass().getResourceAsStream(name);
-        if(in == null) {
-            in = Thread.currentThread().getContextClassLoader().getResourceAsStream(name);
+    private static URL getDataUrl(String name) {
+        URL url = LocationServiceImpl.class.getResource(name);
+        if(url == null) {
+            url = Thread.currentThread().getContextClassLoader().getResource(name);
+        }
+        if(url == null) {
+            throw new IllegalStateException("Location data file " + name + " not found");
         }
-        return in;
+        return url;
     }
     
     private String preprocessCityName(String cityName) {        
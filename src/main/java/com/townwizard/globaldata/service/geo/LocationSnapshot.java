@@ -0,0 +1,191 @@
+package com.townwizard.globaldata.service.geo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Binary snapshot of a location store.
+ *
+ * The snapshot is written once after the location store is loaded from the text data file,
+ * and is memory mapped on the next start, which is much faster than parsing the text file.
+ *
+ * The snapshot header has the format version, and the length and modification time of the
+ * source data file.  The snapshot is ignored if any of them doesn't match.
+ */
+final class LocationSnapshot {
+
+    private static final int MAGIC = 0x54574C53;  //"TWLS"
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private LocationSnapshot() {}
+
+    /**
+     * Read the store from the snapshot file.
+     * Return null if the file doesn't exist, or was made from a different source or in a different format,
+     * or is truncated or corrupt.
+     */
+    static LocationStore read(File file, long sourceLength, long sourceLastModified) throws IOException {
+        if(!file.isFile()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION ||
+                    buffer.getLong() != sourceLength || buffer.getLong() != sourceLastModified) {
+                return null;
+            }
+            String[] zips = readStrings(buffer);
+            int[] zipStart = readInts(buffer);
+            String[] countries = readStrings(buffer);
+            String[] cities = readStrings(buffer);
+            short[] rowCountries = readShorts(buffer);
+            int[] rowCities = readInts(buffer);
+            float[] latitudes = readFloats(buffer);
+            float[] longitudes = readFloats(buffer);
+            if(!isConsistent(zips, zipStart, countries, cities, rowCountries, rowCities, latitudes, longitudes)) {
+                return null;
+            }
+            return new LocationStore(zips, zipStart, countries, cities,
+                    rowCountries, rowCities, latitudes, longitudes);
+        } catch (BufferUnderflowException e) {
+            return null;  //truncated or corrupt file
+        }
+    }
+
+    /**
+     * Write the store to the snapshot file.  The file is replaced atomically.
+     */
+    static void write(LocationStore store, File file, long sourceLength, long sourceLastModified)
+            throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(sourceLength);
+                out.writeLong(sourceLastModified);
+                writeStrings(out, store.zips());
+                writeInts(out, store.zipStart());
+                writeStrings(out, store.countries());
+                writeStrings(out, store.cities());
+                writeShorts(out, store.rowCountries());
+                writeInts(out, store.rowCities());
+                writeFloats(out, store.latitudes());
+                writeFloats(out, store.longitudes());
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if(tmp.exists()) tmp.delete();
+        }
+    }
+
+    ///////// private methods /////////
+
+    /*
+     * Read an array length, and check that the buffer has enough bytes for that many elements,
+     * so a corrupt length is not allocated
+     */
+    private static int readLength(MappedByteBuffer buffer, int minElementBytes) {
+        int length = buffer.getInt();
+        if(length < 0 || (long)length * minElementBytes > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    /*
+     * Check that the arrays fit each other (every zip has rows, and dictionary indexes are -1 or
+     * in range), so that a corrupt snapshot which was read in full is not used
+     */
+    private static boolean isConsistent(String[] zips, int[] zipStart, String[] countries, String[] cities,
+            short[] rowCountries, int[] rowCities, float[] latitudes, float[] longitudes) {
+        int rows = rowCities.length;
+        if(zipStart.length != zips.length + 1 || zipStart[0] != 0 || zipStart[zips.length] != rows ||
+                rowCountries.length != rows || latitudes.length != rows || longitudes.length != rows) {
+            return false;
+        }
+        for(int i = 0; i < zips.length; i++) {
+            if(zipStart[i] >= zipStart[i + 1]) return false;
+        }
+        for(int row = 0; row < rows; row++) {
+            if(rowCountries[row] < -1 || rowCountries[row] >= countries.length ||
+                    rowCities[row] < -1 || rowCities[row] >= cities.length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] readStrings(MappedByteBuffer buffer) {
+        String[] strings = new String[readLength(buffer, 2)];
+        byte[] bytes = new byte[256];
+        for(int i = 0; i < strings.length; i++) {
+            int length = buffer.getShort() & 0xFFFF;
+            if(length > bytes.length) bytes = new byte[length];
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, UTF8);
+        }
+        return strings;
+    }
+
+    private static int[] readInts(MappedByteBuffer buffer) {
+        int[] values = new int[readLength(buffer, 4)];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 4);
+        return values;
+    }
+
+    private static short[] readShorts(MappedByteBuffer buffer) {
+        short[] values = new short[readLength(buffer, 2)];
+        buffer.asShortBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 2);
+        return values;
+    }
+
+    private static float[] readFloats(MappedByteBuffer buffer) {
+        float[] values = new float[readLength(buffer, 4)];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 4);
+        return values;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for(String s : strings) {
+            byte[] bytes = s.getBytes(UTF8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for(int v : values) out.writeInt(v);
+    }
+
+    private static void writeShorts(DataOutputStream out, short[] values) throws IOException {
+        out.writeInt(values.length);
+        for(short v : values) out.writeShort(v);
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        out.writeInt(values.length);
+        for(float v : values) out.writeFloat(v);
+    }
+
+}
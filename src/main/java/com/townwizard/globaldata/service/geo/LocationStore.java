@@ -0,0 +1,266 @@
+package com.townwizard.globaldata.service.geo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.townwizard.globaldata.model.Location;
+
+/**
+ * Compact immutable column store of zip locations.
+ *
+ * Zip codes, country codes and city names are kept in dictionaries of unique strings, and every
+ * location row refers to them by index.  Coordinates are kept in primitive float arrays
+ * (NaN when unknown).  Rows are sorted by zip (the original order is kept within a zip), and
+ * the zip dictionary is sorted, so the rows of a zip are found by binary search.
+ *
+ * Location objects are created on request only.
+ */
+final class LocationStore {
+
+    private final String[] zips;         //sorted
+    private final int[] zipStart;        //zip index -> first row of the zip, plus the total row count
+    private final String[] countries;
+    private final String[] cities;
+    private final short[] rowCountries;  //row -> country index or -1
+    private final int[] rowCities;       //row -> city index or -1
+    private final float[] latitudes;
+    private final float[] longitudes;
+
+    LocationStore(String[] zips, int[] zipStart, String[] countries, String[] cities,
+            short[] rowCountries, int[] rowCities, float[] latitudes, float[] longitudes) {
+        this.zips = zips;
+        this.zipStart = zipStart;
+        this.countries = countries;
+        this.cities = cities;
+        this.rowCountries = rowCountries;
+        this.rowCities = rowCities;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    /**
+     * Load the store from a tab separated file with country code, zip, city, latitude and longitude
+     * in the given columns.
+     */
+    static LocationStore load(InputStream in, int countryColumn, int zipColumn, int cityColumn,
+            int latitudeColumn, int longitudeColumn) throws IOException {
+        Builder builder = new Builder();
+        int maxColumn = Math.max(Math.max(Math.max(countryColumn, zipColumn), Math.max(cityColumn, latitudeColumn)),
+                longitudeColumn);
+        String[] values = new String[maxColumn + 1];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                splitLine(line, values);
+                builder.add(values[countryColumn], values[zipColumn], values[cityColumn],
+                        parseCoordinate(values[latitudeColumn]), parseCoordinate(values[longitudeColumn]));
+            }
+        }
+        return builder.build();
+    }
+
+    int rowCount() {
+        return latitudes.length;
+    }
+
+    /**
+     * Get all locations of the zip in the country, in the file order
+     */
+    List<Location> getLocations(String zip, String countryCode) {
+        int z = Arrays.binarySearch(zips, zip);
+        if(z < 0) return Collections.emptyList();
+        List<Location> locations = new ArrayList<>(zipStart[z + 1] - zipStart[z]);
+        for(int row = zipStart[z]; row < zipStart[z + 1]; row++) {
+            if(countryCode.equals(getCountryCode(row))) locations.add(getLocation(row));
+        }
+        return locations;
+    }
+
+    /**
+     * Get the row of the first location of the zip in the country which has coordinates, or -1
+     */
+    int getPrimaryRow(String zip, String countryCode) {
+        int z = Arrays.binarySearch(zips, zip);
+        if(z < 0) return -1;
+        for(int row = zipStart[z]; row < zipStart[z + 1]; row++) {
+            if(hasCoordinates(row) && countryCode.equals(getCountryCode(row))) return row;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the rows of the first locations with coordinates of every zip and country code
+     */
+    int[] getPrimaryRows() {
+        int[] rows = new int[rowCount()];
+        int n = 0;
+        for(int z = 0; z < zips.length; z++) {
+            int zipRowsStart = n;
+            for(int row = zipStart[z]; row < zipStart[z + 1]; row++) {
+                if(!hasCoordinates(row) || rowCountries[row] < 0) continue;
+                boolean seen = false;
+                for(int i = zipRowsStart; i < n && !seen; i++) seen = (rowCountries[rows[i]] == rowCountries[row]);
+                if(!seen) rows[n++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, n);
+    }
+
+    Location getLocation(int row) {
+        Location l = new Location();
+        l.setZip(getZip(row));
+        l.setCountryCode(getCountryCode(row));
+        l.setCity(rowCities[row] >= 0 ? cities[rowCities[row]] : null);
+        if(!Float.isNaN(latitudes[row])) l.setLatitude(latitudes[row]);
+        if(!Float.isNaN(longitudes[row])) l.setLongitude(longitudes[row]);
+        return l;
+    }
+
+    float getLatitude(int row) {
+        return latitudes[row];
+    }
+
+    float getLongitude(int row) {
+        return longitudes[row];
+    }
+
+    boolean hasCoordinates(int row) {
+        return !Float.isNaN(latitudes[row]) && !Float.isNaN(longitudes[row]);
+    }
+
+    //the arrays are exposed for serialization, and must not be modified
+    String[] zips() {return zips;}
+    int[] zipStart() {return zipStart;}
+    String[] countries() {return countries;}
+    String[] cities() {return cities;}
+    short[] rowCountries() {return rowCountries;}
+    int[] rowCities() {return rowCities;}
+    float[] latitudes() {return latitudes;}
+    float[] longitudes() {return longitudes;}
+
+    ///////// private methods /////////
+
+    private String getZip(int row) {
+        //every zip has at least one row, so zipStart is strictly increasing
+        int z = Arrays.binarySearch(zipStart, row);
+        return zips[z >= 0 ? z : -z - 2];
+    }
+
+    private String getCountryCode(int row) {
+        return rowCountries[row] >= 0 ? countries[rowCountries[row]] : null;
+    }
+
+    //split a tab separated line without regular expressions, missing columns are set to null
+    private static void splitLine(String line, String[] values) {
+        int start = 0;
+        for(int column = 0; column < values.length; column++) {
+            if(start > line.length()) {
+                values[column] = null;
+                continue;
+            }
+            int end = line.indexOf('\t', start);
+            if(end < 0) end = line.length();
+            values[column] = line.substring(start, end);
+            start = end + 1;
+        }
+    }
+
+    private static float parseCoordinate(String value) {
+        if(value == null || value.isEmpty()) return Float.NaN;
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    /*
+     * Collects rows, and sorts them by zip on build.
+     */
+    private static final class Builder {
+        private final Map<String, Integer> zipIds = new HashMap<>();
+        private final Map<String, Integer> countryIds = new HashMap<>();
+        private final Map<String, Integer> cityIds = new HashMap<>();
+        private final List<String> zipList = new ArrayList<>();
+        private final List<String> countryList = new ArrayList<>();
+        private final List<String> cityList = new ArrayList<>();
+
+        private int size = 0;
+        private int[] rowZips = new int[1024];
+        private short[] rowCountries = new short[1024];
+        private int[] rowCities = new int[1024];
+        private float[] latitudes = new float[1024];
+        private float[] longitudes = new float[1024];
+
+        void add(String countryCode, String zip, String city, float latitude, float longitude) {
+            if(zip == null || zip.isEmpty()) return;
+            if(size == rowZips.length) grow();
+            rowZips[size] = id(zip, zipIds, zipList);
+            rowCountries[size] = (short)id(countryCode, countryIds, countryList);
+            rowCities[size] = id(city, cityIds, cityList);
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+        }
+
+        LocationStore build() {
+            //sort zip dictionary, and map old zip ids to the positions in the sorted dictionary
+            String[] zips = zipList.toArray(new String[zipList.size()]);
+            Arrays.sort(zips);
+            int[] sortedIds = new int[zips.length];
+            for(int i = 0; i < zips.length; i++) sortedIds[zipIds.get(zips[i])] = i;
+
+            //stable counting sort of rows by sorted zip id
+            int[] zipStart = new int[zips.length + 1];
+            for(int row = 0; row < size; row++) zipStart[sortedIds[rowZips[row]] + 1]++;
+            for(int i = 1; i < zipStart.length; i++) zipStart[i] += zipStart[i - 1];
+            int[] next = Arrays.copyOf(zipStart, zips.length);
+
+            short[] countries = new short[size];
+            int[] cities = new int[size];
+            float[] lats = new float[size];
+            float[] lons = new float[size];
+            for(int row = 0; row < size; row++) {
+                int pos = next[sortedIds[rowZips[row]]]++;
+                countries[pos] = rowCountries[row];
+                cities[pos] = rowCities[row];
+                lats[pos] = latitudes[row];
+                lons[pos] = longitudes[row];
+            }
+
+            return new LocationStore(zips, zipStart,
+                    countryList.toArray(new String[countryList.size()]),
+                    cityList.toArray(new String[cityList.size()]),
+                    countries, cities, lats, lons);
+        }
+
+        private int id(String value, Map<String, Integer> ids, List<String> dictionary) {
+            if(value == null || value.isEmpty()) return -1;
+            Integer id = ids.get(value);
+            if(id == null) {
+                id = dictionary.size();
+                ids.put(value, id);
+                dictionary.add(value);
+            }
+            return id;
+        }
+
+        private void grow() {
+            int capacity = rowZips.length * 2;
+            rowZips = Arrays.copyOf(rowZips, capacity);
+            rowCountries = Arrays.copyOf(rowCountries, capacity);
+            rowCities = Arrays.copyOf(rowCities, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+        }
+    }
+
+}
@@ -1,19 +1,34 @@
 package com.townwizard.globaldata.service.provider;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import net.sf.ehcache.util.NamedThreadFactory;
 
-import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
+import com.townwizard.db.logger.Log;
 import com.townwizard.db.util.CollectionUtils;
-import com.townwizard.db.util.JSONUtils;
 import com.townwizard.globaldata.connector.FacebookConnector;
 import com.townwizard.globaldata.model.Event;
 import com.townwizard.globaldata.model.Facebook;
@@ -27,31 +42,97 @@ import com.townwizard.globaldata.model.directory.Place;
 @Component("facebookService")
 public class FacebookServiceImpl implements FacebookService {
     
+    private static final String THREAD_NAME_PREFIX = "fb-query";
+    private static final int MAX_CACHED_VENUES = 20000;
+    private static final long VENUE_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+    
     @Autowired
     private FacebookConnector connector;
+    @Autowired
+    private ConfigurationService configurationService;
+    
+    private static ThreadPoolExecutor queryExecutors;
+    
+    //venues by page id; pages without location are cached with null venue
+    private final Map<String, CachedVenue> venues = new LinkedHashMap<String, CachedVenue>(1024, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedVenue> eldest) {
+            return size() > MAX_CACHED_VENUES;
+        }
+    };
+    
+    @PostConstruct
+    public void init() {
+        int numThreads = configurationService.getIntValue(ConfigurationKey.FACEBOOK_NUM_QUERY_THREADS);
+        queryExecutors = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(THREAD_NAME_PREFIX));
+    }
+    
+    public static void shutdownThreads() {
+        if(queryExecutors != null) {
+            Log.info("About to shutdown facebook query executors...");
+            queryExecutors.shutdownNow();
+        }
+    }
 
     /**
-     * Executes two FB queries.
+     * Searches events by terms, no more than FACEBOOK_EVENT_TERMS_PER_QUERY terms per FQL query,
+     * and runs the queries in parallel.
      * 
-     * 1) Gets a list of FB events by running FQL request
-     * 2) Since events are coming witn locations not populated properly, it collect event ids, and
-     * executes pages request by ids to get proper populated locations.
+     * Since events are coming with locations not populated properly, location pages of the events
+     * are requested as soon as each query returns, for the pages whose venues are not cached yet.
+     * Events found by more than one query are returned once.
      */
     @Override
     public List<Event> getEvents(List<String> terms) {
         if(terms.isEmpty()) return Collections.emptyList();
+        
+        int termsPerQuery = Math.max(1, 
+                configurationService.getIntValue(ConfigurationKey.FACEBOOK_EVENT_TERMS_PER_QUERY));
+        CompletionService<QueryResult> completionService = new ExecutorCompletionService<>(queryExecutors);
+        List<Future<QueryResult>> inFlight = new ArrayList<>();
+        for(List<String> batch : CollectionUtils.partition(terms, termsPerQuery)) {
+            inFlight.add(completionService.submit(new EventsQuery(batch)));
+        }
+        
+        List<Event> events = new ArrayList<>();
+        Set<String> eventIds = new HashSet<>();
+        Set<String> pageIds = new HashSet<>();
+        Map<String, Facebook.Venue> eventVenues = new HashMap<>();
         try {
-            String fql = getSearchEventsFql(terms);
-            String json = connector.executeFQL(fql);
-            List<Facebook.Event> fbEvents = jsonToObjects(json, Facebook.Event.class);
-            List<Event> events = ServiceUtils.convertList(fbEvents);
-            List<String> locationIds = collectEventLocationIds(events);
-            List<Facebook.Page> pages = getPagesByIds(locationIds);
-            populateLocations(events, pages);
-            return events;
-        } catch (Exception e) {
+            for(int pending = inFlight.size(); pending > 0; pending--) {
+                QueryResult result = completionService.take().get();
+                if(result.venues != null) {
+                    eventVenues.putAll(result.venues);
+                    continue;
+                }
+                
+                List<String> pagesToRequest = new ArrayList<>();
+                for(Event e : result.events) {
+                    if(e.getId() != null && !eventIds.add(e.getId())) continue;
+                    events.add(e);
+                    String pageId = e.getLocationId();
+                    if(pageId != null && pageIds.add(pageId) && !getCachedVenue(pageId, eventVenues)) {
+                        pagesToRequest.add(pageId);
+                    }
+                }
+                if(!pagesToRequest.isEmpty()) {
+                    inFlight.add(completionService.submit(new PagesQuery(pagesToRequest)));
+                    pending++;
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(inFlight);
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            cancel(inFlight);
+            throw new RuntimeException(e.getCause());
         }
+        
+        populateLocations(events, eventVenues);
+        return events;
     }
     
     /**
@@ -60,8 +141,8 @@ public class FacebookServiceImpl implements FacebookService {
     @Override
     public List<Place> getPlaces(double latitude, double longitude, int distanceInMeters) {
         try {
-            String json = connector.executeLocationsRequest(latitude, longitude, distanceInMeters);
-            List<Facebook.Location> fbObjects = jsonToObjects(json, Facebook.Location.class);
+            List<Facebook.Location> fbObjects = connector.executeLocationsRequest(
+                    latitude, longitude, distanceInMeters, Facebook.Location.class);
             List<Place> objects = ServiceUtils.convertList(fbObjects);
             return objects;
         } catch(Exception e) {
@@ -84,54 +165,109 @@ public class FacebookServiceImpl implements FacebookService {
         return fql;
     }
 
-    private List<String> collectEventLocationIds(List<Event> events) {
-        List<String> locationIds = new ArrayList<>(events.size());
-        for(Event e : events) {
-            String locationId = e.getLocationId();
-            if(locationId != null) {
-                locationIds.add(locationId);
-            }
-        }
-        return locationIds;
-    }
-
-    private List<Facebook.Page> getPagesByIds(List<String> pageIds) {
+    private List<Facebook.Page> getPagesByIds(List<String> pageIds) throws Exception {
         if(pageIds.isEmpty()) return Collections.emptyList();
-        try {
-            String fql = 
-                    "SELECT page_id, location " + 
-                    "FROM page WHERE page_id in (" + CollectionUtils.join(pageIds, ",", "'") + ")";
-            String json = connector.executeFQL(fql);
-            return jsonToObjects(json, Facebook.Page.class);
-        } catch(Exception e) {
-            throw new RuntimeException(e);
+        String fql = 
+                "SELECT page_id, location " + 
+                "FROM page WHERE page_id in (" + CollectionUtils.join(pageIds, ",", "'") + ")";
+        return connector.executeFQL(fql, Facebook.Page.class);
+    }
+    
+    /*
+     * Put the venue of the page to the map and return true if the page is cached
+     */
+    private boolean getCachedVenue(String pageId, Map<String, Facebook.Venue> eventVenues) {
+        synchronized (venues) {
+            CachedVenue cached = venues.get(pageId);
+            if(cached == null) return false;
+            if(cached.expires < System.currentTimeMillis()) {
+                venues.remove(pageId);
+                return false;
+            }
+            if(cached.venue != null) eventVenues.put(pageId, cached.venue);
+            return true;
         }
     }
     
-    private void populateLocations(List<Event> events, List<Facebook.Page> pages) {
-        Map<String, Facebook.Venue> locationsMap = new HashMap<>();
-        
-        for(Facebook.Page p : pages) {
-            Facebook.Venue location = p.getLocation();
-            if(location != null) {
-                locationsMap.put(p.getPage_id(), location);
+    private void cacheVenues(Collection<String> pageIds, Map<String, Facebook.Venue> pageVenues) {
+        long expires = System.currentTimeMillis() + VENUE_TTL_MILLIS;
+        synchronized (venues) {
+            for(String pageId : pageIds) {
+                venues.put(pageId, new CachedVenue(pageVenues.get(pageId), expires));
             }
         }
-        
+    }
+    
+    private void populateLocations(List<Event> events, Map<String, Facebook.Venue> eventVenues) {
         for(Event e : events) {            
             String locationId = e.getLocationId();
-            Facebook.Venue v = locationsMap.get(locationId);
+            Facebook.Venue v = locationId != null ? eventVenues.get(locationId) : null;
             if(v != null) {
                 v.fillEvent(e);
             }            
         }        
     }
     
-    private <T> List<T> jsonToObjects (String json, Class<T> objectClass) 
-            throws JSONException, IllegalAccessException, InstantiationException {
-        JSONObject j = new JSONObject(json);        
-        JSONArray data = j.getJSONArray("data");
-        return JSONUtils.jsonToObjects(data, objectClass);
+    private void cancel(List<Future<QueryResult>> inFlight) {
+        for(Future<QueryResult> f : inFlight) f.cancel(true);
+    }
+    
+    /*
+     * Result of an events query (events), or of a pages query (venues by page id)
+     */
+    private static final class QueryResult {
+        final List<Event> events;
+        final Map<String, Facebook.Venue> venues;
+        
+        QueryResult(List<Event> events, Map<String, Facebook.Venue> venues) {
+            this.events = events;
+            this.venues = venues;
+        }
+    }
+    
+    private final class EventsQuery implements Callable<QueryResult> {
+        private final List<String> terms;
+        
+        EventsQuery(List<String> terms) {
+            this.terms = terms;
+        }
+        
+        @Override
+        public QueryResult call() throws Exception {
+            List<Facebook.Event> fbEvents = connector.executeFQL(getSearchEventsFql(terms), Facebook.Event.class);
+            List<Event> events = ServiceUtils.convertList(fbEvents);
+            return new QueryResult(events, null);
+        }
+    }
+    
+    private final class PagesQuery implements Callable<QueryResult> {
+        private final List<String> pageIds;
+        
+        PagesQuery(List<String> pageIds) {
+            this.pageIds = pageIds;
+        }
+        
+        @Override
+        public QueryResult call() throws Exception {
+            Map<String, Facebook.Venue> pageVenues = new HashMap<>();
+            for(Facebook.Page p : getPagesByIds(pageIds)) {
+                if(p.getLocation() != null) {
+                    pageVenues.put(p.getPage_id(), p.getLocation());
+                }
+            }
+            cacheVenues(pageIds, pageVenues);
+            return new QueryResult(null, pageVenues);
+        }
+    }
+    
+    private static final class CachedVenue {
+        final Facebook.Venue venue;
+        final long expires;
+        
+        CachedVenue(Facebook.Venue venue, long expires) {
+            this.venue = venue;
+            this.expires = expires;
+        }
     }
 
 }
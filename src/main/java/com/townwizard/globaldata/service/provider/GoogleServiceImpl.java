@@ -1,14 +1,17 @@
 package com.townwizard.globaldata.service.provider;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.townwizard.db.util.HttpUtils;
 import com.townwizard.db.util.JSONUtils;
 import com.townwizard.globaldata.connector.GoogleConnector;
 import com.townwizard.globaldata.model.Google;
@@ -20,6 +23,8 @@ import com.townwizard.globaldata.model.directory.Place;
 @Component("googleService")
 public class GoogleServiceImpl implements GoogleService {
     
+    private static final HttpUtils.ResponseReader<Page> PAGE_READER = new PageReader();
+    
     @Autowired
     private GoogleConnector connector;
 
@@ -33,32 +38,54 @@ public class GoogleServiceImpl implements GoogleService {
         try {
             List<Place> finalList = new ArrayList<>(20);
 
-            String json = connector.executePlacesNearbyRequest(
-                    latitude, longitude, distanceInMeters, null, null);
-
-            JSONObject j = new JSONObject(json);
-            List<Google.Location> gObjects = jsonToObjects(j, Google.Location.class);
-            finalList.addAll(ServiceUtils.convertList(gObjects));
+            Page page = connector.executePlacesNearbyRequest(
+                    latitude, longitude, distanceInMeters, null, null, PAGE_READER);
+            finalList.addAll(ServiceUtils.convertList(page.results));
 
             int i = 0;
             while (true) {
-                String nextPageToken = j.optString("next_page_token");
+                String nextPageToken = page.nextPageToken;
                 if (nextPageToken == null || nextPageToken.isEmpty() || i > 10) break;
-                json = connector.executePlacesNearbyPageTokenRequest(nextPageToken);
-                j = new JSONObject(json);
-                gObjects = jsonToObjects(j, Google.Location.class);
-                finalList.addAll(ServiceUtils.convertList(gObjects));
+                page = connector.executePlacesNearbyPageTokenRequest(nextPageToken, PAGE_READER);
+                finalList.addAll(ServiceUtils.convertList(page.results));
             }
             return finalList;            
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
-    }    
+    }
+    
+    private static final class Page {
+        List<Google.Location> results = Collections.emptyList();
+        String nextPageToken;
+    }
     
-    private <T> List<T> jsonToObjects (JSONObject j, Class<T> objectClass) 
-            throws JSONException, IllegalAccessException, InstantiationException {
-        JSONArray data = j.getJSONArray("results");
-        return JSONUtils.jsonToObjects(data, objectClass);
+    /*
+     * Streams the "results" array and the "next_page_token" out of the places response
+     */
+    private static final class PageReader implements HttpUtils.ResponseReader<Page> {
+        @Override
+        public Page read(InputStream in) throws IOException {
+            Page page = new Page();
+            JsonParser parser = JSONUtils.createParser(in);
+            try {
+                if(parser.nextToken() != JsonToken.START_OBJECT) return page;
+                while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if("results".equals(name)) {
+                        page.results = JSONUtils.readObjectArray(parser, Google.Location.class);
+                    } else if("next_page_token".equals(name)) {
+                        page.nextPageToken = JSONUtils.readText(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                return page;
+            } finally {
+                parser.close();
+            }
+        }
     }
 
 }
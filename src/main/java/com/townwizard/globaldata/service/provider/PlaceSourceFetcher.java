@@ -0,0 +1,122 @@
+package com.townwizard.globaldata.service.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationService;
+import com.townwizard.db.util.SingleFlightCache;
+import com.townwizard.globaldata.model.directory.Place;
+
+/**
+ * Fetches places from the place source (Yellow Pages) on behalf of user requests and
+ * place ingest HTTP executors.
+ *
+ * Concurrent identical fetches (same provider, zip, term and page) share one request to the source,
+ * and the fetched places are kept for a short time.  Terms are matched case insensitively.
+ * Fetches of all pages and fetches of single pages are kept apart, so a background ingest (which
+ * fetches all pages) reuses only the places of user requests which fetched all pages as well,
+ * that is when directory paging is off.
+ *
+ * Every caller gets its own copies of the places, as callers modify them.
+ */
+@Component("placeSourceFetcher")
+public final class PlaceSourceFetcher {
+
+    private static final int MAX_CACHED_FETCHES = 500;
+    private static final int ALL_PAGES = -1;
+
+    @Autowired private YellowPagesService yellowPagesService;
+    @Autowired private ConfigurationService configurationService;
+
+    private final SingleFlightCache<FetchKey, List<Place>> fetches =
+            new SingleFlightCache<>(MAX_CACHED_FETCHES);
+
+    /**
+     * Get all places for the zip and term
+     */
+    public List<Place> getPlaces(final String zip, String countryCode, final String term) throws Exception {
+        FetchKey key = new FetchKey(Place.Source.YELLOW_PAGES, zip, term, ALL_PAGES, 0);
+        return copy(fetch(key, new Callable<List<Place>>() {
+            @Override
+            public List<Place> call() throws Exception {
+                return yellowPagesService.getPlaces(zip, term);
+            }
+        }), countryCode);
+    }
+
+    /**
+     * Get one page of places for the zip and term
+     */
+    public List<Place> getPageOfPlaces(final String zip, String countryCode, final String term,
+            final int pageNum, final int listingCount) throws Exception {
+        FetchKey key = new FetchKey(Place.Source.YELLOW_PAGES, zip, term, pageNum, listingCount);
+        return copy(fetch(key, new Callable<List<Place>>() {
+            @Override
+            public List<Place> call() throws Exception {
+                return yellowPagesService.getPageOfPlaces(zip, term, pageNum, listingCount);
+            }
+        }), countryCode);
+    }
+
+    ///////// private methods /////////
+
+    private List<Place> fetch(FetchKey key, Callable<List<Place>> loader) throws Exception {
+        long ttl = configurationService.getIntValue(ConfigurationKey.PLACE_SOURCE_RESULT_TTL_SECONDS) * 1000L;
+        return fetches.get(key, ttl, loader);
+    }
+
+    private static List<Place> copy(List<Place> places, String countryCode) {
+        List<Place> copies = new ArrayList<>(places.size());
+        for(Place p : places) {
+            Place c = p.copy();
+            c.setCountryCode(countryCode);
+            copies.add(c);
+        }
+        return copies;
+    }
+
+    /*
+     * Identifies a fetch: provider, zip, term, and page (page number and size).
+     * Terms are matched case insensitively, as in the ingest cache
+     */
+    private static final class FetchKey {
+        private final Place.Source provider;
+        private final String zip;
+        private final String term;
+        private final int pageNum;
+        private final int pageSize;
+
+        FetchKey(Place.Source provider, String zip, String term, int pageNum, int pageSize) {
+            this.provider = provider;
+            this.zip = zip;
+            this.term = term != null ? term.toLowerCase() : null;
+            this.pageNum = pageNum;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = provider.hashCode();
+            result = 31 * result + (zip != null ? zip.hashCode() : 0);
+            result = 31 * result + (term != null ? term.hashCode() : 0);
+            result = 31 * result + pageNum;
+            return 31 * result + pageSize;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) return true;
+            if(!(obj instanceof FetchKey)) return false;
+            FetchKey k = (FetchKey)obj;
+            return provider == k.provider && pageNum == k.pageNum && pageSize == k.pageSize &&
+                   (zip != null ? zip.equals(k.zip) : k.zip == null) &&
+                   (term != null ? term.equals(k.term) : k.term == null);
+        }
+    }
+
+}
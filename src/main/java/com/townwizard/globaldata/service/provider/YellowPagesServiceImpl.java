@@ -1,17 +1,32 @@
 package com.townwizard.globaldata.service.provider;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import net.sf.ehcache.util.NamedThreadFactory;
 
-import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationListener;
+import com.townwizard.db.configuration.ConfigurationService;
 import com.townwizard.db.constants.Constants;
 import com.townwizard.db.logger.Log;
+import com.townwizard.db.util.HttpUtils;
 import com.townwizard.db.util.JSONUtils;
 import com.townwizard.globaldata.connector.YellowPagesConnector;
 import com.townwizard.globaldata.model.YellowPages;
@@ -21,78 +36,196 @@ import com.townwizard.globaldata.model.directory.Place;
  * Yellow Pages service implementation
  */
 @Component("yellowPagesService")
-public class YellowPagesServiceImpl implements YellowPagesService {
+public class YellowPagesServiceImpl implements YellowPagesService, ConfigurationListener {
     
     private static final int NUM_PLACES_IN_RESPONSE = 50;
     private static final int MAX_PAGES = 15;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final String THREAD_NAME_PREFIX = "yp-page-fetcher";
+    private static final HttpUtils.ResponseReader<List<YellowPages.Location>> LOCATIONS_READER =
+            JSONUtils.objectsReader(YellowPages.Location.class, 
+                    "searchResult", "searchListings", "searchListing");
     
     @Autowired
     private YellowPagesConnector connector;
+    @Autowired
+    private ConfigurationService configurationService;
+    
+    private static ThreadPoolExecutor pageFetchers;
+    
+    @PostConstruct
+    public void init() {
+        int numThreads = configurationService.getIntValue(ConfigurationKey.YELLOW_PAGES_NUM_PAGE_FETCHERS);
+        pageFetchers = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(THREAD_NAME_PREFIX));
+        configurationService.addConfigurationListener(this);
+    }
+    
+    @Override
+    public ConfigurationKey[] keysOfInterest() {
+        return new ConfigurationKey[] {ConfigurationKey.YELLOW_PAGES_NUM_PAGE_FETCHERS};
+    }
+
+    @Override
+    public void configurationChanged(ConfigurationKey key) {
+        int numThreads = configurationService.getIntValue(key);
+        if(numThreads < 1) return;
+        synchronized (pageFetchers) {
+            if(numThreads > pageFetchers.getMaximumPoolSize()) {
+                pageFetchers.setMaximumPoolSize(numThreads);
+                pageFetchers.setCorePoolSize(numThreads);
+            } else {
+                pageFetchers.setCorePoolSize(numThreads);
+                pageFetchers.setMaximumPoolSize(numThreads);
+            }
+        }
+        Log.info("Yellow pages page fetchers pool size changed to: " + numThreads);
+    }
+    
+    public static void shutdownThreads() {
+        if(pageFetchers != null) {
+            Log.info("About to shutdown yellow pages page fetchers...");
+            pageFetchers.shutdownNow();
+            
+            try {
+                if(!pageFetchers.awaitTermination(30, TimeUnit.SECONDS)) {
+                    Log.warning("Cannot terminate yellow pages page fetchers...");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
     
     @Override
     public List<Place> getPageOfPlaces(String zip, String term, int pageNum, int listingCount) {
         try {
-            String json = connector.executePlacesRequest(
-                    term, zip, Constants.PLACE_DISTANCE_IN_MILES, pageNum, listingCount);
-            return jsonToPlaces(json);
+            return getPage(zip, term, pageNum, listingCount);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Executes one HTTP request to get locations
+     * Fetches the first page of locations, and if it is full, fetches next pages in parallel,
+     * no more than YELLOW_PAGES_PAGE_FAN_OUT pages at a time.
+     * 
+     * As soon as a short page comes (less than NUM_PLACES_IN_RESPONSE places), the pages after it
+     * are cancelled.  Every page is retried separately.
      */
     @Override
     public List<Place> getPlaces(String zip, String term) {
+        List<Place> firstPage = getPageWithRetry(zip, term, 0);
+        if(firstPage.size() < NUM_PLACES_IN_RESPONSE) return firstPage;
+
+        int fanOut = Math.max(1, configurationService.getIntValue(ConfigurationKey.YELLOW_PAGES_PAGE_FAN_OUT));
+        CompletionService<PageResult> completionService = new ExecutorCompletionService<>(pageFetchers);
+        Map<Integer, Future<PageResult>> inFlight = new HashMap<>();
+        Map<Integer, List<Place>> pages = new HashMap<>();
+        pages.put(0, firstPage);
+        
+        int nextPage = 1;
+        int endPage = MAX_PAGES;  //exclusive, shrinks when a short page comes
+        try {
+            while(true) {
+                while(nextPage < endPage && inFlight.size() < fanOut) {
+                    inFlight.put(nextPage, completionService.submit(new PageFetch(zip, term, nextPage)));
+                    nextPage++;
+                }
+                if(inFlight.isEmpty()) break;
+                
+                Future<PageResult> done = completionService.take();
+                if(done.isCancelled()) continue;
+                PageResult result = done.get();
+                inFlight.remove(result.pageNum);
+                if(result.pageNum >= endPage) continue;
+                pages.put(result.pageNum, result.places);
+                if(result.places.size() < NUM_PLACES_IN_RESPONSE) {
+                    endPage = result.pageNum + 1;
+                    cancelPagesFrom(inFlight, endPage);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelPagesFrom(inFlight, 0);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            cancelPagesFrom(inFlight, 0);
+            Log.warning("Could not get YP places for zip " + zip + " and term '" + term + "'");
+            throw new RuntimeException(e.getCause());
+        }
+        
         List<Place> finalResult = new ArrayList<>();
+        for(int page = 0; page < endPage; page++) {
+            List<Place> places = pages.get(page);
+            if(places != null) finalResult.addAll(places);
+        }
+        return finalResult;
+    }
+
+    private List<Place> getPage(String zip, String term, int pageNum, int listingCount) throws Exception {
+        List<YellowPages.Location> ypObjects = connector.executePlacesRequest(
+                term, zip, Constants.PLACE_DISTANCE_IN_MILES, pageNum, listingCount, LOCATIONS_READER);
+        return ServiceUtils.convertList(ypObjects);
+    }
+    
+    private List<Place> getPageWithRetry(String zip, String term, int pageNum) {
         Exception ex = null;
-        
-        for(int attempt = 1; attempt <= 3; attempt++) {
+        for(int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
             try {
-                List<Place> result = null;
-                int page = 0;
-                do {
-                    String json = connector.executePlacesRequest(
-                            term, zip, Constants.PLACE_DISTANCE_IN_MILES, page, NUM_PLACES_IN_RESPONSE);
-                    result = jsonToPlaces(json);
-                    finalResult.addAll(result);
-                    page++;
-                } while(page < MAX_PAGES  && result.size() >= NUM_PLACES_IN_RESPONSE);
-                
+                List<Place> result = getPage(zip, term, pageNum, NUM_PLACES_IN_RESPONSE);
                 if(attempt > 1) {
-                    Log.warning("Successfully retrieved places for zip '" + zip + 
+                    Log.warning("Successfully retrieved page " + pageNum + " of places for zip '" + zip + 
                             "' and term '" + term  + "'" + " after attempt " + attempt);
                 }
-                return finalResult;
+                return result;
             } catch (Exception e) {
-                Log.warning("Exception happend while getting YP places for zip " + zip + 
-                        " and term '" + term + "' " + "on attempt " + attempt);
+                Log.warning("Exception happend while getting page " + pageNum + " of YP places for zip " + 
+                        zip + " and term '" + term + "' " + "on attempt " + attempt);
                 ex = e;
             }
         }
 
-        Log.warning("Could not get YP places for zip " + zip + " and term '" + term + "'");
+        Log.warning("Could not get page " + pageNum + " of YP places for zip " + zip + " and term '" + term + "'");
         throw new RuntimeException(ex);
     }
-
-    private <T> List<T> jsonToObjects (String json, Class<T> objectClass) 
-            throws JSONException, IllegalAccessException, InstantiationException {        
-        JSONObject j = new JSONObject(json);
-        JSONObject searchResult = j.optJSONObject("searchResult");
-        if(searchResult != null) {
-            JSONObject searchListings = searchResult.optJSONObject("searchListings");
-            if(searchListings != null) { 
-                JSONArray data = searchListings.getJSONArray("searchListing");
-                return JSONUtils.jsonToObjects(data, objectClass);
+    
+    private void cancelPagesFrom(Map<Integer, Future<PageResult>> inFlight, int fromPage) {
+        Iterator<Map.Entry<Integer, Future<PageResult>>> i = inFlight.entrySet().iterator();
+        while(i.hasNext()) {
+            Map.Entry<Integer, Future<PageResult>> e = i.next();
+            if(e.getKey() >= fromPage) {
+                e.getValue().cancel(true);
+                i.remove();
             }
         }
-        return Collections.emptyList();
     }
     
-    private List<Place> jsonToPlaces(String json) throws Exception {
-        List<YellowPages.Location> gObjects = jsonToObjects(json, YellowPages.Location.class);
-        return ServiceUtils.convertList(gObjects);        
+    private static final class PageResult {
+        final int pageNum;
+        final List<Place> places;
+        
+        PageResult(int pageNum, List<Place> places) {
+            this.pageNum = pageNum;
+            this.places = places;
+        }
+    }
+    
+    private final class PageFetch implements Callable<PageResult> {
+        private final String zip;
+        private final String term;
+        private final int pageNum;
+        
+        PageFetch(String zip, String term, int pageNum) {
+            this.zip = zip;
+            this.term = term;
+            this.pageNum = pageNum;
+        }
+
+        @Override
+        public PageResult call() {
+            return new PageResult(pageNum, getPageWithRetry(zip, term, pageNum));
+        }
     }
 
 }
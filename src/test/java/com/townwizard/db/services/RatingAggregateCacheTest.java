@@ -0,0 +1,155 @@
+package com.townwizard.db.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.model.Content;
+import com.townwizard.db.model.Content.ContentType;
+import com.townwizard.db.services.RatingAggregateCache.Aggregate;
+import com.townwizard.db.test.TestConfigurationService;
+
+public class RatingAggregateCacheTest {
+
+    private static final Integer SITE_ID = 1;
+    private static final Long CONTENT_ID = 10L;
+    private static final Long EXTERNAL_ID = 100L;
+
+    private TestConfigurationService configuration;
+    private RatingAggregateCache cache;
+    private Content content;
+
+    @Before
+    public void createCache() {
+        configuration = new TestConfigurationService();
+        cache = configuration.injectInto(new RatingAggregateCache());
+        content = new Content();
+        content.setId(CONTENT_ID);
+        content.setSiteId(SITE_ID);
+        content.setContentType(ContentType.LOCATION);
+        content.setExternalId(EXTERNAL_ID);
+    }
+
+    @After
+    public void clearSynchronization() {
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testPutAllAndGet() {
+        putAggregate(7.0, 2);
+        Aggregate a = get();
+        assertNotNull("Loaded aggregate should be cached", a);
+        assertEquals("Content id should be cached", CONTENT_ID, a.getContentId());
+        assertEquals("Rating count should be cached", 2, a.getCount());
+        assertEquals("Average should be the sum over the count", 3.5f, a.getAverage(), 0);
+        assertNull("Aggregate of another content type should not be found",
+                cache.get(SITE_ID, ContentType.EVENT, EXTERNAL_ID));
+
+        cache.putAll(cache.getVersion(), SITE_ID, ContentType.LOCATION,
+                Collections.singletonMap(200L, new Aggregate(null, 0, 0)));
+        assertNull("Content without ratings should have no average",
+                cache.get(SITE_ID, ContentType.LOCATION, 200L).getAverage());
+    }
+
+    @Test
+    public void testCacheIsDisabledWithoutTtl() {
+        configuration.save(ConfigurationKey.RATING_AGGREGATE_TTL_SECONDS, 0);
+        putAggregate(7.0, 2);
+        assertEquals("Nothing should be cached", 0, cache.size());
+        assertNull("Nothing should be found", get());
+    }
+
+    @Test
+    public void testSavedRatingsUpdateAggregate() {
+        putAggregate(7.0, 2);
+
+        cache.ratingSaved(content, null, 5f);
+        assertEquals("New rating should be counted", 3, get().getCount());
+        assertEquals("New rating should be added to the sum", 4f, get().getAverage(), 0);
+
+        cache.ratingSaved(content, 5f, 2f);
+        assertEquals("Changed rating should not be counted again", 3, get().getCount());
+        assertEquals("Changed rating should change the sum", 3f, get().getAverage(), 0);
+
+        cache.ratingSaved(content, 2f, null);
+        assertNull("Aggregate should be dropped when a rating is removed", get());
+    }
+
+    @Test
+    public void testRatingIsAppliedOnCommit() {
+        putAggregate(7.0, 2);
+        TransactionSynchronizationManager.initSynchronization();
+        cache.ratingSaved(content, null, 5f);
+        assertEquals("Rating should not be applied before commit", 2, get().getCount());
+
+        long version = cache.getVersion();
+        cache.putAll(version, SITE_ID, ContentType.LOCATION, loaded(9.0, 3));
+        assertEquals("Aggregate loaded while a rating is being saved should not be cached", 2, get().getCount());
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertEquals("Rating should be applied on commit", 3, get().getCount());
+        assertEquals("Rating should be added to the sum on commit", 4f, get().getAverage(), 0);
+    }
+
+    @Test
+    public void testRatingIsNotAppliedOnRollback() {
+        putAggregate(7.0, 2);
+        TransactionSynchronizationManager.initSynchronization();
+        cache.ratingSaved(content, null, 5f);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertEquals("Rolled back rating should not be applied", 2, get().getCount());
+
+        putAggregate(9.0, 3);
+        assertEquals("Aggregates should be cached again after the rollback", 3, get().getCount());
+    }
+
+    @Test
+    public void testLoadOverlappingCommitIsNotCached() {
+        long version = cache.getVersion();
+        cache.ratingSaved(content, null, 5f);
+        cache.putAll(version, SITE_ID, ContentType.LOCATION, loaded(7.0, 2));
+        assertNull("Aggregate loaded before a rating was committed should not be cached", get());
+
+        //the rating is saved and committed while the aggregate is being loaded
+        TransactionSynchronizationManager.initSynchronization();
+        cache.ratingSaved(content, null, 5f);
+        version = cache.getVersion();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        cache.putAll(version, SITE_ID, ContentType.LOCATION, loaded(7.0, 2));
+        assertNull("Aggregate loaded before the rating transaction completed should not be cached", get());
+    }
+
+    private Aggregate get() {
+        return cache.get(SITE_ID, ContentType.LOCATION, EXTERNAL_ID);
+    }
+
+    private void putAggregate(double sum, long count) {
+        cache.putAll(cache.getVersion(), SITE_ID, ContentType.LOCATION, loaded(sum, count));
+    }
+
+    private static Map<Long, Aggregate> loaded(double sum, long count) {
+        return Collections.singletonMap(EXTERNAL_ID, new Aggregate(CONTENT_ID, sum, count));
+    }
+
+    //complete the current transaction, as the transaction manager would
+    private static void complete(int status) {
+        for(TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+            s.afterCompletion(status);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.townwizard.db.test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.ReflectionUtils;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.configuration.ConfigurationListener;
+import com.townwizard.db.configuration.ConfigurationService;
+
+/**
+ * In-memory configuration service for unit tests which don't need the DB.
+ * Keys which were not saved have their default values.
+ */
+public class TestConfigurationService implements ConfigurationService {
+    
+    private final Map<String, String> values = new HashMap<>();
+    private final List<ConfigurationListener> listeners = new ArrayList<>();
+    
+    /**
+     * Set the configurationService field of a component, as Spring would autowire it
+     */
+    public <T> T injectInto(T component) {
+        Field field = ReflectionUtils.findField(component.getClass(), "configurationService");
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, component, this);
+        return component;
+    }
+    
+    public void save(ConfigurationKey key, Object value) {
+        save(key.getKey(), value.toString());
+    }
+
+    @Override
+    public void save(String key, String value) {
+        values.put(key, value);
+        notifyListeners(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        values.remove(key);
+        notifyListeners(key);
+    }
+
+    @Override
+    public String getStringValue(ConfigurationKey key) {
+        String value = values.get(key.getKey());
+        return value != null ? value : (String)key.getDefaultValue();
+    }
+
+    @Override
+    public int getIntValue(ConfigurationKey key) {
+        String value = values.get(key.getKey());
+        return value != null ? Integer.parseInt(value) : (Integer)key.getDefaultValue();
+    }
+
+    @Override
+    public boolean getBooleanValue(ConfigurationKey key) {
+        String value = values.get(key.getKey());
+        return value != null ? Boolean.parseBoolean(value) : (Boolean)key.getDefaultValue();
+    }
+
+    @Override
+    public void addConfigurationListener(ConfigurationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return ConfigurationKey.byKey(key) != null;
+    }
+    
+    private void notifyListeners(String key) {
+        ConfigurationKey cKey = ConfigurationKey.byKey(key);
+        for(ConfigurationListener l : listeners) {
+            if(Arrays.asList(l.keysOfInterest()).contains(cKey)) {
+                l.configurationChanged(cKey);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.townwizard.db.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightCacheTest {
+
+    private static final int THREADS = 8;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentLoadsAreCoalesced() throws Exception {
+        final SingleFlightCache<String, String> cache = new SingleFlightCache<>(100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                return new String("value");
+            }
+        };
+
+        List<Future<String>> results = getConcurrently(cache, "key", loader);
+        awaitJoins(cache, THREADS - 1);
+        release.countDown();
+
+        String first = results.get(0).get(10, TimeUnit.SECONDS);
+        for(Future<String> f : results) {
+            assertSame("All threads should share the loaded value", first, f.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals("Loader should be called once", 1, calls.get());
+        assertEquals("One load should be counted", 1, cache.getLoadCount());
+        assertEquals("Other threads should join the load", THREADS - 1, cache.getJoinCount());
+    }
+
+    @Test
+    public void testFailureIsPropagatedAndNotCached() throws Exception {
+        final SingleFlightCache<String, String> cache = new SingleFlightCache<>(100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final IOException failure = new IOException("provider is down");
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> failingLoader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                throw failure;
+            }
+        };
+
+        List<Future<String>> results = getConcurrently(cache, "key", failingLoader);
+        awaitJoins(cache, THREADS - 1);
+        release.countDown();
+
+        for(Future<String> f : results) {
+            try {
+                f.get(10, TimeUnit.SECONDS);
+                fail("Load failure should be thrown to every waiting thread");
+            } catch (ExecutionException e) {
+                assertSame("Loader exception should be thrown as is", failure, e.getCause());
+            }
+        }
+        assertEquals("Failing loader should be called once", 1, calls.get());
+        assertEquals("Failed load should not be cached", 0, cache.size());
+
+        assertEquals("Key should be loaded again after a failure",
+                "value", cache.get("key", 60000, constant("value")));
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(100);
+        assertEquals("Value should be loaded", "first", cache.get("cached", 60000, constant("first")));
+        assertEquals("Value should be cached", "first", cache.get("cached", 60000, constant("second")));
+        assertEquals("Cache hit should be counted", 1, cache.getHitCount());
+
+        assertEquals("Value should be loaded", "first", cache.get("uncached", 0, constant("first")));
+        assertEquals("Value without TTL should not be cached", "second", cache.get("uncached", 0, constant("second")));
+
+        assertEquals("Value should be loaded", "first", cache.get("expiring", 1, constant("first")));
+        Thread.sleep(20);
+        assertEquals("Expired value should be loaded again", "second", cache.get("expiring", 1, constant("second")));
+
+        cache.invalidate("cached");
+        assertEquals("Invalidated value should be loaded again", "third", cache.get("cached", 60000, constant("third")));
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        SingleFlightCache<Integer, Integer> cache = new SingleFlightCache<>(10);
+        for(int i = 0; i < 100; i++) {
+            assertEquals("Value should be loaded", i, (int)cache.get(i, 60000, constant(i)));
+            assertTrue("Cache should not grow over the max size", cache.size() <= 10);
+        }
+        assertEquals("The last key should be cached", 99, (int)cache.get(99, 60000, constant(-1)));
+    }
+
+    private List<Future<String>> getConcurrently(final SingleFlightCache<String, String> cache,
+            final String key, final Callable<String> loader) {
+        List<Future<String>> results = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return cache.get(key, 60000, loader);
+                }
+            }));
+        }
+        return results;
+    }
+
+    //wait until the threads which didn't start the load are waiting for it
+    private static void awaitJoins(SingleFlightCache<?, ?> cache, int joins) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(cache.getJoinCount() < joins) {
+            assertTrue("Threads should join the load in flight", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static <V> Callable<V> constant(final V value) {
+        return new Callable<V>() {
+            @Override
+            public V call() {
+                return value;
+            }
+        };
+    }
+
+}
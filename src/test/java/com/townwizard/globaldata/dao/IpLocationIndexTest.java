@@ -0,0 +1,111 @@
+package com.townwizard.globaldata.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.townwizard.db.util.StringUtils;
+import com.townwizard.globaldata.model.CityLocation;
+
+public class IpLocationIndexTest {
+
+    @Test
+    public void testFind() {
+        IpLocationIndex.Builder builder = new IpLocationIndex.Builder();
+        builder.addLocation(1, "New York", "10001", "US", 40.75, -73.99);
+        builder.addLocation(2, "Toronto", null, "CA", null, null);
+        builder.addLocation(3, "Jersey City", "07302", "US", 40.72, -74.05);
+        builder.addBlock(ip("1.0.0.0"), ip("1.0.0.255"), 1);
+        builder.addBlock(ip("1.0.2.0"), ip("1.0.3.255"), 2);
+        builder.addBlock(ip("1.0.4.0"), ip("1.0.4.0"), 99);
+        builder.addBlock(ip("2.0.0.0"), ip("2.255.255.255"), 3);
+        IpLocationIndex index = builder.build();
+        assertEquals("All blocks should be indexed", 4, index.numBlocks());
+        assertEquals("All locations should be indexed", 3, index.numLocations());
+
+        CityLocation l = index.find(ip("1.0.0.17"));
+        assertEquals("City should be found", "New York", l.getCity());
+        assertEquals("Postal code should be found", "10001", l.getPostalCode());
+        assertEquals("Country code should be found", "US", l.getCountryCode());
+        assertEquals("Latitude should be found", 40.75, l.getLatitude(), 0);
+        assertEquals("Longitude should be found", -73.99, l.getLongitude(), 0);
+
+        assertEquals("Block start should be in the block", "New York", index.find(ip("1.0.0.0")).getCity());
+        assertEquals("Block end should be in the block", "New York", index.find(ip("1.0.0.255")).getCity());
+        assertEquals("Last block should be found", "Jersey City", index.find(ip("2.128.0.1")).getCity());
+
+        l = index.find(ip("1.0.3.1"));
+        assertEquals("Location without coordinates should be found", "Toronto", l.getCity());
+        assertNull("Unknown postal code should be null", l.getPostalCode());
+        assertNull("Unknown latitude should be null", l.getLatitude());
+        assertNull("Unknown longitude should be null", l.getLongitude());
+
+        assertNull("IP before the first block should not be found", index.find(ip("0.255.255.255")));
+        assertNull("IP between blocks should not be found", index.find(ip("1.0.1.0")));
+        assertNull("IP of a block with unknown location should not be found", index.find(ip("1.0.4.0")));
+        assertNull("IP after the last block should not be found", index.find(ip("3.0.0.0")));
+    }
+
+    @Test
+    public void testFindMatchesLinearScan() {
+        Random random = new Random(42);
+        int numLocations = 3000;
+        int numBlocks = 5000;
+        int[] starts = new int[numBlocks];
+        int[] ends = new int[numBlocks];
+        int[] locationIds = new int[numBlocks];
+
+        IpLocationIndex.Builder builder = new IpLocationIndex.Builder();
+        for(int id = 1; id <= numLocations; id++) {
+            builder.addLocation(id * 2, "City " + id, null, (id % 2 == 0) ? "US" : "CA", null, null);
+        }
+        int ip = 1000;
+        for(int i = 0; i < numBlocks; i++) {
+            ip += random.nextInt(3) * 100;  //blocks are either adjacent or have gaps between them
+            starts[i] = ip;
+            ends[i] = ip + random.nextInt(200);
+            locationIds[i] = 1 + random.nextInt(numLocations * 2);
+            builder.addBlock(starts[i], ends[i], locationIds[i]);
+            ip = ends[i] + 1;
+        }
+        IpLocationIndex index = builder.build();
+
+        for(int i = 0; i < 20000; i++) {
+            int query = 900 + random.nextInt(ip - 800);
+            String expected = null;
+            for(int b = 0; b < numBlocks; b++) {
+                if(starts[b] <= query && query <= ends[b]) {
+                    expected = (locationIds[b] % 2 == 0) ? "City " + locationIds[b] / 2 : null;
+                    break;
+                }
+            }
+            CityLocation l = index.find(query);
+            if(expected == null) {
+                assertNull("IP " + query + " should not be found", l);
+            } else {
+                assertEquals("IP " + query + " should be found in its block", expected, l.getCity());
+            }
+        }
+    }
+
+    @Test
+    public void testStringsAreShared() {
+        IpLocationIndex.Builder builder = new IpLocationIndex.Builder();
+        builder.addLocation(1, new String("Springfield"), "10001", new String("US"), null, null);
+        builder.addLocation(2, new String("Springfield"), "10002", new String("US"), null, null);
+        builder.addBlock(1, 1, 1);
+        builder.addBlock(2, 2, 2);
+        IpLocationIndex index = builder.build();
+        assertSame("Equal cities should be shared", index.find(1).getCity(), index.find(2).getCity());
+        assertSame("Equal country codes should be shared", index.find(1).getCountryCode(), index.find(2).getCountryCode());
+    }
+
+    private static int ip(String ip) {
+        return StringUtils.ip4ToInteger(ip);
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.townwizard.globaldata.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.test.TestConfigurationService;
+import com.townwizard.globaldata.model.Location;
+import com.townwizard.globaldata.model.directory.Place;
+
+public class PlaceIngestCacheTest {
+
+    private static final Date CREATED = new Date(1350000000000L);
+
+    private PlaceIngestCache cache;
+
+    @Before
+    public void createCache() {
+        TestConfigurationService configuration = new TestConfigurationService();
+        configuration.save(ConfigurationKey.PLACE_INGEST_CACHE_MAX_PLACES, 10);
+        cache = configuration.injectInto(new PlaceIngestCache());
+    }
+
+    @Test
+    public void testPutAndGet() {
+        List<Place> places = places(3);
+        Location origin = new Location(40.75f, -73.99f);
+        cache.put("10001", "US", "restaurants", CREATED, origin, places, cache.getLoadStamp());
+
+        PlaceIngestCache.CachedIngest ingest = cache.get("10001", "US", "Restaurants");
+        assertNotNull("Ingest should be cached, and found with the category in any case", ingest);
+        assertEquals("Ingest creation time should be cached", CREATED, ingest.getCreated());
+        assertEquals("All places should be cached", 3, ingest.getPlaces().size());
+        assertTrue("Places should be sorted from the origin", ingest.isSortedFrom(new Location(40.75f, -73.99f)));
+        assertFalse("Places should not be sorted from another origin", ingest.isSortedFrom(new Location(40.7f, -74f)));
+        assertEquals("Number of cached places should be counted", 3, cache.getNumPlaces());
+
+        assertNotSame("Places should be copied into the cache", places.get(0), ingest.getPlaces().get(0));
+        places.get(0).setName("Changed");
+        assertEquals("Changing the original place should not change the cache",
+                "Place 0", cache.get("10001", "US", "restaurants").getPlaces().get(0).getName());
+        try {
+            ingest.getPlaces().clear();
+            fail("Cached places should be read only");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+
+        assertNull("Ingest of another country should not be found", cache.get("10001", "CA", "restaurants"));
+        assertNull("Ingest of another category should not be found", cache.get("10001", "US", "bars"));
+    }
+
+    @Test
+    public void testLoadStampInvalidation() {
+        long stamp = cache.getLoadStamp();
+        cache.invalidate("10001", "US", "restaurants");
+        cache.put("10001", "US", "restaurants", CREATED, null, places(2), stamp);
+        assertNull("Ingest loaded before an invalidation should not be cached", cache.get("10001", "US", "restaurants"));
+
+        stamp = cache.getLoadStamp();
+        cache.invalidate("07302", "US", "bars");
+        cache.put("10001", "US", "restaurants", CREATED, null, places(2), stamp);
+        assertNull("Ingest loaded before an invalidation of another ingest should not be cached",
+                cache.get("10001", "US", "restaurants"));
+
+        cache.put("10001", "US", "restaurants", CREATED, null, places(2), cache.getLoadStamp());
+        assertNotNull("Ingest loaded after the invalidations should be cached", cache.get("10001", "US", "restaurants"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put("10001", "US", "restaurants", CREATED, null, places(2), cache.getLoadStamp());
+        cache.put("10001", "US", "bars", CREATED, null, places(2), cache.getLoadStamp());
+        cache.put("07302", "US", "bars", CREATED, null, places(2), cache.getLoadStamp());
+
+        cache.invalidate("10001", "US", "BARS");
+        assertNull("Invalidated ingest should be removed", cache.get("10001", "US", "bars"));
+        assertNotNull("Other ingests should stay", cache.get("10001", "US", "restaurants"));
+        assertNotNull("Ingests of other zips should stay", cache.get("07302", "US", "bars"));
+        assertEquals("Places of the invalidated ingest should not be counted", 4, cache.getNumPlaces());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIngestsAreEvicted() {
+        cache.put("10001", "US", "restaurants", CREATED, null, places(4), cache.getLoadStamp());
+        cache.put("10002", "US", "restaurants", CREATED, null, places(4), cache.getLoadStamp());
+        cache.get("10001", "US", "restaurants");
+        cache.put("10003", "US", "restaurants", CREATED, null, places(4), cache.getLoadStamp());
+
+        assertNull("Least recently used ingest should be evicted", cache.get("10002", "US", "restaurants"));
+        assertNotNull("Recently used ingest should stay", cache.get("10001", "US", "restaurants"));
+        assertNotNull("New ingest should be cached", cache.get("10003", "US", "restaurants"));
+        assertEquals("Cached places should be within the limit", 8, cache.getNumPlaces());
+
+        cache.put("10004", "US", "restaurants", CREATED, null, places(11), cache.getLoadStamp());
+        assertNull("Ingest over the limit should not be cached", cache.get("10004", "US", "restaurants"));
+        assertEquals("Ingest over the limit should not evict others", 2, cache.size());
+    }
+
+    @Test
+    public void testAdmit() {
+        assertFalse("Ingest should not be admitted on the first miss", cache.admit("10001", "US", "restaurants"));
+        assertFalse("Another ingest should not be admitted on its first miss", cache.admit("10001", "US", "bars"));
+        assertTrue("Ingest should be admitted on the second miss", cache.admit("10001", "US", "Restaurants"));
+        assertFalse("Admitted ingest should start over", cache.admit("10001", "US", "restaurants"));
+    }
+
+    private static List<Place> places(int count) {
+        List<Place> places = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            Place p = new Place();
+            p.setExternalId(Integer.toString(i));
+            p.setName("Place " + i);
+            places.add(p);
+        }
+        return places;
+    }
+
+}
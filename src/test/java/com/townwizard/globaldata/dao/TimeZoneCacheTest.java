@@ -0,0 +1,101 @@
+package com.townwizard.globaldata.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimeZoneCacheTest {
+
+    @Test
+    public void testLookedUpZipsAreCached() {
+        TimeZoneCache cache = new TimeZoneCache();
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals("Time zone should be looked up", "America/New_York", cache.get("10001", loader).getID());
+        assertEquals("Time zone should be cached", "America/New_York", cache.get("10001", loader).getID());
+        assertNull("Zip without time zone should have none", cache.get("00000", loader));
+        assertNull("Zip without time zone should be cached", cache.get("00000", loader));
+
+        assertEquals("Every zip should be looked up once", 2, loader.zips.size());
+        assertEquals("Misses should be counted", 2, cache.getMissCount());
+        assertEquals("Hits should be counted", 1, cache.getHitCount());
+        assertEquals("Negative hits should be counted", 1, cache.getNegativeHitCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedZipsAreEvicted() {
+        TimeZoneCache cache = new TimeZoneCache();
+        CountingLoader loader = new CountingLoader();
+        cache.get("10001", loader);
+        for(int i = 0; i < TimeZoneCache.MAX_LOOKED_UP_ENTRIES; i++) {
+            if(i == 1) cache.get("10001", loader);
+            cache.get(Integer.toString(i), loader);
+        }
+        assertEquals("Cache should not grow over the max size", TimeZoneCache.MAX_LOOKED_UP_ENTRIES, cache.size());
+
+        int lookups = loader.zips.size();
+        assertEquals("Recently used zip should stay", "America/New_York", cache.get("10001", loader).getID());
+        assertNull("Recently looked up zip should stay", cache.get("1", loader));
+        assertEquals("Cached zips should not be looked up again", lookups, loader.zips.size());
+        cache.get("0", loader);
+        assertEquals("Least recently used zip should be evicted", lookups + 1, loader.zips.size());
+    }
+
+    @Test
+    public void testPreload() {
+        TimeZoneCache cache = new TimeZoneCache();
+        CountingLoader loader = new CountingLoader();
+        cache.get("10001", loader);
+
+        Map<String, String> zones = new HashMap<>();
+        zones.put("10001", "America/New_York");
+        zones.put("10002", "America/New_York");
+        zones.put("90210", "America/Los_Angeles");
+        zones.put("99999", null);
+        cache.preload(zones);
+        assertEquals("Preloaded zips with time zones should be cached", 3, cache.size());
+
+        assertEquals("Preloaded time zone should be found",
+                "America/Los_Angeles", cache.get("90210", loader).getID());
+        assertSame("Time zones should be shared between zips", cache.get("10001", loader), cache.get("10002", loader));
+        assertNull("Zip which is not preloaded should have no time zone", cache.get("60601", loader));
+        assertNull("Zip without time zone id should have no time zone", cache.get("99999", loader));
+        assertEquals("Zips should not be looked up after the preload", 1, loader.zips.size());
+    }
+
+    @Test
+    public void testPreloadReplacesContent() {
+        TimeZoneCache cache = new TimeZoneCache();
+        Map<String, String> zones = new HashMap<>();
+        zones.put("10001", "America/New_York");
+        cache.preload(zones);
+
+        zones = new HashMap<>();
+        zones.put("10001", "America/Chicago");
+        cache.preload(zones);
+        assertEquals("Reloaded time zone should be found",
+                "America/Chicago", cache.get("10001", new CountingLoader()).getID());
+    }
+
+    /*
+     * Knows the time zone of 10001 only, and records looked up zips
+     */
+    private static final class CountingLoader implements TimeZoneCache.Loader {
+        private final List<String> zips = new ArrayList<>();
+
+        @Override
+        public String loadTimeZoneId(String zip) {
+            zips.add(zip);
+            return "10001".equals(zip) ? "America/New_York" : null;
+        }
+    }
+
+}
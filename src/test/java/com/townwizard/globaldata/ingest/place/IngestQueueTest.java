@@ -0,0 +1,138 @@
+package com.townwizard.globaldata.ingest.place;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.test.TestConfigurationService;
+import com.townwizard.globaldata.model.directory.Place;
+
+public class IngestQueueTest {
+
+    private static final String[] ZIPS = {"10001", "10002", "10003", "11201", "11215", "07302", "94105", "60601"};
+    private static final String[] COUNTRIES = {"US", "CA"};
+    private static final String[] CATEGORIES = {"restaurants", "bars", "hotels"};
+
+    private IngestQueue queue;
+
+    @Before
+    public void createQueue() {
+        TestConfigurationService configuration = new TestConfigurationService();
+        configuration.save(ConfigurationKey.PLACE_INGEST_DB_QUEUE_CAPACITY, 1000);
+        queue = configuration.injectInto(new IngestQueue());
+        queue.setNumDbShards(4);
+    }
+
+    @After
+    public void drainQueue() throws Exception {
+        for(int shard = 0; shard < queue.getDbQueues().length; shard++) takeAll(shard);
+    }
+
+    @Test
+    public void testTasksOfOneZipGoToOneShard() throws Exception {
+        List<IngestTask> tasks = addTasks();
+        assertEquals("All tasks should be queued", tasks.size(), queue.dbTasks());
+
+        Map<String, Integer> zipShards = takeAllByZip();
+        assertEquals("Every zip and country should be in exactly one shard",
+                ZIPS.length * COUNTRIES.length, zipShards.size());
+        assertEquals("No task should be left after all shards are drained", 0, queue.dbTasks());
+    }
+
+    @Test
+    public void testResharding() throws Exception {
+        List<IngestTask> tasks = addTasks();
+        queue.setNumDbShards(3);
+        assertEquals("Number of shards should change", 3, queue.getDbQueues().length);
+        assertEquals("Pending tasks should be moved to the new shards", tasks.size(), queue.dbTasks());
+
+        Map<String, Integer> zipShards = takeAllByZip();
+        assertEquals("Every zip and country should be in exactly one of the new shards",
+                ZIPS.length * COUNTRIES.length, zipShards.size());
+        for(int shard : zipShards.values()) {
+            assertTrue("Tasks should only be in the new shards", shard < 3);
+        }
+    }
+
+    @Test
+    public void testHighPriorityTasksAreTakenFirst() throws Exception {
+        IngestTask background = task("10001", "US", "bars", false);
+        IngestTask highPriority = task("10001", "US", "hotels", true);
+        queue.addDbTask(background);
+        queue.addDbTask(highPriority);
+
+        int shard = shardOf(background);
+        assertEquals("High priority task should be taken first",
+                highPriority, queue.takeDbTask(shard, 0, TimeUnit.MILLISECONDS));
+        assertEquals("Background task should be taken next",
+                background, queue.takeDbTask(shard, 0, TimeUnit.MILLISECONDS));
+        assertNull("Shard should be empty", queue.takeDbTask(shard, 0, TimeUnit.MILLISECONDS));
+    }
+
+    private List<IngestTask> addTasks() throws InterruptedException {
+        List<IngestTask> tasks = new ArrayList<>();
+        for(String category : CATEGORIES) {
+            for(String zip : ZIPS) {
+                for(String countryCode : COUNTRIES) {
+                    IngestTask task = task(zip, countryCode, category, false);
+                    assertTrue("Task should be added", queue.addDbTask(task));
+                    tasks.add(task);
+                }
+            }
+        }
+        return tasks;
+    }
+
+    //take all tasks from all shards, and check that the tasks of every zip are in the same shard
+    private Map<String, Integer> takeAllByZip() throws InterruptedException {
+        Map<String, Integer> zipShards = new HashMap<>();
+        Map<String, Integer> zipTasks = new HashMap<>();
+        for(int shard = 0; shard < queue.getDbQueues().length; shard++) {
+            for(IngestTask task : takeAll(shard)) {
+                String zip = task.getZipCode() + "/" + task.getCountryCode();
+                Integer zipShard = zipShards.put(zip, shard);
+                assertTrue("Tasks of zip " + zip + " should be in one shard", zipShard == null || zipShard == shard);
+                Integer n = zipTasks.get(zip);
+                zipTasks.put(zip, n != null ? n + 1 : 1);
+            }
+        }
+        for(Map.Entry<String, Integer> e : zipTasks.entrySet()) {
+            assertEquals("All tasks of zip " + e.getKey() + " should be taken", CATEGORIES.length, (int)e.getValue());
+        }
+        return zipShards;
+    }
+
+    private List<IngestTask> takeAll(int shard) throws InterruptedException {
+        List<IngestTask> tasks = new ArrayList<>();
+        IngestTask task;
+        while((task = queue.takeDbTask(shard, 0, TimeUnit.MILLISECONDS)) != null) tasks.add(task);
+        return tasks;
+    }
+
+    private int shardOf(IngestTask task) {
+        IngestTaskQueue[] queues = queue.getDbQueues();
+        for(int shard = 0; shard < queues.length; shard++) {
+            if(queues[shard].contains(task)) return shard;
+        }
+        fail("Task should be queued");
+        return -1;
+    }
+
+    private static IngestTask task(String zip, String countryCode, String category, boolean highPriority) {
+        return new IngestTask(zip, countryCode, category, highPriority, Collections.<Place>emptyList());
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.townwizard.globaldata.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.ReflectionUtils;
+
+import com.townwizard.db.configuration.ConfigurationKey;
+import com.townwizard.db.test.TestConfigurationService;
+import com.townwizard.globaldata.model.Event;
+
+public class EventFeedCacheTest {
+
+    private static final int TTL_SECONDS = 60;
+    private static final int MAX_STALE_SECONDS = 60;
+
+    private TestConfigurationService configuration;
+    private EventFeedCache cache;
+
+    @Before
+    public void createCache() {
+        configuration = new TestConfigurationService();
+        configuration.save(ConfigurationKey.EVENT_FEED_TTL_SECONDS, TTL_SECONDS);
+        configuration.save(ConfigurationKey.EVENT_FEED_MAX_STALE_SECONDS, MAX_STALE_SECONDS);
+        cache = configuration.injectInto(new EventFeedCache());
+        cache.init();
+    }
+
+    @After
+    public void shutdownRefresher() {
+        EventFeedCache.shutdownThreads();
+    }
+
+    @Test
+    public void testFreshFeedIsCached() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        EventFeedCache.Feed feed = cache.get("10001", "US", loader);
+        assertSame("Fresh feed should be served from the cache", feed, cache.get("10001", "US", loader));
+        assertNotSame("Feeds of other countries should be loaded separately", feed, cache.get("10001", "CA", loader));
+        assertEquals("Every feed should be loaded once", 2, loader.calls.get());
+        assertEquals("Both feeds should be cached", 2, cache.size());
+    }
+
+    @Test
+    public void testCacheIsDisabledWithoutTtl() throws Exception {
+        configuration.save(ConfigurationKey.EVENT_FEED_TTL_SECONDS, 0);
+        CountingLoader loader = new CountingLoader();
+        cache.get("10001", "US", loader);
+        cache.get("10001", "US", loader);
+        assertEquals("Feed should be loaded on every request", 2, loader.calls.get());
+        assertEquals("Nothing should be cached", 0, cache.size());
+    }
+
+    @Test
+    public void testStaleFeedIsServedWhileRefreshed() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        EventFeedCache.Feed stale = cache.get("10001", "US", loader);
+        age(stale, TTL_SECONDS + 1);
+
+        assertSame("Stale feed should be served", stale, cache.get("10001", "US", loader));
+        long deadline = System.currentTimeMillis() + 10000;
+        EventFeedCache.Feed refreshed;
+        while((refreshed = cache.get("10001", "US", loader)) == stale) {
+            assertTrue("Stale feed should be refreshed in background", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        assertEquals("Stale feed should be reloaded once", 2, loader.calls.get());
+        assertSame("Refreshed feed should be cached", refreshed, cache.get("10001", "US", loader));
+    }
+
+    @Test
+    public void testTooOldFeedIsLoadedOnRequest() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        EventFeedCache.Feed old = cache.get("10001", "US", loader);
+        age(old, TTL_SECONDS + MAX_STALE_SECONDS + 1);
+
+        EventFeedCache.Feed feed = cache.get("10001", "US", loader);
+        assertNotSame("Too old feed should not be served", old, feed);
+        assertEquals("Too old feed should be loaded by the request", 2, loader.calls.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneLoad() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingLoader loader = new CountingLoader() {
+            @Override
+            public EventFeedCache.Feed call() throws Exception {
+                started.countDown();
+                release.await();
+                return super.call();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<EventFeedCache.Feed>> results = new ArrayList<>();
+            for(int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<EventFeedCache.Feed>() {
+                    @Override
+                    public EventFeedCache.Feed call() throws Exception {
+                        return cache.get("10001", "US", loader);
+                    }
+                }));
+            }
+            assertTrue("Feed should be loading", started.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            release.countDown();
+
+            EventFeedCache.Feed feed = results.get(0).get(10, TimeUnit.SECONDS);
+            for(Future<EventFeedCache.Feed> f : results) {
+                assertSame("All requests should get the same feed", feed, f.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals("Feed should be loaded once", 1, loader.calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        final IOException failure = new IOException("Facebook is down");
+        try {
+            cache.get("10001", "US", new Callable<EventFeedCache.Feed>() {
+                @Override
+                public EventFeedCache.Feed call() throws Exception {
+                    throw failure;
+                }
+            });
+            fail("Load failure should be thrown");
+        } catch (IOException e) {
+            assertSame("Loader exception should be thrown as is", failure, e);
+        }
+        assertEquals("Failed feed should not be cached", 0, cache.size());
+
+        CountingLoader loader = new CountingLoader();
+        cache.get("10001", "US", loader);
+        assertEquals("Feed should be loaded after a failure", 1, loader.calls.get());
+    }
+
+    //make the feed look loaded the given number of seconds ago
+    private static void age(EventFeedCache.Feed feed, int seconds) {
+        Field loaded = ReflectionUtils.findField(EventFeedCache.Feed.class, "loaded");
+        ReflectionUtils.makeAccessible(loaded);
+        ReflectionUtils.setField(loaded, feed, System.currentTimeMillis() - seconds * 1000L);
+    }
+
+    private static class CountingLoader implements Callable<EventFeedCache.Feed> {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public EventFeedCache.Feed call() throws Exception {
+            calls.incrementAndGet();
+            return new EventFeedCache.Feed(new ArrayList<Event>(), new ArrayList<Event>());
+        }
+    }
+
+}
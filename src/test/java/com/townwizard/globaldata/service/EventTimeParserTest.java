@@ -0,0 +1,137 @@
+package com.townwizard.globaldata.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class EventTimeParserTest {
+
+    //zones with DST changes at or around midnight, half hour offsets, and a skipped day (Apia, 2011-12-30)
+    private static final String[] TIME_ZONES = {"GMT", "America/New_York", "America/Sao_Paulo",
+            "America/Havana", "America/St_Johns", "Europe/London", "Asia/Kolkata", "Asia/Tehran",
+            "Australia/Lord_Howe", "Pacific/Apia"};
+
+    private static final String[] INVALID_DATES = {"", "2012", "2012-06", "2012-6-x", "2012/06/15",
+            "12-06-15", "2012-6-15", "2012-06-5", "x012-06-15", "2012-06-1x", "2012--6-15"};
+
+    private static final String[] INVALID_DATE_TIMES = {"2012-06-15T19:00:00", "2012-06-15 19:00:00-0400",
+            "2012-06-15T19:00-0400", "2012-06-15T19:00:00-04", "2012-06-15T19:00:00-4:00",
+            "2012-06-15T19:00:00 0400", "2012-06-15T19:00:00Z", "2012-06-15T19:00:00GMT",
+            "2012-06-15T1x:00:00-0400", "2012-06-15T19:00:00-04x0", "2012-06-15T19:00:00-2400",
+            "2012-06-15T19:00:00-0460", "2012-06-15T19:00:00+9999", "2012-6-15T19:00:00-0400",
+            "2012-06-15T19:00:00-0400trailing", "2012-06-15T19:00:00.000-0400", "not a date at all"};
+
+    @Test
+    public void testDatesMatchSimpleDateFormat() throws Exception {
+        for(String zoneId : TIME_ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            EventTimeParser parser = EventTimeParser.forTimeZone(zone);
+            DateFormat format = dateFormat(zone);
+
+            Calendar day = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+            day.clear();
+            day.set(2008, Calendar.JANUARY, 1);
+            while(day.get(Calendar.YEAR) < 2016) {
+                String date = String.format("%04d-%02d-%02d",
+                        day.get(Calendar.YEAR), day.get(Calendar.MONTH) + 1, day.get(Calendar.DAY_OF_MONTH));
+                check(parser, format, zone, date);
+                day.add(Calendar.DAY_OF_MONTH, 1);
+            }
+
+            //SimpleDateFormat is lenient, and so is the parser
+            for(String date : new String[] {"2012-02-30", "2012-13-01", "2012-00-10", "2012-06-00",
+                    "2012-06-99", "0000-01-01", "1582-10-10", "9999-12-31"}) {
+                check(parser, format, zone, date);
+            }
+            for(String date : INVALID_DATES) {
+                check(parser, format, zone, date);
+            }
+        }
+    }
+
+    @Test
+    public void testDateTimesMatchSimpleDateFormat() throws Exception {
+        Random random = new Random(42);
+        TimeZone gmt = TimeZone.getTimeZone("GMT");
+        EventTimeParser parser = EventTimeParser.forTimeZone(TimeZone.getTimeZone("America/New_York"));
+        DateFormat format = dateTimeFormat();
+
+        for(int i = 0; i < 20000; i++) {
+            String offset = String.format("%s%02d%02d", random.nextBoolean() ? "+" : "-",
+                    random.nextInt(15), random.nextInt(4) * 15);
+            String dateTime = String.format("%04d-%02d-%02dT%02d:%02d:%02d%s",
+                    1990 + random.nextInt(40), 1 + random.nextInt(12), 1 + random.nextInt(28),
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60), offset);
+            check(parser, format, gmt, dateTime);
+        }
+
+        //lenient fields
+        for(String dateTime : new String[] {"2012-02-30T25:61:61+0000", "2012-13-01T00:00:00-2359",
+                "2012-06-15T19:00:00+2359", "2012-06-15T19:00:00-0000", "1582-10-10T12:00:00+0100"}) {
+            check(parser, format, gmt, dateTime);
+        }
+        for(String dateTime : INVALID_DATE_TIMES) {
+            check(parser, format, gmt, dateTime);
+        }
+    }
+
+    @Test
+    public void testParsers() {
+        TimeZone zone = TimeZone.getTimeZone("America/Chicago");
+        assertSame("Parsers should be cached by time zone",
+                EventTimeParser.forTimeZone(zone), EventTimeParser.forTimeZone(TimeZone.getTimeZone("America/Chicago")));
+        assertSame("Null time zone should get the GMT parser",
+                EventTimeParser.forTimeZone(null), EventTimeParser.forTimeZone(null));
+        assertNull("Null time should not be parsed", EventTimeParser.forTimeZone(zone).parse(null));
+
+        Calendar c = EventTimeParser.forTimeZone(zone).parse("2012-06-15");
+        assertEquals("Date should be parsed in the time zone of the parser", "America/Chicago", c.getTimeZone().getID());
+        assertEquals("Date should be set to the beginning of the day", 0, c.get(Calendar.HOUR_OF_DAY));
+        assertEquals("Date should be parsed", 15, c.get(Calendar.DAY_OF_MONTH));
+
+        c = EventTimeParser.forTimeZone(zone).parse("2012-06-15T19:30:00-0400");
+        assertEquals("Date and time should be parsed in GMT", "GMT", c.getTimeZone().getID());
+        assertEquals("Offset should be applied", 23, c.get(Calendar.HOUR_OF_DAY));
+        assertEquals("Minutes should be parsed", 30, c.get(Calendar.MINUTE));
+    }
+
+    private static void check(EventTimeParser parser, DateFormat format, TimeZone zone, String time) {
+        Date expected;
+        try {
+            expected = format.parse(time);
+        } catch (ParseException e) {
+            expected = null;
+        }
+        Calendar c = parser.parse(time);
+        if(expected == null) {
+            assertNull("'" + time + "' should not be parsed", c);
+            return;
+        }
+        assertEquals("'" + time + "' in " + zone.getID() + " should be parsed as SimpleDateFormat parses it",
+                expected.getTime(), c.getTimeInMillis());
+        assertEquals("'" + time + "' should be parsed in the right time zone", zone.getID(), c.getTimeZone().getID());
+    }
+
+    private static DateFormat dateFormat(TimeZone zone) {
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setTimeZone(zone);
+        return format;
+    }
+
+    private static DateFormat dateTimeFormat() {
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.townwizard.globaldata.service.geo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LocationGridIndexTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void testNearestMatchesBruteForce() throws Exception {
+        LocationStore store = randomStore(2000, 40.0, -74.0, 3.0);
+        checkAgainstBruteForce(store, 40.0, -74.0, 3.0);
+    }
+
+    @Test
+    public void testNearestAcrossAntimeridian() throws Exception {
+        LocationStore store = randomStore(1000, -17.0, 179.5, 1.0);
+        checkAgainstBruteForce(store, -17.0, 179.5, 1.0);
+        checkAgainstBruteForce(store, -17.0, -179.5, 1.0);
+    }
+
+    @Test
+    public void testNearestCloseToPole() throws Exception {
+        LocationStore store = randomStore(1000, 88.5, 15.0, 2.0);
+        checkAgainstBruteForce(store, 88.5, 15.0, 2.0);
+    }
+
+    @Test
+    public void testSparseLocations() throws Exception {
+        LocationStore store = randomStore(20, 51.5, 0.0, 4.0);
+        checkAgainstBruteForce(store, 51.5, 0.0, 4.0);
+    }
+
+    @Test
+    public void testNothingAround() throws Exception {
+        LocationStore store = randomStore(100, 40.0, -74.0, 1.0);
+        LocationGridIndex index = new LocationGridIndex(store, allRows(store));
+        assertEquals("Nothing should be found far from all locations", -1, index.nearest(-40.0, 100.0));
+        assertEquals("Nothing should be found far from all locations",
+                0, index.nearest(-40.0, 100.0, 5).length);
+        assertEquals("Nothing should be found in an empty index",
+                -1, new LocationGridIndex(store, new int[0]).nearest(40.0, -74.0));
+    }
+
+    //query random points within the area, and compare results with a full scan of all locations
+    private void checkAgainstBruteForce(LocationStore store, double latitude, double longitude, double spread) {
+        int[] rows = allRows(store);
+        LocationGridIndex index = new LocationGridIndex(store, rows);
+        assertEquals("All rows should be indexed", rows.length, index.size());
+
+        for(int i = 0; i < 500; i++) {
+            double lat = latitude + (random.nextDouble() - 0.5) * spread;
+            double lon = wrap(longitude + (random.nextDouble() - 0.5) * spread);
+            double[] distances = bruteForceDistances(store, rows, lat, lon);
+
+            int nearest = index.nearest(lat, lon);
+            assertEquals("Nearest location of (" + lat + ", " + lon + ") should be the closest one",
+                    distances[0], distance(store, nearest, lat, lon), 0);
+
+            int[] nearestRows = index.nearest(lat, lon, 10);
+            assertEquals("Ten nearest locations should be found", 10, nearestRows.length);
+            for(int k = 0; k < nearestRows.length; k++) {
+                assertEquals("Location " + k + " nearest to (" + lat + ", " + lon + ") should be found in order",
+                        distances[k], distance(store, nearestRows[k], lat, lon), 0);
+            }
+        }
+    }
+
+    private static double[] bruteForceDistances(LocationStore store, int[] rows, double lat, double lon) {
+        double[] distances = new double[rows.length];
+        for(int i = 0; i < rows.length; i++) distances[i] = distance(store, rows[i], lat, lon);
+        Arrays.sort(distances);
+        return distances;
+    }
+
+    //the same equirectangular distance the index uses
+    private static double distance(LocationStore store, int row, double lat, double lon) {
+        double dLat = store.getLatitude(row) - lat;
+        double dLon = Math.abs(store.getLongitude(row) - lon);
+        if(dLon > 180) dLon = 360 - dLon;
+        dLon *= Math.cos(Math.toRadians(lat));
+        return dLat * dLat + dLon * dLon;
+    }
+
+    private LocationStore randomStore(int size, double latitude, double longitude, double spread)
+            throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < size; i++) {
+            double lat = latitude + (random.nextDouble() - 0.5) * spread;
+            double lon = wrap(longitude + (random.nextDouble() - 0.5) * spread);
+            sb.append("US\t").append(10000 + i).append("\tCity ").append(i)
+              .append('\t').append((float)lat).append('\t').append((float)lon).append('\n');
+        }
+        return LocationStore.load(new ByteArrayInputStream(sb.toString().getBytes("UTF-8")), 0, 1, 2, 3, 4);
+    }
+
+    private static int[] allRows(LocationStore store) {
+        int[] rows = new int[store.rowCount()];
+        for(int i = 0; i < rows.length; i++) rows[i] = i;
+        return rows;
+    }
+
+    private static double wrap(double longitude) {
+        if(longitude >= 180) return longitude - 360;
+        if(longitude < -180) return longitude + 360;
+        return longitude;
+    }
+
+}
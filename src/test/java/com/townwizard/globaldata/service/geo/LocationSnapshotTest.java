@@ -0,0 +1,109 @@
+package com.townwizard.globaldata.service.geo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocationSnapshotTest {
+
+    private static final String DATA =
+            "US\t10001\tNew York\t40.7484\t-73.9967\n" +
+            "US\t07302\tJersey City\t40.7196\t-74.0466\n" +
+            "CA\t10001\tMontr\u00e9al\t45.5\t-73.6\n" +
+            "US\t99999\t\t\t\n";
+    private static final long SOURCE_LENGTH = 12345;
+    private static final long SOURCE_LAST_MODIFIED = 1350000000000L;
+
+    //offset of the zip count, right after magic, version, source length and modification time
+    private static final int ZIP_COUNT_OFFSET = 24;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocationStore store;
+    private File file;
+
+    @Before
+    public void writeSnapshot() throws Exception {
+        store = LocationStore.load(new ByteArrayInputStream(DATA.getBytes("UTF-8")), 0, 1, 2, 3, 4);
+        file = new File(folder.getRoot(), "locations.bin");
+        LocationSnapshot.write(store, file, SOURCE_LENGTH, SOURCE_LAST_MODIFIED);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        LocationStore read = LocationSnapshot.read(file, SOURCE_LENGTH, SOURCE_LAST_MODIFIED);
+        assertNotNull("Snapshot should be read", read);
+        assertArrayEquals("Zips should be read", store.zips(), read.zips());
+        assertArrayEquals("Zip starts should be read", store.zipStart(), read.zipStart());
+        assertArrayEquals("Countries should be read", store.countries(), read.countries());
+        assertArrayEquals("Cities should be read", store.cities(), read.cities());
+        assertArrayEquals("Row countries should be read", store.rowCountries(), read.rowCountries());
+        assertArrayEquals("Row cities should be read", store.rowCities(), read.rowCities());
+        assertArrayEquals("Latitudes should be read", store.latitudes(), read.latitudes(), 0);
+        assertArrayEquals("Longitudes should be read", store.longitudes(), read.longitudes(), 0);
+        assertEquals("Non ASCII city should be read", "Montr\u00e9al", read.getLocations("10001", "CA").get(0).getCity());
+    }
+
+    @Test
+    public void testDifferentSource() throws Exception {
+        assertNull("Snapshot of a source with another length should be ignored",
+                LocationSnapshot.read(file, SOURCE_LENGTH + 1, SOURCE_LAST_MODIFIED));
+        assertNull("Snapshot of a source with another modification time should be ignored",
+                LocationSnapshot.read(file, SOURCE_LENGTH, SOURCE_LAST_MODIFIED + 1));
+        assertNull("Missing snapshot should be ignored",
+                LocationSnapshot.read(new File(folder.getRoot(), "missing.bin"), SOURCE_LENGTH, SOURCE_LAST_MODIFIED));
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for(int length = 0; length < bytes.length; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+            assertNull("Snapshot truncated to " + length + " bytes should be ignored",
+                    LocationSnapshot.read(file, SOURCE_LENGTH, SOURCE_LAST_MODIFIED));
+        }
+    }
+
+    @Test
+    public void testCorruptLength() throws Exception {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for(int length : new int[] {-1, Integer.MIN_VALUE, Integer.MAX_VALUE, bytes.length}) {
+            ByteBuffer.wrap(bytes).putInt(ZIP_COUNT_OFFSET, length);
+            Files.write(file.toPath(), bytes);
+            assertNull("Snapshot with array length " + length + " should be ignored",
+                    LocationSnapshot.read(file, SOURCE_LENGTH, SOURCE_LAST_MODIFIED));
+        }
+    }
+
+    @Test
+    public void testCorruptData() throws Exception {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Random random = new Random(42);
+        for(int i = 0; i < 1000; i++) {
+            byte[] corrupt = Arrays.copyOf(bytes, bytes.length);
+            int pos = ZIP_COUNT_OFFSET + random.nextInt(bytes.length - ZIP_COUNT_OFFSET);
+            corrupt[pos] = (byte)random.nextInt(256);
+            Files.write(file.toPath(), corrupt);
+            LocationStore read = LocationSnapshot.read(file, SOURCE_LENGTH, SOURCE_LAST_MODIFIED);
+            if(read != null) {
+                //corrupt strings or coordinates cannot be detected, but the store must be usable
+                for(int row = 0; row < read.rowCount(); row++) read.getLocation(row);
+                read.getPrimaryRows();
+            }
+        }
+    }
+
+}
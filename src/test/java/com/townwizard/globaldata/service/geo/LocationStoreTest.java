@@ -0,0 +1,94 @@
+package com.townwizard.globaldata.service.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.townwizard.globaldata.model.Location;
+
+public class LocationStoreTest {
+
+    //country, zip, city, latitude, longitude, as in allCountries.txt
+    private static final String DATA =
+            "US\t10001\tNew York\t40.7484\t-73.9967\n" +
+            "US\t07302\tJersey City\t40.7196\t-74.0466\n" +
+            "CA\t10001\tSomewhere\t45.5\t-73.6\n" +
+            "US\t10001\tManhattan\t40.75\t-74.0\n" +
+            "US\t99999\tNowhere\t\t\n" +
+            "US\t99999\tSomewhere Else\t61.2\t-149.9\n" +
+            "\t55555\t\t10.0\t10.0\n" +
+            "US\t\tNo Zip\t1.0\t1.0\n" +
+            "US\t44444\n";
+
+    @Test
+    public void testGetLocations() throws Exception {
+        LocationStore store = load();
+        assertEquals("Rows without zip should be skipped", 8, store.rowCount());
+
+        List<Location> locations = store.getLocations("10001", "US");
+        assertEquals("All locations of the zip in the country should be found", 2, locations.size());
+        assertEquals("Locations should be in the file order", "New York", locations.get(0).getCity());
+        assertEquals("Locations should be in the file order", "Manhattan", locations.get(1).getCity());
+        assertEquals("Zip should be set", "10001", locations.get(0).getZip());
+        assertEquals("Country code should be set", "US", locations.get(0).getCountryCode());
+        assertEquals("Latitude should be set", 40.7484f, locations.get(0).getLatitude(), 0);
+        assertEquals("Longitude should be set", -73.9967f, locations.get(0).getLongitude(), 0);
+
+        assertEquals("Locations of other countries should not be found",
+                "Somewhere", store.getLocations("10001", "CA").get(0).getCity());
+        assertTrue("Unknown zip should have no locations", store.getLocations("12345", "US").isEmpty());
+        assertTrue("Zip should not be found in another country", store.getLocations("07302", "CA").isEmpty());
+    }
+
+    @Test
+    public void testMissingValues() throws Exception {
+        LocationStore store = load();
+
+        Location l = store.getLocations("99999", "US").get(0);
+        assertNull("Missing latitude should be null", l.getLatitude());
+        assertNull("Missing longitude should be null", l.getLongitude());
+
+        l = store.getLocations("44444", "US").get(0);
+        assertNull("Missing city should be null", l.getCity());
+        assertNull("Missing latitude should be null", l.getLatitude());
+
+        int row = store.getPrimaryRow("44444", "US");
+        assertEquals("Zip without coordinates should have no primary row", -1, row);
+    }
+
+    @Test
+    public void testPrimaryRows() throws Exception {
+        LocationStore store = load();
+
+        int row = store.getPrimaryRow("99999", "US");
+        assertEquals("Primary row should be the first one with coordinates",
+                "Somewhere Else", store.getLocation(row).getCity());
+        row = store.getPrimaryRow("10001", "US");
+        assertEquals("Primary row should be the first one of the zip in the country",
+                "New York", store.getLocation(row).getCity());
+        assertEquals("Unknown zip should have no primary row", -1, store.getPrimaryRow("12345", "US"));
+
+        Set<String> primary = new HashSet<>();
+        for(int r : store.getPrimaryRows()) {
+            assertTrue("Primary rows should have coordinates", store.hasCoordinates(r));
+            Location l = store.getLocation(r);
+            assertTrue("Every zip and country should have one primary row",
+                    primary.add(l.getZip() + "/" + l.getCountryCode()));
+        }
+        assertEquals("Every zip and country with coordinates should have a primary row", 4, primary.size());
+        assertFalse("Rows without country code should not be primary", primary.contains("55555/null"));
+    }
+
+    private static LocationStore load() throws Exception {
+        return LocationStore.load(new ByteArrayInputStream(DATA.getBytes("UTF-8")), 0, 1, 2, 3, 4);
+    }
+
+}